@@ -40,6 +40,13 @@ public class ZooKeeperDiscovery implements Watcher, ManagedService {
 
     public static final String DISCOVERY_ZOOKEEPER_ID = "org.apache.cxf.dosgi.discovery.zookeeper";
 
+    /**
+     * The format endpoints are published in: "xml" (the default) or "compact". All consumers
+     * can read both formats from this version onwards, so "compact" should only be enabled
+     * once no older consumers are left.
+     */
+    public static final String ENDPOINT_FORMAT = "zookeeper.endpoint.format";
+
     private static final Logger LOG = LoggerFactory.getLogger(ZooKeeperDiscovery.class);
 
     private final BundleContext bctx;
@@ -50,6 +57,7 @@ public class ZooKeeperDiscovery implements Watcher, ManagedService {
     private ZooKeeper zk;
     private boolean closed;
     private boolean started;
+    private boolean compactFormat;
 
     private Dictionary<String, ?> curConfiguration;
 
@@ -69,10 +77,12 @@ public class ZooKeeperDiscovery implements Watcher, ManagedService {
         if (configuration != null) {
             setDefaults((Dictionary<String, String>)configuration);
         }
+        boolean compact = isCompactFormat(configuration);
         // make changes only if config actually changed, to prevent unnecessary ZooKeeper reconnections
         if (!Utils.toMap(configuration).equals(Utils.toMap(curConfiguration))) {
             stop(false);
             curConfiguration = configuration;
+            compactFormat = compact;
             // config is null if it doesn't exist, is being deleted or has not yet been loaded
             // in which case we just stop running
             if (configuration != null) {
@@ -81,6 +91,16 @@ public class ZooKeeperDiscovery implements Watcher, ManagedService {
         }
     }
 
+    private static boolean isCompactFormat(Dictionary<String, ?> configuration) throws ConfigurationException {
+        Object format = configuration == null ? null : configuration.get(ENDPOINT_FORMAT);
+        if (format == null || "xml".equals(format)) {
+            return false;
+        } else if ("compact".equals(format)) {
+            return true;
+        }
+        throw new ConfigurationException(ENDPOINT_FORMAT, "unknown endpoint format: " + format);
+    }
+
     private synchronized void start() {
         if (closed) {
             return;
@@ -88,10 +108,12 @@ public class ZooKeeperDiscovery implements Watcher, ManagedService {
         if (started) {
             // we must be re-entrant, i.e. can be called when already started
             LOG.debug("ZookeeperDiscovery already started");
+            // a reconnection does not trigger any watches, so catch up on missed changes
+            imManager.reconnected();
             return;
         }
         LOG.debug("starting ZookeeperDiscovery");
-        endpointListenerFactory = new PublishingEndpointListenerFactory(zk, bctx);
+        endpointListenerFactory = new PublishingEndpointListenerFactory(zk, bctx, compactFormat);
         endpointListenerFactory.start();
         imManager = new InterfaceMonitorManager(bctx, zk);
         endpointListenerTracker = new EndpointListenerTracker(bctx, imManager);
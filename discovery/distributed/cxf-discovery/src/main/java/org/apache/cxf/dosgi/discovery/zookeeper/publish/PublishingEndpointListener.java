@@ -21,22 +21,24 @@ package org.apache.cxf.dosgi.discovery.zookeeper.publish;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.UnknownHostException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.cxf.dosgi.discovery.zookeeper.util.Utils;
+import org.apache.cxf.dosgi.endpointdesc.EndpointDescriptionCodec;
 import org.apache.cxf.dosgi.endpointdesc.EndpointDescriptionParser;
 import org.apache.cxf.dosgi.endpointdesc.PropertiesMapper;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.BadVersionException;
 import org.apache.zookeeper.KeeperException.NoNodeException;
 import org.apache.zookeeper.KeeperException.NodeExistsException;
 import org.apache.zookeeper.ZooDefs.Ids;
 import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.remoteserviceadmin.EndpointDescription;
 import org.osgi.service.remoteserviceadmin.EndpointListener;
@@ -55,17 +57,31 @@ public class PublishingEndpointListener implements EndpointListener {
 
     private final ZooKeeper zk;
     private final ServiceTracker<DiscoveryPlugin, DiscoveryPlugin> discoveryPluginTracker;
-    private final List<EndpointDescription> endpoints = new ArrayList<EndpointDescription>();
+    // the published nodes of each endpoint by endpoint id
+    private final Map<String, Map<String, PublishedNode>> endpoints =
+        new HashMap<String, Map<String, PublishedNode>>();
     private boolean closed;
 
     private final EndpointDescriptionParser endpointDescriptionParser;
+    private final EndpointDescriptionCodec endpointDescriptionCodec;
 
     public PublishingEndpointListener(ZooKeeper zk, BundleContext bctx) {
+        this(zk, bctx, false);
+    }
+
+    /**
+     * @param zk the ZooKeeper client
+     * @param bctx the bundle context
+     * @param compactFormat whether to publish the endpoints in the compact format
+     *        (which only consumers of this version onwards can read) instead of XML
+     */
+    public PublishingEndpointListener(ZooKeeper zk, BundleContext bctx, boolean compactFormat) {
         this.zk = zk;
         discoveryPluginTracker = new ServiceTracker<DiscoveryPlugin, DiscoveryPlugin>(bctx, 
             DiscoveryPlugin.class, null);
         discoveryPluginTracker.open();
         endpointDescriptionParser = new EndpointDescriptionParser();
+        endpointDescriptionCodec = compactFormat ? new EndpointDescriptionCodec() : null;
     }
 
     public void endpointAdded(EndpointDescription endpoint, String matchedFilter) {
@@ -75,22 +91,32 @@ public class PublishingEndpointListener implements EndpointListener {
             if (closed) {
                 return;
             }
-            if (endpoints.contains(endpoint)) {
-                // TODO -> Should the published endpoint be updated here?
-                return;
-            }
 
             try {
-                addEndpoint(endpoint);
-                endpoints.add(endpoint);
+                Map<String, PublishedNode> published = endpoints.get(endpoint.getId());
+                if (published == null) {
+                    published = new HashMap<String, PublishedNode>();
+                }
+                publishEndpoint(endpoint, published);
+                endpoints.put(endpoint.getId(), published);
             } catch (Exception ex) {
                 LOG.error("Exception while processing the addition of an endpoint.", ex);
             }
         }
     }
 
-    private void addEndpoint(EndpointDescription endpoint) throws URISyntaxException, KeeperException,
-                                                                  InterruptedException, IOException {
+    /**
+     * Creates or updates the nodes of the given endpoint. Nodes whose data did not
+     * change are left alone, changed nodes are updated in place so that watchers
+     * see a data change, and nodes of interfaces the endpoint no longer provides
+     * are removed.
+     *
+     * @param endpoint the endpoint
+     * @param published the nodes that are already published for the endpoint, by path;
+     *        updated to the nodes published now
+     */
+    private void publishEndpoint(EndpointDescription endpoint, Map<String, PublishedNode> published)
+        throws URISyntaxException, KeeperException, InterruptedException, IOException {
         Collection<String> interfaces = endpoint.getInterfaces();
         String endpointKey = getKey(endpoint.getId());
         Map<String, Object> props = new HashMap<String, Object>(endpoint.getProperties());
@@ -105,17 +131,56 @@ public class PublishingEndpointListener implements EndpointListener {
             }
         }
 
-        for (String name : interfaces) {
-            String path = Utils.getZooKeeperPath(name);
-            String fullPath = path + '/' + endpointKey;
-            LOG.debug("Creating ZooKeeper node: {}", fullPath);
-            ensurePath(path, zk);
+        byte[] epData;
+        if (endpointDescriptionCodec != null) {
+            epData = endpointDescriptionCodec.encode(props);
+        } else {
             List<PropertyType> propsOut = new PropertiesMapper().fromProps(props);
             EndpointDescriptionType epd = new EndpointDescriptionType();
             epd.getProperty().addAll(propsOut);
-            byte[] epData = endpointDescriptionParser.getData(epd);
-            createEphemeralNode(fullPath, epData);
+            epData = endpointDescriptionParser.getData(epd);
         }
+
+        Map<String, PublishedNode> stale = new HashMap<String, PublishedNode>(published);
+        for (String name : interfaces) {
+            String path = Utils.getZooKeeperPath(name);
+            String fullPath = path + '/' + endpointKey;
+            PublishedNode node = stale.remove(fullPath);
+            if (node == null) {
+                LOG.debug("Creating ZooKeeper node: {}", fullPath);
+                ensurePath(path, zk);
+                createEphemeralNode(fullPath, epData);
+                published.put(fullPath, new PublishedNode(epData, 0));
+            } else if (!Arrays.equals(node.data, epData)) {
+                LOG.debug("Updating ZooKeeper node: {}", fullPath);
+                published.put(fullPath, new PublishedNode(epData, updateEphemeralNode(fullPath, epData, node)));
+            }
+        }
+        for (String fullPath : stale.keySet()) {
+            removeNode(fullPath);
+            published.remove(fullPath);
+        }
+    }
+
+    /**
+     * Updates the data of a node we created, provided nobody else changed it since.
+     *
+     * @return the new data version of the node
+     */
+    private int updateEphemeralNode(String fullPath, byte[] data, PublishedNode node)
+        throws KeeperException, InterruptedException {
+        try {
+            Stat stat = zk.setData(fullPath, data, node.version);
+            return stat.getVersion();
+        } catch (BadVersionException bve) {
+            // the node is not the one we published, e.g. it was recreated by an
+            // expired session - take it over like a node that already exists
+            LOG.info("node for endpoint was modified concurrently, recreating: {}", fullPath);
+        } catch (NoNodeException nne) {
+            LOG.info("node for endpoint is missing, recreating: {}", fullPath);
+        }
+        createEphemeralNode(fullPath, data);
+        return 0;
     }
 
     private void createEphemeralNode(String fullPath, byte[] data) throws KeeperException, InterruptedException {
@@ -143,32 +208,25 @@ public class PublishingEndpointListener implements EndpointListener {
             if (closed) {
                 return;
             }
-            if (!endpoints.contains(endpoint)) {
-                return;
-            }
-
-            try {
-                removeEndpoint(endpoint);
-                endpoints.remove(endpoint);
-            } catch (Exception ex) {
-                LOG.error("Exception while processing the removal of an endpoint", ex);
+            Map<String, PublishedNode> published = endpoints.remove(endpoint.getId());
+            if (published != null) {
+                removeEndpoint(published);
             }
         }
     }
 
-    private void removeEndpoint(EndpointDescription endpoint) throws UnknownHostException, URISyntaxException {
-        Collection<String> interfaces = endpoint.getInterfaces();
-        String endpointKey = getKey(endpoint.getId());
+    private void removeEndpoint(Map<String, PublishedNode> published) {
+        for (String fullPath : published.keySet()) {
+            removeNode(fullPath);
+        }
+    }
 
-        for (String name : interfaces) {
-            String path = Utils.getZooKeeperPath(name);
-            String fullPath = path + '/' + endpointKey;
-            LOG.debug("Removing ZooKeeper node: {}", fullPath);
-            try {
-                zk.delete(fullPath, -1);
-            } catch (Exception ex) {
-                LOG.debug("Error while removing endpoint: {}", ex); // e.g. session expired
-            }
+    private void removeNode(String fullPath) {
+        LOG.debug("Removing ZooKeeper node: {}", fullPath);
+        try {
+            zk.delete(fullPath, -1);
+        } catch (Exception ex) {
+            LOG.debug("Error while removing endpoint: {}", ex); // e.g. session expired
         }
     }
 
@@ -202,15 +260,24 @@ public class PublishingEndpointListener implements EndpointListener {
         LOG.debug("closing - removing all endpoints");
         synchronized (endpoints) {
             closed = true;
-            for (EndpointDescription endpoint : endpoints) {
-                try {
-                    removeEndpoint(endpoint);
-                } catch (Exception ex) {
-                    LOG.error("Exception while removing endpoint during close", ex);
-                }
+            for (Map<String, PublishedNode> published : endpoints.values()) {
+                removeEndpoint(published);
             }
             endpoints.clear();
         }
         discoveryPluginTracker.close();
     }
+
+    /**
+     * The data we published to a node and the data version it got.
+     */
+    private static final class PublishedNode {
+        final byte[] data;
+        final int version;
+
+        PublishedNode(byte[] data, int version) {
+            this.data = data;
+            this.version = version;
+        }
+    }
 }
@@ -45,18 +45,24 @@ public class PublishingEndpointListenerFactory implements ServiceFactory<Publish
 
     private final BundleContext bctx;
     private final ZooKeeper zk;
+    private final boolean compactFormat;
     private final List<PublishingEndpointListener> listeners = new ArrayList<PublishingEndpointListener>();
     private ServiceRegistration serviceRegistration;
 
     public PublishingEndpointListenerFactory(ZooKeeper zk, BundleContext bctx) {
+        this(zk, bctx, false);
+    }
+
+    public PublishingEndpointListenerFactory(ZooKeeper zk, BundleContext bctx, boolean compactFormat) {
         this.bctx = bctx;
         this.zk = zk;
+        this.compactFormat = compactFormat;
     }
 
     public PublishingEndpointListener getService(Bundle b, ServiceRegistration<PublishingEndpointListener> sr) {
         LOG.debug("new EndpointListener from factory");
         synchronized (listeners) {
-            PublishingEndpointListener pel = new PublishingEndpointListener(zk, bctx);
+            PublishingEndpointListener pel = new PublishingEndpointListener(zk, bctx, compactFormat);
             listeners.add(pel);
             return pel;
         }
@@ -18,17 +18,21 @@
  */
 package org.apache.cxf.dosgi.discovery.zookeeper.subscribe;
 
-import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.cxf.dosgi.discovery.zookeeper.util.Utils;
-import org.apache.cxf.dosgi.endpointdesc.EndpointDescriptionParser;
-import org.apache.cxf.dosgi.endpointdesc.PropertiesMapper;
+import org.apache.cxf.dosgi.endpointdesc.EndpointDescriptionCache;
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
 import org.apache.zookeeper.AsyncCallback.StatCallback;
-import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.KeeperException.Code;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
@@ -36,7 +40,6 @@ import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.data.Stat;
 import org.osgi.service.remoteserviceadmin.EndpointDescription;
 import org.osgi.service.remoteserviceadmin.EndpointListener;
-import org.osgi.xmlns.rsa.v1_0.EndpointDescriptionType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,8 +48,8 @@ import org.slf4j.LoggerFactory;
  * <p>
  * Specifically, it monitors the node path associated with a given interface class,
  * whose data is a serialized version of an EndpointDescription, and notifies an
- * EndpointListener when changes are detected (which can then propagate the
- * notification to other EndpointListeners with a matching scope).
+ * EndpointListener when endpoints are added, removed or modified (which can then
+ * propagate the notification to other EndpointListeners with a matching scope).
  * <p>
  * Note that the EndpointListener is used here as a decoupling interface for
  * convenience, and is not necessarily used according to its documented contract.
@@ -60,18 +63,29 @@ public class InterfaceMonitor implements Watcher, StatCallback {
     private final EndpointListener endpointListener;
     private final boolean recursive;
     private volatile boolean closed;
+    // set when a refresh could not read all nodes, which is retried on reconnection
+    private volatile boolean retry;
 
     // This map reference changes, so don't synchronize on it
-    private Map<String, EndpointDescription> nodes = new HashMap<String, EndpointDescription>();
+    private Map<String, Node> nodes = new HashMap<String, Node>();
+    private int refreshCount;
 
-    private EndpointDescriptionParser parser;
+    private final EndpointDescriptionCache cache;
 
     public InterfaceMonitor(ZooKeeper zk, String objClass, EndpointListener endpointListener, String scope) {
+        this(zk, objClass, endpointListener, scope, new EndpointDescriptionCache());
+    }
+
+    /**
+     * @param cache the cache of parsed endpoints, which can be shared with other monitors
+     */
+    public InterfaceMonitor(ZooKeeper zk, String objClass, EndpointListener endpointListener, String scope,
+                            EndpointDescriptionCache cache) {
         this.zk = zk;
         this.znode = Utils.getZooKeeperPath(objClass);
         this.recursive = objClass == null || objClass.isEmpty();
         this.endpointListener = endpointListener;
-        this.parser = new EndpointDescriptionParser();
+        this.cache = cache;
         LOG.debug("Creating new InterfaceMonitor {} for scope [{}] and objectClass [{}]",
                 new Object[] {recursive ? "(recursive)" : "", scope, objClass});
     }
@@ -82,13 +96,29 @@ public class InterfaceMonitor implements Watcher, StatCallback {
      * @return all endpoints that are currently known to this monitor
      */
     public synchronized List<EndpointDescription> getEndpoints() {
-        return new ArrayList<EndpointDescription>(nodes.values());
+        List<EndpointDescription> endpoints = new ArrayList<EndpointDescription>(nodes.size());
+        for (Node node : nodes.values()) {
+            endpoints.add(node.endpoint);
+        }
+        return endpoints;
     }
 
     public void start() {
         watch();
     }
 
+    /**
+     * Repeats a refresh that could not read all nodes, e.g. because the connection was
+     * lost in between. A reconnection does not trigger any watches, so the changes that
+     * were missed would otherwise only be seen with the next change of the nodes.
+     */
+    public void reconnected() {
+        if (retry) {
+            LOG.debug("Retrying the incomplete refresh of node {}", znode);
+            processDelta();
+        }
+    }
+
     private void watch() {
         LOG.debug("registering a ZooKeeper.exists({}) callback", znode);
         zk.exists(znode, this, this, null);
@@ -115,9 +145,12 @@ public class InterfaceMonitor implements Watcher, StatCallback {
             processDelta();
             return;
 
+        case Code.ConnectionLoss:
+            retry = true;
+            return;
+
         case Code.SessionExpired:
         case Code.NoAuth:
-        case Code.ConnectionLoss:
             return;
 
         default:
@@ -135,14 +168,15 @@ public class InterfaceMonitor implements Watcher, StatCallback {
             return;
         }
 
+        retry = false;
         try {
             if (zk.exists(znode, false) != null) {
-                zk.getChildren(znode, this);
-                refreshNodes();
+                refreshNodes(zk.getChildren(znode, this));
             } else {
                 LOG.debug("znode {} doesn't exist -> not processing any changes", znode);
             }
         } catch (Exception e) {
+            retry = true;
             if (zk.getState() != ZooKeeper.States.CONNECTED) {
                 LOG.debug("Error getting Zookeeper data: " + e); // e.g. session expired, handled by ZooKeeperDiscovery
             } else {
@@ -153,93 +187,212 @@ public class InterfaceMonitor implements Watcher, StatCallback {
 
     public synchronized void close() {
         closed = true;
-        for (EndpointDescription endpoint : nodes.values()) {
-            endpointListener.endpointRemoved(endpoint, null);
+        for (Node node : nodes.values()) {
+            endpointListener.endpointRemoved(node.endpoint, null);
         }
         nodes.clear();
     }
 
-    private synchronized void refreshNodes() {
-        if (closed) {
-            return;
+    private void refreshNodes(List<String> children) {
+        Refresh refresh;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            refresh = new Refresh(++refreshCount);
         }
         LOG.info("Processing change on node: {}", znode);
+        refresh.processChildren(znode, children);
+        refresh.release();
+    }
 
-        Map<String, EndpointDescription> newNodes = new HashMap<String, EndpointDescription>();
-        Map<String, EndpointDescription> prevNodes = new HashMap<String, EndpointDescription>(nodes);
-        processChildren(znode, newNodes, prevNodes);
+    /**
+     * Applies the result of a completed refresh: notifies the listener of new and
+     * removed endpoints and replaces the known nodes. Nodes that could not be read
+     * keep their previous endpoints until the refresh is retried.
+     */
+    private synchronized void applyRefresh(Refresh refresh) {
+        if (closed || refresh.id != refreshCount) {
+            // an outdated refresh is superseded by the refresh that is still in progress
+            return;
+        }
+        Map<String, Node> newNodes = new HashMap<String, Node>(refresh.found);
+        Map<String, Node> prevNodes = new HashMap<String, Node>(nodes);
+        for (Map.Entry<String, Node> entry : refresh.found.entrySet()) {
+            Node prevNode = prevNodes.remove(entry.getKey());
+            EndpointDescription endpoint = entry.getValue().endpoint;
+            if (prevNode == null) {
+                // This guy is new
+                LOG.info("found new node {}  props: {}", entry.getKey(), endpoint.getProperties().values());
+                endpointListener.endpointAdded(endpoint, null);
+            } else if (prevNode.endpoint != endpoint) {
+                // EndpointListener has no modification callback, so the modified
+                // endpoint is passed on as a removal followed by an addition
+                LOG.info("found modified node {}  props: {}", entry.getKey(), endpoint.getProperties().values());
+                endpointListener.endpointRemoved(prevNode.endpoint, null);
+                endpointListener.endpointAdded(endpoint, null);
+            }
+        }
 
-        // whatever is left in prevNodes now has been removed from Discovery
-        LOG.debug("processChildren done. Nodes that are missing now and need to be removed: {}", prevNodes.values());
-        for (EndpointDescription endpoint : prevNodes.values()) {
-            endpointListener.endpointRemoved(endpoint, null);
+        // whatever is left in prevNodes now has been removed from Discovery, unless it could not be read
+        for (Map.Entry<String, Node> entry : prevNodes.entrySet()) {
+            if (refresh.isUnread(entry.getKey())) {
+                newNodes.put(entry.getKey(), entry.getValue());
+            } else {
+                LOG.debug("Node {} is missing now and needs to be removed", entry.getKey());
+                endpointListener.endpointRemoved(entry.getValue().endpoint, null);
+            }
         }
         nodes = newNodes;
+        if (!refresh.unread.isEmpty()) {
+            LOG.info("Could not read nodes {}, retrying on reconnection", refresh.unread);
+            retry = true;
+        }
+    }
+
+    private synchronized Node getNode(String path) {
+        return nodes.get(path);
+    }
+
+    public EndpointDescription getFirstEnpointDescription(byte[] data) {
+        List<EndpointDescription> endpoints = cache.getEndpointDescriptions(data);
+        return endpoints.isEmpty() ? null : endpoints.get(0);
     }
 
     /**
-     * Iterates through all child nodes of the given node and tries to find
-     * endpoints. If the recursive flag is set it also traverses into the child
-     * nodes.
-     *
-     * @return true if an endpoint was found and if the node therefore needs to
-     *         be monitored for changes
+     * An endpoint node together with the data it was parsed from and the zxid of the
+     * last modification of the node. Unlike the data version, which starts at 0 again
+     * when a node is recreated (e.g. the ephemeral node of a restarted provider), the
+     * zxid identifies the data of the node unambiguously.
      */
-    private boolean processChildren(String zn, Map<String, EndpointDescription> newNodes,
-            Map<String, EndpointDescription> prevNodes) {
-        List<String> children;
-        try {
-            LOG.debug("Processing the children of {}", zn);
-            children = zk.getChildren(zn, false);
+    private static final class Node {
+        final long mzxid;
+        final byte[] data;
+        final EndpointDescription endpoint;
 
-            boolean foundANode = false;
+        Node(long mzxid, byte[] data, EndpointDescription endpoint) {
+            this.mzxid = mzxid;
+            this.data = data;
+            this.endpoint = endpoint;
+        }
+    }
+
+    /**
+     * A single pass over the monitored nodes.
+     * <p>
+     * The Stats of the children, the data of new or changed nodes and, in recursive mode,
+     * the children of the children are read with pipelined asynchronous requests, so that
+     * the cost of a refresh does not grow with the number of round trips to the server.
+     * Nodes that were not modified since the last refresh are neither fetched nor parsed
+     * again.
+     * The callbacks run on the ZooKeeper event thread, so nothing here may wait for them;
+     * instead the refresh is applied by whichever callback completes the last request.
+     */
+    private final class Refresh implements StatCallback, DataCallback, ChildrenCallback {
+
+        final int id;
+        final Map<String, Node> found = new ConcurrentHashMap<String, Node>();
+        // the nodes that could not be read, including their descendants in recursive mode
+        final Set<String> unread = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        // one extra count is held until all requests have been issued
+        private final AtomicInteger pending = new AtomicInteger(1);
+
+        Refresh(int id) {
+            this.id = id;
+        }
+
+        /**
+         * Requests the Stats of the given child nodes of the given node. If the recursive
+         * flag is set it also traverses into (and watches) the child nodes.
+         */
+        void processChildren(String zn, List<String> children) {
+            LOG.debug("Processing the children of {}", zn);
             for (String child : children) {
                 String childZNode = zn + '/' + child;
-                EndpointDescription endpoint = getEndpointDescriptionFromNode(childZNode);
-                if (endpoint != null) {
-                    EndpointDescription prevEndpoint = prevNodes.get(child);
-                    LOG.info("found new node " + zn + "/[" + child + "]   ( []->child )  props: "
-                            + endpoint.getProperties().values());
-                    newNodes.put(child, endpoint);
-                    prevNodes.remove(child);
-                    foundANode = true;
-                    LOG.debug("Properties: {}", endpoint.getProperties());
-                    if (prevEndpoint == null) {
-                        // This guy is new
-                        endpointListener.endpointAdded(endpoint, null);
-                    } else if (!prevEndpoint.getProperties().equals(endpoint.getProperties())) {
-                        // TODO
-                    }
+                pending.incrementAndGet();
+                // the watch reports data changes of endpoints that are already known
+                zk.exists(childZNode, InterfaceMonitor.this, this, null);
+                if (recursive) {
+                    pending.incrementAndGet();
+                    zk.getChildren(childZNode, InterfaceMonitor.this, this, null);
                 }
-                if (recursive && processChildren(childZNode, newNodes, prevNodes)) {
-                    zk.getChildren(childZNode, this);
+            }
+        }
+
+        /**
+         * Zookeeper ChildrenCallback interface callback for a child node in recursive mode.
+         */
+        public void processResult(int rc, String path, Object ctx, List<String> children) {
+            if (rc == Code.OK.intValue()) {
+                processChildren(path, children);
+            } else {
+                checkResult(rc, path);
+            }
+            release();
+        }
+
+        void release() {
+            if (pending.decrementAndGet() == 0) {
+                applyRefresh(this);
+            }
+        }
+
+        boolean isUnread(String path) {
+            for (String unreadPath : unread) {
+                if (path.equals(unreadPath) || path.startsWith(unreadPath + '/')) {
+                    return true;
                 }
             }
+            return false;
+        }
 
-            return foundANode;
-        } catch (KeeperException e) {
-            LOG.error("Problem processing ZooKeeper node", e);
-        } catch (InterruptedException e) {
-            LOG.error("Problem processing ZooKeeper node", e);
+        /**
+         * Zookeeper StatCallback interface callback for a child node.
+         */
+        public void processResult(int rc, String path, Object ctx, Stat stat) {
+            if (rc == Code.OK.intValue() && stat.getDataLength() > 0) {
+                Node node = getNode(path);
+                if (node != null && node.mzxid == stat.getMzxid()) {
+                    found.put(path, node);
+                } else {
+                    pending.incrementAndGet();
+                    zk.getData(path, false, this, null);
+                }
+            } else {
+                checkResult(rc, path);
+            }
+            release();
         }
-        return false;
-    }
 
-    /**
-     * Retrieves data from the given node and parses it into an EndpointDescription.
-     *
-     * @param node a node path
-     * @return endpoint found in the node or null if no endpoint was found
-     */
-    private EndpointDescription getEndpointDescriptionFromNode(String node) {
-        try {
-            Stat stat = zk.exists(node, false);
-            if (stat == null || stat.getDataLength() <= 0) {
-                return null;
+        /**
+         * Zookeeper DataCallback interface callback for a new or changed child node.
+         */
+        public void processResult(int rc, String path, Object ctx, byte[] data, Stat stat) {
+            if (rc == Code.OK.intValue() && data != null && data.length > 0) {
+                LOG.debug("Got data for node: {}", path);
+                Node node = getNode(path);
+                EndpointDescription endpoint = node != null && Arrays.equals(node.data, data)
+                    ? node.endpoint : getEndpointDescription(path, data);
+                if (endpoint != null) {
+                    found.put(path, new Node(stat.getMzxid(), data, endpoint));
+                }
+            } else {
+                checkResult(rc, path);
             }
-            byte[] data = zk.getData(node, false, null);
-            LOG.debug("Got data for node: {}", node);
+            release();
+        }
 
+        private void checkResult(int rc, String path) {
+            if (rc != Code.OK.intValue() && rc != Code.NONODE.intValue()) {
+                // don't remove endpoints just because they could not be read
+                LOG.debug("Failed to read node {}: {}", path, Code.get(rc));
+                unread.add(path);
+            }
+        }
+    }
+
+    private EndpointDescription getEndpointDescription(String node, byte[] data) {
+        try {
             EndpointDescription endpoint = getFirstEnpointDescription(data);
             if (endpoint != null) {
                 return endpoint;
@@ -250,13 +403,4 @@ public class InterfaceMonitor implements Watcher, StatCallback {
         }
         return null;
     }
-
-    public EndpointDescription getFirstEnpointDescription(byte[] data) {
-        List<EndpointDescriptionType> elements = parser.getEndpointDescriptions(new ByteArrayInputStream(data));
-        if (elements.isEmpty()) {
-            return null;
-        }
-        Map<String, Object> props = new PropertiesMapper().toProps(elements.get(0).getProperty());
-        return new EndpointDescription(props);
-    }
 }
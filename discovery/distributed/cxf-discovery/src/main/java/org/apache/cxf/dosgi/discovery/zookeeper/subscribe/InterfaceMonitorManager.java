@@ -21,12 +21,14 @@ package org.apache.cxf.dosgi.discovery.zookeeper.subscribe;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.cxf.dosgi.discovery.zookeeper.ZooKeeperDiscovery;
 import org.apache.cxf.dosgi.discovery.zookeeper.util.Utils;
+import org.apache.cxf.dosgi.endpointdesc.EndpointDescriptionCache;
 import org.apache.zookeeper.ZooKeeper;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -50,6 +52,8 @@ public class InterfaceMonitorManager {
 
     private final BundleContext bctx;
     private final ZooKeeper zk;
+    // parsed endpoints, shared by the monitors as their scopes may overlap
+    private final EndpointDescriptionCache endpointCache = new EndpointDescriptionCache();
     // map of EndpointListeners and the scopes they are interested in
     private final Map<ServiceReference<EndpointListener>, List<String>> endpointListenerScopes =
             new HashMap<ServiceReference<EndpointListener>, List<String>>();
@@ -77,7 +81,9 @@ public class InterfaceMonitorManager {
         if (LOG.isDebugEnabled()) {
             LOG.debug("updated EndpointListener properties: {}", Utils.getProperties(endpointListener));
         }
-        for (String scope : Utils.getScopes(endpointListener)) {
+        String[] scopes = Utils.getScopes(endpointListener);
+        removeInterests(endpointListener, Arrays.asList(scopes));
+        for (String scope : scopes) {
             String objClass = Utils.getObjectClass(scope);
             LOG.debug("Adding interest in scope {}, objectClass {}", scope, objClass);
             addInterest(endpointListener, scope, objClass);
@@ -105,11 +111,12 @@ public class InterfaceMonitorManager {
             // interest already exists, so just add listener to it
             if (!interest.endpointListeners.contains(endpointListener)) {
                 interest.endpointListeners.add(endpointListener);
-            }
-            // notify listener of all known endpoints for given scope
-            // (as EndpointListener contract requires of all added/modified listeners)
-            for (EndpointDescription endpoint : interest.monitor.getEndpoints()) {
-                notifyListeners(endpoint, scope, true, Arrays.asList(endpointListener));
+                // notify listener of all known endpoints for given scope
+                // (as EndpointListener contract requires of all added/modified listeners).
+                // A listener that already had this scope before being modified knows them already.
+                for (EndpointDescription endpoint : interest.monitor.getEndpoints()) {
+                    notifyListeners(endpoint, scope, true, Arrays.asList(endpointListener));
+                }
             }
         }
 
@@ -124,6 +131,42 @@ public class InterfaceMonitorManager {
         }
     }
 
+    /**
+     * Removes the interests of a modified listener in the scopes it no longer has,
+     * and notifies it of the removal of the endpoints that are no longer in its scope.
+     *
+     * @param endpointListener the listener
+     * @param scopes the current scopes of the listener
+     */
+    private synchronized void removeInterests(ServiceReference<EndpointListener> endpointListener,
+                                              List<String> scopes) {
+        List<String> oldScopes = endpointListenerScopes.get(endpointListener);
+        if (oldScopes == null) {
+            return;
+        }
+        for (Iterator<String> it = oldScopes.iterator(); it.hasNext();) {
+            String scope = it.next();
+            if (scopes.contains(scope)) {
+                continue;
+            }
+            LOG.debug("Removing interest in scope {}", scope);
+            it.remove();
+            Interest interest = interests.get(scope);
+            if (interest != null && interest.endpointListeners.remove(endpointListener)) {
+                for (EndpointDescription endpoint : interest.monitor.getEndpoints()) {
+                    notifyListeners(endpoint, scope, false, Arrays.asList(endpointListener));
+                }
+                if (interest.endpointListeners.isEmpty()) {
+                    interest.monitor.close();
+                    interests.remove(scope);
+                }
+            }
+        }
+        if (oldScopes.isEmpty()) {
+            endpointListenerScopes.remove(endpointListener);
+        }
+    }
+
     public synchronized void removeInterest(ServiceReference<EndpointListener> endpointListener) {
         LOG.info("removing EndpointListener interests: {}", endpointListener);
         List<String> scopes = endpointListenerScopes.get(endpointListener);
@@ -156,7 +199,7 @@ public class InterfaceMonitorManager {
                 notifyListeners(endpoint, scope, true, interest.endpointListeners);
             }
         };
-        return new InterfaceMonitor(zk, objClass, endpointListener, scope);
+        return new InterfaceMonitor(zk, objClass, endpointListener, scope, endpointCache);
     }
 
     private void notifyListeners(EndpointDescription endpoint, String currentScope, boolean isAdded,
@@ -194,6 +237,21 @@ public class InterfaceMonitorManager {
         }
     }
 
+    /**
+     * Retries the refreshes of the monitors that were interrupted by a connection loss.
+     */
+    public void reconnected() {
+        List<InterfaceMonitor> monitors = new ArrayList<InterfaceMonitor>();
+        synchronized (this) {
+            for (Interest interest : interests.values()) {
+                monitors.add(interest.monitor);
+            }
+        }
+        for (InterfaceMonitor monitor : monitors) {
+            monitor.reconnected();
+        }
+    }
+
     public synchronized void close() {
         for (Interest interest : interests.values()) {
             interest.monitor.close();
@@ -31,6 +31,7 @@ import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.ZooDefs.Ids;
 import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
 import org.easymock.IAnswer;
 import org.easymock.classextension.EasyMock;
 import org.easymock.classextension.IMocksControl;
@@ -60,6 +61,7 @@ public class PublishingEndpointListenerTest extends TestCase {
 
         zk.delete(EasyMock.eq("/osgi/service_registry/myClass/google.de#80##test"), EasyMock.eq(-1));
         EasyMock.expectLastCall().once();
+        expectSetData(zk);
 
         c.replay();
 
@@ -83,6 +85,50 @@ public class PublishingEndpointListenerTest extends TestCase {
         c.verify();
     }
 
+    public void testEndpointModification() throws KeeperException, InterruptedException {
+        IMocksControl c = EasyMock.createNiceControl();
+
+        BundleContext ctx = c.createMock(BundleContext.class);
+        ZooKeeper zk = c.createMock(ZooKeeper.class);
+
+        String path = "/osgi/service_registry/myClass/google.de#80##test";
+        EasyMock.expect(zk.create(EasyMock.eq(path),
+                (byte[])EasyMock.anyObject(), EasyMock.eq(Ids.OPEN_ACL_UNSAFE),
+                EasyMock.eq(CreateMode.EPHEMERAL))).andReturn("").once();
+        Stat stat = new Stat();
+        stat.setVersion(1);
+        EasyMock.expect(zk.setData(EasyMock.eq(path), (byte[])EasyMock.anyObject(), EasyMock.eq(0)))
+            .andReturn(stat).once();
+        // a node changed by someone else is recreated
+        EasyMock.expect(zk.setData(EasyMock.eq(path), (byte[])EasyMock.anyObject(), EasyMock.eq(1)))
+            .andThrow(new KeeperException.BadVersionException(path)).once();
+        EasyMock.expect(zk.create(EasyMock.eq(path),
+                (byte[])EasyMock.anyObject(), EasyMock.eq(Ids.OPEN_ACL_UNSAFE),
+                EasyMock.eq(CreateMode.EPHEMERAL))).andThrow(new KeeperException.NodeExistsException(path))
+            .andReturn("");
+        zk.delete(EasyMock.eq(path), EasyMock.eq(-1));
+        EasyMock.expectLastCall().once();
+
+        c.replay();
+
+        PublishingEndpointListener eli = new PublishingEndpointListener(zk, ctx);
+        eli.endpointAdded(createEndpoint(1), null);
+        eli.endpointAdded(createEndpoint(1), null); // unchanged, should do nothing
+        eli.endpointAdded(createEndpoint(2), null);
+        eli.endpointAdded(createEndpoint(3), null);
+
+        c.verify();
+    }
+
+    private static EndpointDescription createEndpoint(int weight) {
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put(Constants.OBJECTCLASS, new String[] {"myClass"});
+        props.put(RemoteConstants.ENDPOINT_ID, "http://google.de:80/test");
+        props.put(RemoteConstants.SERVICE_IMPORTED_CONFIGS, "myConfig");
+        props.put("endpoint.weight", weight);
+        return new EndpointDescription(props);
+    }
+
     public void testDiscoveryPlugin() throws Exception {
         DiscoveryPlugin plugin1 = new DiscoveryPlugin() {
             public String process(Map<String, Object> mutableProperties, String endpointKey) {
@@ -140,11 +186,12 @@ public class PublishingEndpointListenerTest extends TestCase {
                 EasyMock.aryEq(data),
                 EasyMock.eq(Ids.OPEN_ACL_UNSAFE),
                 EasyMock.eq(CreateMode.EPHEMERAL))).andReturn("");
+        expectSetData(zk);
         EasyMock.replay(zk);
 
         PublishingEndpointListener eli = new PublishingEndpointListener(zk, ctx);
 
-        List<EndpointDescription> endpoints = getEndpoints(eli);
+        Map<String, ?> endpoints = getEndpoints(eli);
         assertEquals("Precondition", 0, endpoints.size());
         eli.endpointAdded(endpoint, null);
         assertEquals(1, endpoints.size());
@@ -153,11 +200,17 @@ public class PublishingEndpointListenerTest extends TestCase {
         //EasyMock.verify(zk);
     }
 
+    private static void expectSetData(ZooKeeper zk) throws KeeperException, InterruptedException {
+        // like ZooKeeper, never return a null Stat
+        EasyMock.expect(zk.setData((String)EasyMock.anyObject(), (byte[])EasyMock.anyObject(), EasyMock.anyInt()))
+            .andReturn(new Stat()).anyTimes();
+    }
+
     @SuppressWarnings("unchecked")
-    private List<EndpointDescription> getEndpoints(PublishingEndpointListener eli) throws Exception {
+    private Map<String, ?> getEndpoints(PublishingEndpointListener eli) throws Exception {
         Field field = eli.getClass().getDeclaredField("endpoints");
         field.setAccessible(true);
-        return (List<EndpointDescription>) field.get(eli);
+        return (Map<String, ?>) field.get(eli);
     }
 
     public void testClose() throws KeeperException, InterruptedException {
@@ -173,6 +226,7 @@ public class PublishingEndpointListenerTest extends TestCase {
 
         zk.delete(EasyMock.eq("/osgi/service_registry/myClass/google.de#80##test"), EasyMock.eq(-1));
         EasyMock.expectLastCall().once();
+        expectSetData(zk);
 
         c.replay();
 
@@ -19,6 +19,7 @@
 package org.apache.cxf.dosgi.discovery.zookeeper.subscribe;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -136,4 +137,42 @@ public class InterfaceMonitorManagerTest {
             control.verify();
         }
     }
+
+    @Test
+    public void testModifiedScopeRemovesOldInterests() {
+        IMocksControl c = EasyMock.createNiceControl();
+        BundleContext ctx = c.createMock(BundleContext.class);
+        ZooKeeper zk = c.createMock(ZooKeeper.class);
+        @SuppressWarnings("unchecked")
+        ServiceReference<EndpointListener> sref = c.createMock(ServiceReference.class);
+        final Map<String, Object> p = new HashMap<String, Object>();
+        EasyMock.expect(sref.getPropertyKeys()).andAnswer(new IAnswer<String[]>() {
+            public String[] answer() throws Throwable {
+                return p.keySet().toArray(new String[p.size()]);
+            }
+        }).anyTimes();
+        EasyMock.expect(sref.getProperty((String)EasyMock.anyObject())).andAnswer(new IAnswer<Object>() {
+            public Object answer() throws Throwable {
+                return p.get(EasyMock.getCurrentArguments()[0]);
+            }
+        }).anyTimes();
+        c.replay();
+
+        InterfaceMonitorManager eltc = new InterfaceMonitorManager(ctx, zk);
+        p.put(EndpointListener.ENDPOINT_LISTENER_SCOPE, new String[] {"(objectClass=mine)", "(objectClass=ours)"});
+        eltc.addInterest(sref);
+        assertEquals(2, eltc.getInterests().size());
+
+        p.put(EndpointListener.ENDPOINT_LISTENER_SCOPE, new String[] {"(objectClass=ours)", "(objectClass=yours)"});
+        eltc.addInterest(sref);
+        assertEquals(2, eltc.getInterests().size());
+        assertEquals(Arrays.asList("(objectClass=ours)", "(objectClass=yours)"),
+                     eltc.getEndpointListenerScopes().get(sref));
+        assertEquals(false, eltc.getInterests().containsKey("(objectClass=mine)"));
+
+        p.remove(EndpointListener.ENDPOINT_LISTENER_SCOPE);
+        eltc.addInterest(sref);
+        assertEquals(0, eltc.getInterests().size());
+        assertEquals(0, eltc.getEndpointListenerScopes().size());
+    }
 }
@@ -18,23 +18,42 @@
  */
 package org.apache.cxf.dosgi.discovery.zookeeper.subscribe;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import junit.framework.TestCase;
 
 import org.apache.cxf.dosgi.discovery.zookeeper.util.Utils;
+import org.apache.cxf.dosgi.endpointdesc.EndpointDescriptionCodec;
+import org.apache.cxf.dosgi.endpointdesc.EndpointDescriptionParser;
+import org.apache.cxf.dosgi.endpointdesc.PropertiesMapper;
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher.Event.EventType;
 import org.apache.zookeeper.Watcher.Event.KeeperState;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.data.Stat;
+import org.easymock.Capture;
+import org.easymock.IAnswer;
 import org.easymock.classextension.EasyMock;
 import org.easymock.classextension.IMocksControl;
+import org.osgi.framework.Constants;
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
 import org.osgi.service.remoteserviceadmin.EndpointListener;
+import org.osgi.service.remoteserviceadmin.RemoteConstants;
+import org.osgi.xmlns.rsa.v1_0.EndpointDescriptionType;
 
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
 
 public class InterfaceMonitorTest extends TestCase {
 
@@ -54,7 +73,6 @@ public class InterfaceMonitorTest extends TestCase {
         EasyMock.expectLastCall().once();
 
         expect(zk.exists(eq(node), eq(false))).andReturn(new Stat()).anyTimes();
-        expect(zk.getChildren(eq(node), eq(false))).andReturn(Collections.<String> emptyList()).once();
         expect(zk.getChildren(eq(node), eq(im))).andReturn(Collections.<String> emptyList()).once();
 
         c.replay();
@@ -64,4 +82,220 @@ public class InterfaceMonitorTest extends TestCase {
         im.process(we);
         c.verify();
     }
+
+    public void testOnlyNewOrChangedNodesAreFetched() throws KeeperException, InterruptedException {
+        IMocksControl c = EasyMock.createControl();
+        ZooKeeper zk = c.createMock(ZooKeeper.class);
+        expect(zk.getState()).andReturn(ZooKeeper.States.CONNECTED).anyTimes();
+
+        String interf = "es.schaaf.test";
+        String node = Utils.getZooKeeperPath(interf);
+        EndpointListener endpointListener = c.createMock(EndpointListener.class);
+        InterfaceMonitor im = new InterfaceMonitor(zk, interf, endpointListener, "(myProp=test)");
+
+        final Map<String, Long> mzxids = new HashMap<String, Long>();
+        final Map<String, byte[]> data = new HashMap<String, byte[]>();
+        EndpointDescription ep1 = createEndpoint("ep1", 1);
+        EndpointDescription ep2 = createEndpoint("ep2", 1);
+        mzxids.put(node + "/ep1", 1L);
+        data.put(node + "/ep1", getData(ep1));
+        mzxids.put(node + "/ep2", 2L);
+        data.put(node + "/ep2", getData(ep2));
+
+        expect(zk.exists(eq(node), eq(false))).andReturn(new Stat()).anyTimes();
+        expect(zk.getChildren(eq(node), eq(im))).andReturn(Arrays.asList("ep1", "ep2")).anyTimes();
+        // the children are watched for data changes
+        zk.exists(EasyMock.<String>anyObject(), eq(im), EasyMock.<StatCallback>anyObject(), EasyMock.anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            public Object answer() {
+                Object[] args = getCurrentArguments();
+                ((StatCallback) args[2]).processResult(Code.OK.intValue(), (String) args[0], args[3],
+                                                       createStat(mzxids.get(args[0])));
+                return null;
+            }
+        }).times(6);
+        // ep1 and ep2 on the first refresh, then only ep2 after each of its changes
+        zk.getData(EasyMock.<String>anyObject(), eq(false), EasyMock.<DataCallback>anyObject(), EasyMock.anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            public Object answer() {
+                Object[] args = getCurrentArguments();
+                ((DataCallback) args[2]).processResult(Code.OK.intValue(), (String) args[0], args[3],
+                                                       data.get(args[0]), createStat(mzxids.get(args[0])));
+                return null;
+            }
+        }).times(4);
+        endpointListener.endpointAdded(ep1, null);
+        endpointListener.endpointAdded(ep2, null);
+        // a modification is propagated as removal and addition
+        endpointListener.endpointRemoved(ep2, null);
+        Capture<EndpointDescription> modified = EasyMock.newCapture();
+        endpointListener.endpointAdded(EasyMock.capture(modified), EasyMock.<String>isNull());
+        c.replay();
+
+        WatchedEvent we = new WatchedEvent(EventType.NodeChildrenChanged, KeeperState.SyncConnected, node);
+        im.process(we);
+        assertEquals(2, im.getEndpoints().size());
+
+        // modified (or recreated) with the same data
+        mzxids.put(node + "/ep2", 3L);
+        im.process(new WatchedEvent(EventType.NodeDataChanged, KeeperState.SyncConnected, node + "/ep2"));
+
+        mzxids.put(node + "/ep2", 4L);
+        data.put(node + "/ep2", getData(createEndpoint("ep2", 5)));
+        im.process(new WatchedEvent(EventType.NodeDataChanged, KeeperState.SyncConnected, node + "/ep2"));
+        assertEquals(5, modified.getValue().getProperties().get("endpoint.weight"));
+        assertEquals(2, im.getEndpoints().size());
+        c.verify();
+    }
+
+    public void testUnreadNodesAreKeptAndRetriedOnReconnection() throws KeeperException, InterruptedException {
+        IMocksControl c = EasyMock.createControl();
+        ZooKeeper zk = c.createMock(ZooKeeper.class);
+        expect(zk.getState()).andReturn(ZooKeeper.States.CONNECTED).anyTimes();
+
+        String interf = "es.schaaf.test";
+        final String node = Utils.getZooKeeperPath(interf);
+        EndpointListener endpointListener = c.createMock(EndpointListener.class);
+        InterfaceMonitor im = new InterfaceMonitor(zk, interf, endpointListener, "(myProp=test)");
+
+        final Map<String, byte[]> data = new HashMap<String, byte[]>();
+        EndpointDescription ep1 = createEndpoint("ep1", 1);
+        EndpointDescription ep2 = createEndpoint("ep2", 1);
+        EndpointDescription ep3 = createEndpoint("ep3", 1);
+        data.put(node + "/ep1", getData(ep1));
+        data.put(node + "/ep2", getData(ep2));
+        data.put(node + "/ep3", getData(ep3));
+        final List<String> unreadable = new ArrayList<String>();
+
+        expect(zk.exists(eq(node), eq(false))).andReturn(new Stat()).anyTimes();
+        expect(zk.getChildren(eq(node), eq(im))).andReturn(Arrays.asList("ep1", "ep2")).once();
+        expect(zk.getChildren(eq(node), eq(im))).andReturn(Arrays.asList("ep2", "ep3")).times(2);
+        zk.exists(EasyMock.<String>anyObject(), eq(im), EasyMock.<StatCallback>anyObject(), EasyMock.anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            public Object answer() {
+                Object[] args = getCurrentArguments();
+                int rc = unreadable.contains(args[0]) ? Code.CONNECTIONLOSS.intValue() : Code.OK.intValue();
+                ((StatCallback) args[2]).processResult(rc, (String) args[0], args[3], createStat(1L));
+                return null;
+            }
+        }).times(6);
+        zk.getData(EasyMock.<String>anyObject(), eq(false), EasyMock.<DataCallback>anyObject(), EasyMock.anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            public Object answer() {
+                Object[] args = getCurrentArguments();
+                ((DataCallback) args[2]).processResult(Code.OK.intValue(), (String) args[0], args[3],
+                                                       data.get(args[0]), createStat(1L));
+                return null;
+            }
+        }).times(3);
+        endpointListener.endpointAdded(ep1, null);
+        endpointListener.endpointAdded(ep2, null);
+        // ep2 can not be read, but only ep1 is gone
+        endpointListener.endpointAdded(ep3, null);
+        endpointListener.endpointRemoved(ep1, null);
+        c.replay();
+
+        im.process(new WatchedEvent(EventType.NodeChildrenChanged, KeeperState.SyncConnected, node));
+        unreadable.add(node + "/ep2");
+        im.process(new WatchedEvent(EventType.NodeChildrenChanged, KeeperState.SyncConnected, node));
+        assertEquals(2, im.getEndpoints().size());
+        assertTrue(im.getEndpoints().contains(ep2));
+
+        // the incomplete refresh is repeated once
+        unreadable.clear();
+        im.reconnected();
+        im.reconnected();
+        assertEquals(2, im.getEndpoints().size());
+        c.verify();
+    }
+
+    public void testRecursiveChildrenAreListedAsynchronously() throws KeeperException, InterruptedException {
+        IMocksControl c = EasyMock.createControl();
+        ZooKeeper zk = c.createMock(ZooKeeper.class);
+        expect(zk.getState()).andReturn(ZooKeeper.States.CONNECTED).anyTimes();
+
+        final String root = Utils.getZooKeeperPath(null);
+        EndpointListener endpointListener = c.createMock(EndpointListener.class);
+        InterfaceMonitor im = new InterfaceMonitor(zk, null, endpointListener, "(objectClass=*)");
+        final EndpointDescription ep1 = createEndpoint("ep1", 1);
+
+        expect(zk.exists(eq(root), eq(false))).andReturn(new Stat()).once();
+        // the only synchronous listing is the one of the monitored node
+        expect(zk.getChildren(eq(root), eq(im))).andReturn(Arrays.asList("es")).once();
+        zk.getChildren(EasyMock.<String>anyObject(), eq(im), EasyMock.<ChildrenCallback>anyObject(),
+                       EasyMock.anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            public Object answer() {
+                Object[] args = getCurrentArguments();
+                List<String> children = (root + "/es").equals(args[0])
+                    ? Arrays.asList("ep1") : Collections.<String>emptyList();
+                ((ChildrenCallback) args[2]).processResult(Code.OK.intValue(), (String) args[0], args[3], children);
+                return null;
+            }
+        }).times(2);
+        zk.exists(EasyMock.<String>anyObject(), eq(im), EasyMock.<StatCallback>anyObject(), EasyMock.anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            public Object answer() {
+                Object[] args = getCurrentArguments();
+                Stat stat = createStat(1L);
+                if ((root + "/es").equals(args[0])) {
+                    stat.setDataLength(0);
+                }
+                ((StatCallback) args[2]).processResult(Code.OK.intValue(), (String) args[0], args[3], stat);
+                return null;
+            }
+        }).times(2);
+        zk.getData(eq(root + "/es/ep1"), eq(false), EasyMock.<DataCallback>anyObject(), EasyMock.anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            public Object answer() {
+                Object[] args = getCurrentArguments();
+                ((DataCallback) args[2]).processResult(Code.OK.intValue(), (String) args[0], args[3],
+                                                       getData(ep1), createStat(1L));
+                return null;
+            }
+        }).once();
+        endpointListener.endpointAdded(ep1, null);
+        c.replay();
+
+        im.process(new WatchedEvent(EventType.NodeChildrenChanged, KeeperState.SyncConnected, root));
+        assertEquals(Arrays.asList(ep1), im.getEndpoints());
+        c.verify();
+    }
+
+    public void testReadsXmlAndCompactFormat() {
+        ZooKeeper zk = EasyMock.createMock(ZooKeeper.class);
+        InterfaceMonitor im = new InterfaceMonitor(zk, "es.schaaf.test", null, "(myProp=test)");
+        EndpointDescription endpoint = createEndpoint("ep1", 3);
+
+        EndpointDescription fromXml = im.getFirstEnpointDescription(getData(endpoint));
+        assertEquals(endpoint, fromXml);
+        assertEquals(3, fromXml.getProperties().get("endpoint.weight"));
+        byte[] compact = new EndpointDescriptionCodec().encode(endpoint.getProperties());
+        EndpointDescription fromCompact = im.getFirstEnpointDescription(compact);
+        assertEquals(endpoint, fromCompact);
+        assertEquals(3, fromCompact.getProperties().get("endpoint.weight"));
+    }
+
+    private static Stat createStat(long mzxid) {
+        // the version stays 0 like for recreated nodes, only the mzxid tells changes apart
+        Stat stat = new Stat();
+        stat.setMzxid(mzxid);
+        stat.setDataLength(1);
+        return stat;
+    }
+
+    private static byte[] getData(EndpointDescription endpoint) {
+        EndpointDescriptionType epd = new EndpointDescriptionType();
+        epd.getProperty().addAll(new PropertiesMapper().fromProps(endpoint.getProperties()));
+        return new EndpointDescriptionParser().getData(epd);
+    }
+
+    private static EndpointDescription createEndpoint(String id, int weight) {
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put("endpoint.weight", weight);
+        props.put(Constants.OBJECTCLASS, new String[] {"es.schaaf.test"});
+        props.put(RemoteConstants.ENDPOINT_ID, "http://localhost/" + id);
+        props.put(RemoteConstants.SERVICE_IMPORTED_CONFIGS, "myConfig");
+        return new EndpointDescription(props);
+    }
 }
@@ -70,12 +70,7 @@ public class LocalDiscovery implements BundleListener {
             @Override
             public void modifiedService(ServiceReference<EndpointListener> reference, EndpointListener service) {
                 super.modifiedService(reference, service);
-                removeListener(service);
-
-                // This may cause duplicate registrations of remote services,
-                // but that's fine and should be filtered out on another level.
-                // See Remote Service Admin spec section 122.6.3
-                addListener(reference, service);
+                updateListener(reference, service);
             }
 
             @Override
@@ -122,7 +117,53 @@ public class LocalDiscovery implements BundleListener {
             }
         }
 
-        triggerCallbacks(filters, endpointListener);
+        triggerCallbacks(filters, endpointListener, true);
+    }
+
+    /**
+     * Updates the scope of a listener, and notifies it only of the endpoints that
+     * are added to or removed from its scope by the change, rather than replaying
+     * all endpoints in its new scope.
+     *
+     * @param endpointListenerRef the listener's service reference
+     * @param endpointListener the listener
+     */
+    void updateListener(ServiceReference<EndpointListener> endpointListenerRef,
+                        EndpointListener endpointListener) {
+        List<String> filters = Utils.getStringPlusProperty(endpointListenerRef,
+                EndpointListener.ENDPOINT_LISTENER_SCOPE);
+        List<String> addedFilters = new ArrayList<String>(filters);
+        List<String> removedFilters = new ArrayList<String>();
+        synchronized (listenerToFilters) {
+            Collection<String> oldFilters = filters.isEmpty()
+                ? listenerToFilters.remove(endpointListener)
+                : listenerToFilters.put(endpointListener, filters);
+            if (oldFilters != null) {
+                addedFilters.removeAll(oldFilters);
+                removedFilters.addAll(oldFilters);
+                removedFilters.removeAll(filters);
+            }
+            for (String filter : removedFilters) {
+                Collection<EndpointListener> listeners = filterToListeners.get(filter);
+                if (listeners != null) {
+                    listeners.remove(endpointListener);
+                    if (listeners.isEmpty()) {
+                        filterToListeners.remove(filter);
+                    }
+                }
+            }
+            for (String filter : addedFilters) {
+                Collection<EndpointListener> listeners = filterToListeners.get(filter);
+                if (listeners == null) {
+                    listeners = new ArrayList<EndpointListener>();
+                    filterToListeners.put(filter, listeners);
+                }
+                listeners.add(endpointListener);
+            }
+        }
+
+        triggerCallbacks(removedFilters, endpointListener, false);
+        triggerCallbacks(addedFilters, endpointListener, true);
     }
 
     /**
@@ -231,10 +272,10 @@ public class LocalDiscovery implements BundleListener {
         }
     }
 
-    private void triggerCallbacks(Collection<String> filters, EndpointListener endpointListener) {
+    private void triggerCallbacks(Collection<String> filters, EndpointListener endpointListener, boolean added) {
         for (String filter : filters) {
             for (EndpointDescription endpoint : endpointDescriptions.keySet()) {
-                triggerCallbacks(endpointListener, filter, endpoint, true);
+                triggerCallbacks(endpointListener, filter, endpoint, added);
             }
         }
     }
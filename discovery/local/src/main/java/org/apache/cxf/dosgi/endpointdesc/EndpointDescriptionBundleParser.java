@@ -18,13 +18,15 @@
  */
 package org.apache.cxf.dosgi.endpointdesc;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.List;
-import java.util.Map;
 
 import org.osgi.framework.Bundle;
 import org.osgi.service.remoteserviceadmin.EndpointDescription;
@@ -39,22 +41,45 @@ public final class EndpointDescriptionBundleParser {
     private static final String REMOTE_SERVICES_DIRECTORY = "OSGI-INF/remote-service/";
 
     private EndpointDescriptionParser parser;
+    private final EndpointDescriptionCache cache;
 
     public EndpointDescriptionBundleParser() {
+        this(new EndpointDescriptionCache());
+    }
+
+    public EndpointDescriptionBundleParser(EndpointDescriptionCache cache) {
         parser = new EndpointDescriptionParser();
+        this.cache = cache;
     }
 
     public List<EndpointDescription> getAllEndpointDescriptions(Bundle b) {
-        List<EndpointDescriptionType> elements = getAllDescriptionElements(b);
-
-        List<EndpointDescription> endpoints = new ArrayList<EndpointDescription>(elements.size());
-        for (EndpointDescriptionType epd : elements) {
-            Map<String, Object> props = new PropertiesMapper().toProps(epd.getProperty());
-            endpoints.add(new EndpointDescription(props));
+        Enumeration<URL> urls = getEndpointDescriptionURLs(b);
+        List<EndpointDescription> endpoints = new ArrayList<EndpointDescription>();
+        while (urls.hasMoreElements()) {
+            URL resourceURL = (URL) urls.nextElement();
+            try {
+                endpoints.addAll(cache.getEndpointDescriptions(readFully(resourceURL)));
+            } catch (Exception ex) {
+                LOG.warn("Problem parsing: " + resourceURL, ex);
+            }
         }
         return endpoints;
     }
 
+    private static byte[] readFully(URL url) throws IOException {
+        InputStream is = url.openStream();
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n = is.read(buf); n != -1; n = is.read(buf)) {
+                bos.write(buf, 0, n);
+            }
+            return bos.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
     List<EndpointDescriptionType> getAllDescriptionElements(Bundle b) {
         Enumeration<URL> urls = getEndpointDescriptionURLs(b);
         List<EndpointDescriptionType> elements = new ArrayList<EndpointDescriptionType>();
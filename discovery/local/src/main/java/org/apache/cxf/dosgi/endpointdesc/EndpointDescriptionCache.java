@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.dosgi.endpointdesc;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+
+/**
+ * Parses endpoint description payloads, in the XML or the compact format, and
+ * caches the resulting (immutable) EndpointDescriptions by the digest of the payload,
+ * so that identical payloads are parsed only once.
+ * <p>
+ * The cache is bounded and evicts the least recently used payloads. It is thread-safe
+ * and meant to be shared by everything that parses the same payloads, e.g. all
+ * monitors of a discovery.
+ */
+public class EndpointDescriptionCache {
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private final EndpointDescriptionParser parser = new EndpointDescriptionParser();
+    private final EndpointDescriptionCodec codec = new EndpointDescriptionCodec();
+    private final Map<ByteBuffer, List<EndpointDescription>> cache;
+
+    public EndpointDescriptionCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public EndpointDescriptionCache(final int maxSize) {
+        cache = new LinkedHashMap<ByteBuffer, List<EndpointDescription>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, List<EndpointDescription>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the endpoints described by the given payload.
+     *
+     * @param data the payload, in the XML or the compact format
+     * @return the endpoints (immutable)
+     * @throws RuntimeException if the payload can't be parsed
+     */
+    public List<EndpointDescription> getEndpointDescriptions(byte[] data) {
+        ByteBuffer key = ByteBuffer.wrap(digest(data));
+        synchronized (cache) {
+            List<EndpointDescription> endpoints = cache.get(key);
+            if (endpoints != null) {
+                return endpoints;
+            }
+        }
+        // parse outside the lock, at worst a payload is parsed more than once
+        List<EndpointDescription> endpoints = Collections.unmodifiableList(parse(data));
+        synchronized (cache) {
+            cache.put(key, endpoints);
+        }
+        return endpoints;
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    private List<EndpointDescription> parse(byte[] data) {
+        if (codec.isCompact(data)) {
+            return Collections.singletonList(new EndpointDescription(codec.decode(data)));
+        }
+        List<Map<String, Object>> elements = parser.getEndpointDescriptionProperties(data);
+        List<EndpointDescription> endpoints = new ArrayList<EndpointDescription>(elements.size());
+        for (Map<String, Object> props : elements) {
+            endpoints.add(new EndpointDescription(props));
+        }
+        return endpoints;
+    }
+
+    private static byte[] digest(byte[] data) {
+        try {
+            // MessageDigest instances are not thread-safe and cheap to create
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
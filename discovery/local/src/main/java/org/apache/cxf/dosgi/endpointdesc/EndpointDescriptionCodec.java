@@ -0,0 +1,337 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.dosgi.endpointdesc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Encodes endpoint properties in a compact binary format, as an alternative to the
+ * endpoint description XML where both sides are under our control (e.g. the data of
+ * ZooKeeper discovery nodes).
+ * <p>
+ * The data starts with a marker that can never start an XML document, followed by a
+ * format version, so that readers can tell the formats apart and reject versions they
+ * don't know. Supported are the same value types as in the XML format: String, the
+ * primitive wrappers, arrays of these or their primitives, and Lists and Sets of these.
+ * Other properties are skipped. Unlike the XML format, primitive arrays are preserved
+ * as such.
+ */
+public class EndpointDescriptionCodec {
+
+    static final int VERSION = 1;
+
+    private static final Logger LOG = LoggerFactory.getLogger(EndpointDescriptionCodec.class);
+    private static final byte[] MARKER = {0, 'E', 'D', 'C'};
+
+    private static final byte STRING = 's';
+    private static final byte LONG = 'J';
+    private static final byte INTEGER = 'I';
+    private static final byte SHORT = 'S';
+    private static final byte BYTE = 'B';
+    private static final byte CHARACTER = 'C';
+    private static final byte DOUBLE = 'D';
+    private static final byte FLOAT = 'F';
+    private static final byte BOOLEAN = 'Z';
+    private static final byte ARRAY = '[';
+    private static final byte PRIMITIVE_ARRAY = ']';
+    private static final byte LIST = 'L';
+    private static final byte SET = 'T';
+
+    private static final byte[] TYPES = {STRING, LONG, INTEGER, SHORT, BYTE, CHARACTER, DOUBLE, FLOAT, BOOLEAN};
+    private static final Class<?>[] BOXED_CLASSES = {String.class, Long.class, Integer.class, Short.class,
+                                                     Byte.class, Character.class, Double.class, Float.class,
+                                                     Boolean.class};
+    private static final Class<?>[] PRIMITIVE_CLASSES = {null, long.class, int.class, short.class,
+                                                         byte.class, char.class, double.class, float.class,
+                                                         boolean.class};
+
+    /**
+     * Returns whether the given data is in the compact format (of any version).
+     *
+     * @param data the data
+     * @return true if the data is in the compact format, false if it should be XML
+     */
+    public boolean isCompact(byte[] data) {
+        if (data == null || data.length < MARKER.length) {
+            return false;
+        }
+        for (int i = 0; i < MARKER.length; i++) {
+            if (data[i] != MARKER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public byte[] encode(Map<String, Object> props) {
+        Map<String, Object> supported = new HashMap<String, Object>();
+        for (Map.Entry<String, Object> entry : props.entrySet()) {
+            if (isSupported(entry.getValue())) {
+                supported.put(entry.getKey(), entry.getValue());
+            } else {
+                LOG.debug("Skipping property {} of unsupported type", entry.getKey());
+            }
+        }
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bos);
+            out.write(MARKER);
+            out.writeByte(VERSION);
+            out.writeInt(supported.size());
+            for (Map.Entry<String, Object> entry : supported.entrySet()) {
+                writeString(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+            out.flush();
+            return bos.toByteArray();
+        } catch (IOException e) {
+            // can't happen with a ByteArrayOutputStream
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decodes the properties of the given data.
+     *
+     * @param data data in the compact format
+     * @return the properties
+     * @throws IllegalArgumentException if the data is not in the compact format,
+     *         has an unknown version or is malformed
+     */
+    public Map<String, Object> decode(byte[] data) {
+        if (!isCompact(data)) {
+            throw new IllegalArgumentException("not a compact endpoint description");
+        }
+        int version = data[MARKER.length];
+        if (version != VERSION) {
+            throw new IllegalArgumentException("unsupported endpoint description format version " + version);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, MARKER.length + 1,
+                                                                          data.length - MARKER.length - 1));
+        try {
+            int size = readLength(in);
+            Map<String, Object> props = new HashMap<String, Object>();
+            for (int i = 0; i < size; i++) {
+                String key = readString(in);
+                props.put(key, readValue(in, in.readByte()));
+            }
+            return props;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("malformed endpoint description: " + e, e);
+        }
+    }
+
+    private static boolean isSupported(Object value) {
+        if (value == null) {
+            return false;
+        }
+        Collection<?> elements;
+        if (value.getClass().isArray()) {
+            if (getType(value.getClass().getComponentType()) == 0) {
+                return false;
+            }
+            List<Object> arrayElements = new ArrayList<Object>();
+            for (int i = 0; i < Array.getLength(value); i++) {
+                arrayElements.add(Array.get(value, i));
+            }
+            elements = arrayElements;
+        } else if (value instanceof List || value instanceof Set) {
+            elements = (Collection<?>) value;
+        } else {
+            elements = Collections.singleton(value);
+        }
+        for (Object element : elements) {
+            if (element == null || getType(element.getClass()) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte getType(Class<?> cls) {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (cls == BOXED_CLASSES[i] || cls == PRIMITIVE_CLASSES[i]) {
+                return TYPES[i];
+            }
+        }
+        return 0;
+    }
+
+    private static Class<?> getClass(byte type, boolean primitive) throws IOException {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (type == TYPES[i]) {
+                return primitive ? PRIMITIVE_CLASSES[i] : BOXED_CLASSES[i];
+            }
+        }
+        throw new IOException("unknown value type " + type);
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        Class<?> cls = value.getClass();
+        if (cls.isArray()) {
+            Class<?> componentType = cls.getComponentType();
+            out.writeByte(componentType.isPrimitive() ? PRIMITIVE_ARRAY : ARRAY);
+            out.writeByte(getType(componentType));
+            int length = Array.getLength(value);
+            out.writeInt(length);
+            for (int i = 0; i < length; i++) {
+                writeScalar(out, Array.get(value, i));
+            }
+        } else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            out.writeByte(value instanceof List ? LIST : SET);
+            out.writeInt(collection.size());
+            for (Object element : collection) {
+                out.writeByte(getType(element.getClass()));
+                writeScalar(out, element);
+            }
+        } else {
+            out.writeByte(getType(cls));
+            writeScalar(out, value);
+        }
+    }
+
+    private static void writeScalar(DataOutputStream out, Object value) throws IOException {
+        switch (getType(value.getClass())) {
+        case STRING:
+            writeString(out, (String) value);
+            break;
+        case LONG:
+            out.writeLong((Long) value);
+            break;
+        case INTEGER:
+            out.writeInt((Integer) value);
+            break;
+        case SHORT:
+            out.writeShort((Short) value);
+            break;
+        case BYTE:
+            out.writeByte((Byte) value);
+            break;
+        case CHARACTER:
+            out.writeChar((Character) value);
+            break;
+        case DOUBLE:
+            out.writeDouble((Double) value);
+            break;
+        case FLOAT:
+            out.writeFloat((Float) value);
+            break;
+        default:
+            out.writeBoolean((Boolean) value);
+        }
+    }
+
+    private static Object readValue(DataInputStream in, byte type) throws IOException {
+        if (type == ARRAY || type == PRIMITIVE_ARRAY) {
+            byte componentType = in.readByte();
+            int length = readLength(in);
+            Object array = Array.newInstance(getClass(componentType, type == PRIMITIVE_ARRAY), length);
+            for (int i = 0; i < length; i++) {
+                Array.set(array, i, readScalar(in, componentType));
+            }
+            return array;
+        } else if (type == LIST || type == SET) {
+            int size = readLength(in);
+            Collection<Object> collection = type == LIST ? new ArrayList<Object>(size) : new HashSet<Object>();
+            for (int i = 0; i < size; i++) {
+                collection.add(readScalar(in, in.readByte()));
+            }
+            return collection;
+        }
+        return readScalar(in, type);
+    }
+
+    private static Object readScalar(DataInputStream in, byte type) throws IOException {
+        Object value;
+        switch (type) {
+        case STRING:
+            value = readString(in);
+            break;
+        case LONG:
+            value = in.readLong();
+            break;
+        case INTEGER:
+            value = in.readInt();
+            break;
+        case SHORT:
+            value = in.readShort();
+            break;
+        case BYTE:
+            value = in.readByte();
+            break;
+        case CHARACTER:
+            value = in.readChar();
+            break;
+        case DOUBLE:
+            value = in.readDouble();
+            break;
+        case FLOAT:
+            value = in.readFloat();
+            break;
+        case BOOLEAN:
+            value = in.readBoolean();
+            break;
+        default:
+            throw new IOException("unknown value type " + type);
+        }
+        return value;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        // not writeUTF, which is limited to 64k
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Reads a string length or element count, which can't exceed the remaining
+     * data as every string byte or element takes at least one byte.
+     */
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("invalid length " + length);
+        }
+        return length;
+    }
+}
@@ -18,11 +18,16 @@
  */
 package org.apache.cxf.dosgi.endpointdesc;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
@@ -30,29 +35,61 @@ import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 
+import org.apache.cxf.dosgi.endpointdesc.EndpointDescriptionStreamReader.UnsupportedContentException;
 import org.osgi.xmlns.rsa.v1_0.EndpointDescriptionType;
 import org.osgi.xmlns.rsa.v1_0.EndpointDescriptionsType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Reads and writes endpoint description XML.
+ * <p>
+ * All parsers share one JAXBContext and pools of (un)marshallers, which are expensive
+ * to create but not thread-safe, so creating parsers is cheap and they can be used
+ * concurrently.
+ */
 public class EndpointDescriptionParser {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EndpointDescriptionParser.class);
+    private static final int POOL_SIZE = 8;
+
+    private static JAXBContext sharedContext;
+    private static final BlockingQueue<Unmarshaller> UNMARSHALLERS = new ArrayBlockingQueue<Unmarshaller>(POOL_SIZE);
+    private static final BlockingQueue<Marshaller> MARSHALLERS = new ArrayBlockingQueue<Marshaller>(POOL_SIZE);
+
     private JAXBContext jaxbContext;
+    private final EndpointDescriptionStreamReader streamReader = new EndpointDescriptionStreamReader();
 
     public EndpointDescriptionParser() {
         try {
-            jaxbContext = JAXBContext.newInstance(EndpointDescriptionsType.class.getPackage().getName(),
-                                                  this.getClass().getClassLoader());
+            jaxbContext = getContext();
         } catch (JAXBException e) {
             throw new RuntimeException(e.getMessage(), e);
         }
     }
 
+    private static synchronized JAXBContext getContext() throws JAXBException {
+        if (sharedContext == null) {
+            sharedContext = JAXBContext.newInstance(EndpointDescriptionsType.class.getPackage().getName(),
+                                                    EndpointDescriptionParser.class.getClassLoader());
+        }
+        return sharedContext;
+    }
+
     public List<EndpointDescriptionType> getEndpointDescriptions(InputStream is) {
         try {
-            Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
+            Unmarshaller unmarshaller = UNMARSHALLERS.poll();
+            if (unmarshaller == null) {
+                unmarshaller = jaxbContext.createUnmarshaller();
+            }
             Source source = new StreamSource(is);
             JAXBElement<EndpointDescriptionsType> jaxb = unmarshaller.unmarshal(source, EndpointDescriptionsType.class);
+            // only reuse unmarshallers that completed normally
+            UNMARSHALLERS.offer(unmarshaller);
             EndpointDescriptionsType decorations = jaxb.getValue();
             return decorations.getEndpointDescription();
         } catch (Exception ex) {
@@ -60,15 +97,45 @@ public class EndpointDescriptionParser {
         }
     }
 
+    /**
+     * Returns the properties of all endpoint descriptions in the given XML.
+     * <p>
+     * This is equivalent to mapping the result of {@link #getEndpointDescriptions}
+     * with the {@link PropertiesMapper}, but in the common case of simple property values
+     * it streams the XML instead of building the JAXB object tree.
+     *
+     * @param data the XML
+     * @return the properties of each endpoint description
+     */
+    public List<Map<String, Object>> getEndpointDescriptionProperties(byte[] data) {
+        try {
+            return streamReader.read(new ByteArrayInputStream(data));
+        } catch (UnsupportedContentException e) {
+            LOG.debug("Endpoint description needs JAXB unmarshalling");
+        } catch (XMLStreamException e) {
+            LOG.debug("Endpoint description could not be streamed: {}", e.getMessage());
+        }
+        List<EndpointDescriptionType> elements = getEndpointDescriptions(new ByteArrayInputStream(data));
+        List<Map<String, Object>> endpoints = new ArrayList<Map<String, Object>>(elements.size());
+        for (EndpointDescriptionType epd : elements) {
+            endpoints.add(new PropertiesMapper().toProps(epd.getProperty()));
+        }
+        return endpoints;
+    }
+
     public void writeTo(EndpointDescriptionsType endpointDescriptions, OutputStream os) {
         try {
-            Marshaller marshaller = jaxbContext.createMarshaller();
-            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+            Marshaller marshaller = MARSHALLERS.poll();
+            if (marshaller == null) {
+                marshaller = jaxbContext.createMarshaller();
+                marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+            }
             QName name = new QName("http://www.osgi.org/xmlns/rsa/v1.0.0", "endpoint-descriptions");
             JAXBElement<EndpointDescriptionsType> el = 
                 new JAXBElement<EndpointDescriptionsType>(name, EndpointDescriptionsType.class, 
                     endpointDescriptions);
             marshaller.marshal(el, os);
+            MARSHALLERS.offer(marshaller);
         } catch (Exception ex) {
             throw new RuntimeException(ex.getMessage(), ex);
         } finally {
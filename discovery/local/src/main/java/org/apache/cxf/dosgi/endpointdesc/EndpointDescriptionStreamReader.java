@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.dosgi.endpointdesc;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the properties of endpoint descriptions directly from a StAX stream, without
+ * building the JAXB object tree, with the same results as the JAXB unmarshalling and
+ * PropertiesMapper.
+ * <p>
+ * Only the common case of simple values, arrays, lists and sets is supported. When
+ * anything else is encountered, such as embedded XML values, an
+ * {@link UnsupportedContentException} is thrown and the caller should fall back to JAXB.
+ */
+class EndpointDescriptionStreamReader {
+
+    static final String NAMESPACE = "http://www.osgi.org/xmlns/rsa/v1.0.0";
+
+    private final XMLInputFactory factory;
+
+    EndpointDescriptionStreamReader() {
+        factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    /**
+     * Reads the properties of all endpoint descriptions in the given stream.
+     *
+     * @param is the stream
+     * @return the properties of each endpoint description
+     * @throws UnsupportedContentException if the stream contains content this reader
+     *         does not support
+     * @throws XMLStreamException if the stream is not well-formed XML
+     */
+    List<Map<String, Object>> read(InputStream is) throws XMLStreamException {
+        XMLStreamReader reader = factory.createXMLStreamReader(is);
+        try {
+            List<Map<String, Object>> endpoints = new ArrayList<Map<String, Object>>();
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT
+                    && isElement(reader, "endpoint-description")) {
+                    endpoints.add(readEndpointDescription(reader));
+                }
+            }
+            return endpoints;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static Map<String, Object> readEndpointDescription(XMLStreamReader reader) throws XMLStreamException {
+        Map<String, Object> props = new HashMap<String, Object>();
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (!isElement(reader, "property")) {
+                throw new UnsupportedContentException();
+            }
+            String name = reader.getAttributeValue(null, "name");
+            String type = reader.getAttributeValue(null, "value-type");
+            String value = reader.getAttributeValue(null, "value");
+            props.put(name, readPropertyValue(reader, type == null ? "String" : type, value));
+        }
+        return props;
+    }
+
+    private static Object readPropertyValue(XMLStreamReader reader, String type, String value)
+        throws XMLStreamException {
+        StringBuilder text = null;
+        Object result = null;
+        boolean hasElement = false;
+        for (int event = reader.next(); event != XMLStreamConstants.END_ELEMENT; event = reader.next()) {
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (hasElement) {
+                    throw new UnsupportedContentException();
+                }
+                hasElement = true;
+                result = readCollection(reader, type);
+            } else if (!hasElement && (event == XMLStreamConstants.CHARACTERS
+                || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE)) {
+                text = text == null ? new StringBuilder() : text;
+                text.append(reader.getText());
+            }
+        }
+        if (hasElement) {
+            return result;
+        } else if (value != null) {
+            return PropertiesMapper.handleValue(value, type);
+        } else if (text != null) {
+            return PropertiesMapper.handleValue(text.toString(), type);
+        }
+        return null;
+    }
+
+    private static Object readCollection(XMLStreamReader reader, String type) throws XMLStreamException {
+        String element = reader.getLocalName();
+        if (!NAMESPACE.equals(reader.getNamespaceURI())
+            || !("array".equals(element) || "list".equals(element) || "set".equals(element))) {
+            throw new UnsupportedContentException();
+        }
+        List<Object> values = new ArrayList<Object>();
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (!isElement(reader, "value")) {
+                throw new UnsupportedContentException();
+            }
+            values.add(PropertiesMapper.handleValue(readText(reader), type));
+        }
+        if ("array".equals(element)) {
+            return PropertiesMapper.toArray(values, type);
+        }
+        Collection<Object> collection = "list".equals(element) ? values : new HashSet<Object>(values);
+        return collection;
+    }
+
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        for (int event = reader.next(); event != XMLStreamConstants.END_ELEMENT; event = reader.next()) {
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                throw new UnsupportedContentException();
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                || event == XMLStreamConstants.SPACE) {
+                text.append(reader.getText());
+            }
+        }
+        return text.toString();
+    }
+
+    private static boolean isElement(XMLStreamReader reader, String localName) {
+        return localName.equals(reader.getLocalName()) && NAMESPACE.equals(reader.getNamespaceURI());
+    }
+
+    /**
+     * Thrown when the stream contains content that needs to be unmarshalled with JAXB.
+     */
+    static class UnsupportedContentException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -103,7 +103,18 @@ public class PropertiesMapper {
     }
 
     private Object getArray(ArrayType arrayEl, String type) {
-        List<ValueType> values = arrayEl.getValue();
+        List<Object> values = new ArrayList<Object>();
+        for (ValueType value : arrayEl.getValue()) {
+            values.add(getValue(value, type));
+        }
+        return toArray(values, type);
+    }
+
+    /**
+     * Creates an array of the given type, which is a primitive type
+     * for a primitive array or otherwise a java.lang class name.
+     */
+    static Object toArray(List<Object> values, String type) {
         Class<?> cls = null;
         if ("long".equals(type)) {
             cls = long.class;
@@ -128,8 +139,7 @@ public class PropertiesMapper {
             Object array = Array.newInstance(cls, values.size());
 
             for (int i = 0; i < values.size(); i++) {
-                Object val = getValue(values.get(i), type);
-                Array.set(array, i, val);
+                Array.set(array, i, values.get(i));
             }
 
             return array;
@@ -182,7 +192,7 @@ public class PropertiesMapper {
         }
     }
 
-    private static Object handleValue(String val, String type) {
+    static Object handleValue(String val, String type) {
         return instantiate(type, val);
     }
 
@@ -267,6 +267,10 @@ public class LocalDiscoveryTest extends TestCase {
                 return null;
             }
         }).times(2);
+        // only the endpoint of ClassA was in the old scope
+        el.endpointRemoved((EndpointDescription) EasyMock.anyObject(),
+                EasyMock.eq("(objectClass=org.example.ClassA)"));
+        EasyMock.expectLastCall().once();
         EasyMock.replay(el);
 
         ld.listenerTracker.modifiedService(sr, el);
@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.dosgi.endpointdesc;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+import org.osgi.xmlns.rsa.v1_0.EndpointDescriptionType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class EndpointDescriptionCacheTest {
+
+    @Test
+    public void testIdenticalPayloadsAreParsedOnce() {
+        EndpointDescriptionCache cache = new EndpointDescriptionCache(2);
+        byte[] xml = getXml(createProps("ep1"));
+        List<EndpointDescription> endpoints = cache.getEndpointDescriptions(xml);
+        assertEquals(1, endpoints.size());
+        assertEquals("http://localhost/ep1", endpoints.get(0).getId());
+        assertSame(endpoints, cache.getEndpointDescriptions(xml.clone()));
+
+        byte[] compact = new EndpointDescriptionCodec().encode(createProps("ep2"));
+        List<EndpointDescription> compactEndpoints = cache.getEndpointDescriptions(compact);
+        assertEquals("http://localhost/ep2", compactEndpoints.get(0).getId());
+        assertEquals(2, cache.size());
+
+        // ep1 was used more recently than ep2
+        cache.getEndpointDescriptions(xml);
+        cache.getEndpointDescriptions(getXml(createProps("ep3")));
+        assertEquals(2, cache.size());
+        assertSame(endpoints, cache.getEndpointDescriptions(xml));
+        assertNotSame(compactEndpoints, cache.getEndpointDescriptions(compact));
+    }
+
+    private static Map<String, Object> createProps(String id) {
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put("objectClass", new String[] {"com.acme.HelloService"});
+        props.put("endpoint.id", "http://localhost/" + id);
+        props.put("service.imported.configs", "org.apache.cxf.ws");
+        return props;
+    }
+
+    private static byte[] getXml(Map<String, Object> props) {
+        EndpointDescriptionType epd = new EndpointDescriptionType();
+        epd.getProperty().addAll(new PropertiesMapper().fromProps(props));
+        return new EndpointDescriptionParser().getData(epd);
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.dosgi.endpointdesc;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import org.osgi.xmlns.rsa.v1_0.EndpointDescriptionType;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EndpointDescriptionCodecTest {
+
+    @Test
+    public void testRoundTrip() {
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put("objectClass", new String[] {"com.acme.HelloService", "some.other.Service"});
+        props.put("endpoint.id", "http://localhost:9090/greeter");
+        props.put("long", 9223372036854775807L);
+        props.put("double", 1.7976931348623157E308);
+        props.put("float", 42.24f);
+        props.put("int", 17);
+        props.put("byte", (byte) -128);
+        props.put("boolean", true);
+        props.put("short", (short) 99);
+        props.put("char", '€');
+        props.put("int-array", new int[] {1, 2});
+        props.put("Long-array", new Long[] {3L});
+        props.put("bool-list", Arrays.asList(true, false));
+        Set<Object> set = new HashSet<Object>(Arrays.<Object>asList("Hello there", 5));
+        props.put("mixed-set", set);
+        props.put("unsupported", new Object());
+
+        EndpointDescriptionCodec codec = new EndpointDescriptionCodec();
+        byte[] data = codec.encode(props);
+        assertTrue(codec.isCompact(data));
+        Map<String, Object> decoded = codec.decode(data);
+
+        assertEquals(props.size() - 1, decoded.size());
+        assertArrayEquals((String[]) props.get("objectClass"), (String[]) decoded.get("objectClass"));
+        assertArrayEquals(new int[] {1, 2}, (int[]) decoded.get("int-array"));
+        assertArrayEquals(new Long[] {3L}, (Long[]) decoded.get("Long-array"));
+        for (String key : Arrays.asList("endpoint.id", "long", "double", "float", "int", "byte", "boolean",
+                                        "short", "char", "mixed-set")) {
+            assertEquals(key, props.get(key), decoded.get(key));
+        }
+        assertEquals(Arrays.asList(true, false), (List<?>) decoded.get("bool-list"));
+    }
+
+    @Test
+    public void testFormats() {
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put("objectClass", new String[] {"com.acme.HelloService"});
+        props.put("endpoint.id", "http://localhost:9090/greeter");
+        props.put("service.imported.configs", "org.apache.cxf.ws");
+        props.put("org.apache.cxf.ws.address", "http://localhost:9090/greeter");
+
+        EndpointDescriptionType epd = new EndpointDescriptionType();
+        epd.getProperty().addAll(new PropertiesMapper().fromProps(props));
+        byte[] xml = new EndpointDescriptionParser().getData(epd);
+        EndpointDescriptionCodec codec = new EndpointDescriptionCodec();
+        byte[] data = codec.encode(props);
+        assertFalse(codec.isCompact(xml));
+        assertTrue("compact: " + data.length + ", xml: " + xml.length, data.length * 2 < xml.length);
+
+        data[4] = EndpointDescriptionCodec.VERSION + 1;
+        try {
+            codec.decode(data);
+            fail("unknown versions must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            codec.decode(Arrays.copyOf(codec.encode(props), 20));
+            fail("truncated data must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -18,9 +18,14 @@
  */
 package org.apache.cxf.dosgi.endpointdesc;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import org.easymock.EasyMock;
 import org.junit.Assert;
@@ -46,4 +51,52 @@ public class EndpointDescriptionParserTest {
             getEndpointDescriptions(ed1URL.openStream());
         Assert.assertEquals(4, edElements.size());
     }
+
+    @Test
+    public void testStreamedPropertiesMatchJaxb() throws Exception {
+        for (String resource : new String[] {"/ed1.xml", "/ed2-generated.xml", "/ed3.xml", "/ed4.xml"}) {
+            byte[] data = readResource(resource);
+            List<Map<String, Object>> streamed = new EndpointDescriptionStreamReader()
+                .read(new ByteArrayInputStream(data));
+            List<EndpointDescriptionType> elements = new EndpointDescriptionParser()
+                .getEndpointDescriptions(new ByteArrayInputStream(data));
+            Assert.assertEquals(resource, elements.size(), streamed.size());
+            for (int i = 0; i < elements.size(); i++) {
+                Map<String, Object> expected = new PropertiesMapper().toProps(elements.get(i).getProperty());
+                Assert.assertEquals(resource, expected.keySet(), streamed.get(i).keySet());
+                for (Map.Entry<String, Object> entry : expected.entrySet()) {
+                    Assert.assertTrue(resource + " " + entry.getKey(), Arrays.deepEquals(
+                        new Object[] {entry.getValue()}, new Object[] {streamed.get(i).get(entry.getKey())}));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testEmbeddedXmlFallsBackToJaxb() throws Exception {
+        byte[] data = readResource("/ed2.xml");
+        try {
+            new EndpointDescriptionStreamReader().read(new ByteArrayInputStream(data));
+            Assert.fail("embedded XML is not supported when streaming");
+        } catch (EndpointDescriptionStreamReader.UnsupportedContentException e) {
+            // expected
+        }
+        List<Map<String, Object>> endpoints = new EndpointDescriptionParser().getEndpointDescriptionProperties(data);
+        Assert.assertEquals(2, endpoints.size());
+        Assert.assertTrue(((String) endpoints.get(1).get("someXML")).contains("haha"));
+    }
+
+    private byte[] readResource(String name) throws IOException {
+        InputStream is = getClass().getResourceAsStream(name);
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n = is.read(buf); n != -1; n = is.read(buf)) {
+                bos.write(buf, 0, n);
+            }
+            return bos.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
 }
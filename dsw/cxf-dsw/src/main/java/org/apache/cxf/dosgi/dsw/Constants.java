@@ -140,6 +140,22 @@ public final class Constants {
     public static final String CXF_SERVLET_ALIAS = "cxfServletAlias";
     public static final String DEFAULT_CXF_SERVLET_ALIAS = "/cxf";
 
+    /**
+     * If true, all exports that use the same HTTP service context root (or the
+     * default servlet alias) share one CXF Bus and one servlet registration
+     * instead of creating a new Bus per exported service.
+     * The shared servlet uses the HttpContext of the first exporting bundle.
+     *
+     * Defaults to: false
+     */
+    public static final String SHARED_BUS_PER_CONTEXT_ROOT = "sharedBusPerContextRoot";
+
+    /**
+     * Name of the CXF work queue used for asynchronous remote invocations.
+     * If no work queue with this name is configured, the default CXF work queue is used.
+     */
+    public static final String ASYNC_WORK_QUEUE = "dosgi-async";
+
     private Constants() {
         // never constructed
     }
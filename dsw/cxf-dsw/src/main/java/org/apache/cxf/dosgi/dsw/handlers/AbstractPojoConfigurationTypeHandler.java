@@ -18,12 +18,14 @@
  */
 package org.apache.cxf.dosgi.dsw.handlers;
 
+import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import javax.xml.namespace.QName;
 
@@ -38,6 +40,7 @@ import org.apache.cxf.dosgi.dsw.qos.IntentUtils;
 import org.apache.cxf.dosgi.dsw.util.ClassUtils;
 import org.apache.cxf.dosgi.dsw.util.OsgiUtils;
 import org.apache.cxf.endpoint.AbstractEndpointFactory;
+import org.apache.cxf.endpoint.Client;
 import org.apache.cxf.endpoint.Server;
 import org.apache.cxf.feature.AbstractFeature;
 import org.apache.cxf.frontend.AbstractWSDLBasedEndpointFactory;
@@ -45,6 +48,7 @@ import org.apache.cxf.frontend.ClientFactoryBean;
 import org.apache.cxf.frontend.ServerFactoryBean;
 import org.apache.cxf.helpers.CastUtils;
 import org.apache.cxf.interceptor.Interceptor;
+import org.apache.cxf.wsdl.service.factory.ReflectionServiceFactoryBean;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.remoteserviceadmin.RemoteConstants;
@@ -66,9 +70,33 @@ public abstract class AbstractPojoConfigurationTypeHandler implements Configurat
     }
 
     protected Object getProxy(Object serviceProxy, Class<?> iType) {
+        ServiceInvocationHandler handler;
+        if (AsyncUtils.getAsyncMethods(iType).isEmpty()) {
+            handler = new ServiceInvocationHandler(serviceProxy, iType);
+        } else {
+            Client client = AsyncUtils.getClient(serviceProxy);
+            // a CXF client invokes asynchronously by itself, other proxies use a work queue of their bus
+            Executor asyncExecutor = client != null
+                ? null : AsyncUtils.getAsyncExecutor(AsyncUtils.getBus(serviceProxy));
+            handler = new ServiceInvocationHandler(serviceProxy, iType, client, asyncExecutor);
+        }
         return Proxy.newProxyInstance(iType.getClassLoader(), new Class[] {
             iType
-        }, new ServiceInvocationHandler(serviceProxy, iType));
+        }, handler);
+    }
+
+    /**
+     * Excludes the asynchronous methods of the given interface from the service model,
+     * as they are handled locally by the proxy.
+     *
+     * @param serviceFactory the service factory
+     * @param iClass the interface
+     */
+    protected static void ignoreAsyncMethods(ReflectionServiceFactoryBean serviceFactory, Class<?> iClass) {
+        List<Method> asyncMethods = AsyncUtils.getIgnoredMethods(iClass);
+        if (!asyncMethods.isEmpty()) {
+            serviceFactory.setIgnoredMethods(asyncMethods);
+        }
     }
 
     protected Map<String, Object> createEndpointProps(Map<String, Object> sd, Class<?> iClass,
@@ -199,6 +227,13 @@ public abstract class AbstractPojoConfigurationTypeHandler implements Configurat
 
     
     protected Bus createBus(ServiceReference<?> sref, BundleContext callingContext, String contextRoot) {
+        if (httpServiceManager.isSharedBusPerContextRoot()) {
+            Bus bus = httpServiceManager.acquireSharedBus(contextRoot, callingContext);
+            if (bus != null) {
+                return bus;
+            }
+            // the shared servlet would apply the HttpContext of another bundle
+        }
         Bus bus = BusFactory.newInstance().createBus();
         if (contextRoot != null) {
             httpServiceManager.registerServlet(bus, contextRoot, callingContext, sref);
@@ -211,8 +246,9 @@ public abstract class AbstractPojoConfigurationTypeHandler implements Configurat
         try {
             Thread.currentThread().setContextClassLoader(ServerFactoryBean.class.getClassLoader());
             Server server = factory.create();
-            return new ExportResult(endpointProps, new ServerWrapper(server));
+            return new ExportResult(endpointProps, new ServerWrapper(server, httpServiceManager, factory.getBus()));
         } catch (Exception e) {
+            httpServiceManager.releaseBus(factory.getBus());
             return new ExportResult(endpointProps, e);
         } finally {
             Thread.currentThread().setContextClassLoader(oldClassLoader);
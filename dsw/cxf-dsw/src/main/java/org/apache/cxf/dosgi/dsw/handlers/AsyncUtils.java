@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.dosgi.dsw.handlers;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import org.apache.cxf.Bus;
+import org.apache.cxf.dosgi.dsw.Constants;
+import org.apache.cxf.endpoint.Client;
+import org.apache.cxf.frontend.ClientProxy;
+import org.apache.cxf.jaxrs.client.WebClient;
+import org.apache.cxf.workqueue.WorkQueueManager;
+
+/**
+ * Support for asynchronous remote invocations.
+ * <p>
+ * A method <code>Future&lt;T&gt; fooAsync(A...)</code> of a remote interface which
+ * also declares <code>T foo(A...)</code> is an asynchronous variant of foo.
+ * It is not part of the remote contract: an imported proxy invokes foo
+ * asynchronously and returns a Future for its result.
+ * <p>
+ * Simple frontend and JAX-WS proxies use the asynchronous CXF client invocation,
+ * which does not block a thread while waiting for the response if the asynchronous
+ * HTTP conduit is installed. JAX-RS proxies have no asynchronous invocation, so they
+ * invoke foo on a work queue of their bus.
+ */
+public final class AsyncUtils {
+
+    private static final String ASYNC_SUFFIX = "Async";
+
+    private AsyncUtils() {
+    }
+
+    /**
+     * Returns the asynchronous methods of the given interface.
+     *
+     * @param iClass the interface
+     * @return a map of each asynchronous method to its synchronous variant
+     */
+    public static Map<Method, Method> getAsyncMethods(Class<?> iClass) {
+        Map<Method, Method> asyncMethods = new HashMap<Method, Method>();
+        for (Method m : iClass.getMethods()) {
+            String name = m.getName();
+            if (m.getReturnType() == Future.class && name.endsWith(ASYNC_SUFFIX)
+                && name.length() > ASYNC_SUFFIX.length()) {
+                String syncName = name.substring(0, name.length() - ASYNC_SUFFIX.length());
+                try {
+                    asyncMethods.put(m, iClass.getMethod(syncName, m.getParameterTypes()));
+                } catch (NoSuchMethodException e) {
+                    // not an async variant of another method
+                }
+            }
+        }
+        return asyncMethods;
+    }
+
+    /**
+     * Returns the asynchronous methods of the given interface, which must be
+     * excluded from the service model.
+     *
+     * @param iClass the interface
+     * @return the asynchronous methods
+     */
+    public static List<Method> getIgnoredMethods(Class<?> iClass) {
+        return new ArrayList<Method>(getAsyncMethods(iClass).keySet());
+    }
+
+    /**
+     * Returns the CXF client of the given simple frontend or JAX-WS proxy.
+     *
+     * @param proxy the proxy
+     * @return the client, or null if the given object is no such proxy (e.g. it is a JAX-RS proxy)
+     */
+    public static Client getClient(Object proxy) {
+        if (!Proxy.isProxyClass(proxy.getClass())) {
+            return null;
+        }
+        InvocationHandler handler = Proxy.getInvocationHandler(proxy);
+        return handler instanceof ClientProxy ? ((ClientProxy) handler).getClient() : null;
+    }
+
+    /**
+     * Returns the bus the given proxy was created with.
+     *
+     * @param proxy a simple frontend, JAX-WS or JAX-RS proxy
+     * @return the bus, or null if the given object is no such proxy
+     */
+    public static Bus getBus(Object proxy) {
+        Client client = getClient(proxy);
+        if (client != null) {
+            return client.getBus();
+        }
+        try {
+            return WebClient.getConfig(proxy).getBus();
+        } catch (IllegalArgumentException e) {
+            return null; // not a JAX-RS proxy
+        }
+    }
+
+    /**
+     * Returns the executor for asynchronous invocations on the given bus. This is the CXF work
+     * queue named {@link Constants#ASYNC_WORK_QUEUE} if it is configured, or the default CXF
+     * work queue otherwise.
+     *
+     * @param bus the bus, or null
+     * @return the executor, or null if no work queue is available
+     */
+    public static Executor getAsyncExecutor(Bus bus) {
+        WorkQueueManager manager = bus == null ? null : bus.getExtension(WorkQueueManager.class);
+        if (manager == null) {
+            return null;
+        }
+        Executor executor = manager.getNamedWorkQueue(Constants.ASYNC_WORK_QUEUE);
+        return executor != null ? executor : manager.getAutomaticWorkQueue();
+    }
+}
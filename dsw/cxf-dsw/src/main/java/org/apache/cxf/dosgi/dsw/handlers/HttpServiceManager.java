@@ -24,6 +24,7 @@ import java.util.Hashtable;
 import java.util.Map;
 
 import org.apache.cxf.Bus;
+import org.apache.cxf.BusFactory;
 import org.apache.cxf.transport.http.DestinationRegistry;
 import org.apache.cxf.transport.http.DestinationRegistryImpl;
 import org.apache.cxf.transport.servlet.CXFNonSpringServlet;
@@ -49,9 +50,17 @@ public class HttpServiceManager {
     private Map<Long, String> exportedAliases = Collections.synchronizedMap(new HashMap<Long, String>());
     private String httpBase;
     private String cxfServletAlias;
+    private final boolean sharedBusPerContextRoot;
+    // context root (null for the default alias) -> shared bus
+    private final Map<String, SharedBus> sharedBuses = new HashMap<String, SharedBus>();
 
     public HttpServiceManager(BundleContext bundleContext, String httpBase, String cxfServletAlias) {
-        this(bundleContext, httpBase, cxfServletAlias,
+        this(bundleContext, httpBase, cxfServletAlias, false);
+    }
+
+    public HttpServiceManager(BundleContext bundleContext, String httpBase, String cxfServletAlias,
+                              boolean sharedBusPerContextRoot) {
+        this(bundleContext, httpBase, cxfServletAlias, sharedBusPerContextRoot,
              new ServiceTracker<HttpService, HttpService>(bundleContext, HttpService.class, null));
         this.tracker.open();
     }
@@ -60,10 +69,22 @@ public class HttpServiceManager {
     public HttpServiceManager(BundleContext bundleContext,
                               String httpBase, String cxfServletAlias,
                               ServiceTracker<HttpService, HttpService> tracker) {
+        this(bundleContext, httpBase, cxfServletAlias, false, tracker);
+    }
+
+    // Only for tests
+    public HttpServiceManager(BundleContext bundleContext,
+                              String httpBase, String cxfServletAlias, boolean sharedBusPerContextRoot,
+                              ServiceTracker<HttpService, HttpService> tracker) {
         this.bundleContext = bundleContext;
         this.tracker = tracker;
         this.httpBase = getWithDefault(httpBase, "http://" + LocalHostUtil.getLocalIp() + ":8181");
         this.cxfServletAlias = getWithDefault(cxfServletAlias, "/cxf");
+        this.sharedBusPerContextRoot = sharedBusPerContextRoot;
+    }
+
+    public boolean isSharedBusPerContextRoot() {
+        return sharedBusPerContextRoot;
     }
 
     private String getWithDefault(String value, String defaultValue) {
@@ -72,6 +93,12 @@ public class HttpServiceManager {
 
     public Bus registerServlet(Bus bus, String contextRoot, BundleContext callingContext,
             ServiceReference<?> sref) {
+        doRegisterServlet(bus, contextRoot, callingContext);
+        registerUnexportHook(sref, contextRoot);
+        return bus;
+    }
+
+    private void doRegisterServlet(Bus bus, String contextRoot, BundleContext callingContext) {
         bus.setExtension(new DestinationRegistryImpl(), DestinationRegistry.class);
         CXFNonSpringServlet cxf = new CXFNonSpringServlet();
         cxf.setBus(bus);
@@ -79,13 +106,84 @@ public class HttpServiceManager {
             HttpService httpService = getHttpService();
             httpService.registerServlet(contextRoot, cxf, new Hashtable<String, String>(),
                                        getHttpContext(callingContext, httpService));
-            registerUnexportHook(sref, contextRoot);
-
             LOG.info("Successfully registered CXF DOSGi servlet at " + contextRoot);
         } catch (Exception e) {
             throw new ServiceException("CXF DOSGi: problem registering CXF HTTP Servlet", e);
         }
-        return bus;
+    }
+
+    /**
+     * Returns the Bus shared by all exports with the given context root, creating it
+     * (and registering its servlet) on first use. Each call must be balanced by a call
+     * to {@link #releaseBus(Bus)}.
+     * <p>
+     * The servlet is registered with the HttpContext of the bundle that created the bus,
+     * which handles the security of all requests to it, so the bus of a context root is
+     * only shared by exports of the same bundle.
+     *
+     * @param contextRoot the HTTP context root, or null for the default servlet alias
+     * @param callingContext the context of the exporting bundle
+     * @return the shared bus, or null if the servlet of the context root belongs to another bundle
+     */
+    public synchronized Bus acquireSharedBus(String contextRoot, BundleContext callingContext) {
+        SharedBus shared = sharedBuses.get(contextRoot);
+        if (shared != null && contextRoot != null && !shared.callingContext.equals(callingContext)) {
+            LOG.info("Not sharing the bus of context root {}, its servlet belongs to another bundle", contextRoot);
+            return null;
+        }
+        if (shared == null) {
+            Bus bus = BusFactory.newInstance().createBus();
+            if (contextRoot != null) {
+                try {
+                    doRegisterServlet(bus, contextRoot, callingContext);
+                } catch (RuntimeException e) {
+                    bus.shutdown(true);
+                    throw e;
+                }
+            }
+            shared = new SharedBus(bus, callingContext);
+            sharedBuses.put(contextRoot, shared);
+            LOG.debug("Created shared bus for context root {}", contextRoot);
+        }
+        shared.refCount++;
+        return shared.bus;
+    }
+
+    /**
+     * Releases a bus obtained from {@link #acquireSharedBus}. When the last export
+     * using it releases it, its servlet is unregistered and the bus is shut down.
+     * Buses that are not shared are ignored.
+     *
+     * @param bus the bus to release
+     */
+    public void releaseBus(Bus bus) {
+        String alias;
+        synchronized (this) {
+            Map.Entry<String, SharedBus> entry = findSharedBus(bus);
+            if (entry == null || --entry.getValue().refCount > 0) {
+                return;
+            }
+            alias = entry.getKey();
+            sharedBuses.remove(alias);
+        }
+        if (alias != null) {
+            LOG.debug("Unexporting shared HTTP servlet for alias '{}'", alias);
+            try {
+                getHttpService().unregister(alias);
+            } catch (Exception e) {
+                LOG.warn("An exception occurred while unregistering HTTP servlet alias '{}'", alias, e);
+            }
+        }
+        bus.shutdown(true);
+    }
+
+    private Map.Entry<String, SharedBus> findSharedBus(Bus bus) {
+        for (Map.Entry<String, SharedBus> entry : sharedBuses.entrySet()) {
+            if (entry.getValue().bus == bus) {
+                return entry;
+            }
+        }
+        return null;
     }
 
     protected HttpService getHttpService() {
@@ -150,6 +248,18 @@ public class HttpServiceManager {
         tracker.close();
     }
 
+    private static final class SharedBus {
+        final Bus bus;
+        // the context the HttpContext of the servlet was created for
+        final BundleContext callingContext;
+        int refCount;
+
+        SharedBus(Bus bus, BundleContext callingContext) {
+            this.bus = bus;
+            this.callingContext = callingContext;
+        }
+    }
+
     private final class UnregisterListener implements ServiceListener {
 
         public void serviceChanged(ServiceEvent event) {
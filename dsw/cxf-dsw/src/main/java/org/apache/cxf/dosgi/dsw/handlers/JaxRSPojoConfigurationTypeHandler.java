@@ -126,19 +126,29 @@ public class JaxRSPojoConfigurationTypeHandler extends AbstractPojoConfiguration
             }
         }
 
-        Bus bus = createBus(sref, callingContext, contextRoot);
+        Bus bus = null;
+        try {
+            bus = createBus(sref, callingContext, contextRoot);
 
-        LOG.info("Creating a " + iClass.getName()
-                 + " endpoint via JaxRSPojoConfigurationTypeHandler, address is " + address);
+            LOG.info("Creating a " + iClass.getName()
+                     + " endpoint via JaxRSPojoConfigurationTypeHandler, address is " + address);
 
-        JAXRSServerFactoryBean factory = createServerFactory(callingContext, sd, iClass, serviceBean, address, bus);
-        String completeEndpointAddress = httpServiceManager.getAbsoluteAddress(contextRoot, address);
+            JAXRSServerFactoryBean factory = createServerFactory(callingContext, sd, iClass, serviceBean,
+                                                                 address, bus);
+            String completeEndpointAddress = httpServiceManager.getAbsoluteAddress(contextRoot, address);
 
-        // The properties for the EndpointDescription
-        Map<String, Object> endpointProps = createEndpointProps(sd, iClass, new String[] {Constants.RS_CONFIG_TYPE},
-                completeEndpointAddress, new String[] {"HTTP"});
+            // The properties for the EndpointDescription
+            Map<String, Object> endpointProps = createEndpointProps(sd, iClass,
+                                                                    new String[] {Constants.RS_CONFIG_TYPE},
+                                                                    completeEndpointAddress, new String[] {"HTTP"});
 
-        return createServerFromFactory(factory, endpointProps);
+            return createServerFromFactory(factory, endpointProps);
+        } catch (RuntimeException re) {
+            if (bus != null) {
+                httpServiceManager.releaseBus(bus);
+            }
+            return new ExportResult(sd, re);
+        }
     }
 
     private ExportResult createServerFromFactory(JAXRSServerFactoryBean factory,
@@ -147,8 +157,9 @@ public class JaxRSPojoConfigurationTypeHandler extends AbstractPojoConfiguration
         try {
             Thread.currentThread().setContextClassLoader(JAXRSServerFactoryBean.class.getClassLoader());
             Server server = factory.create();
-            return new ExportResult(endpointProps, new ServerWrapper(server));
+            return new ExportResult(endpointProps, new ServerWrapper(server, httpServiceManager, factory.getBus()));
         } catch (Exception e) {
+            httpServiceManager.releaseBus(factory.getBus());
             return new ExportResult(endpointProps, e);
         } finally {
             Thread.currentThread().setContextClassLoader(oldClassLoader);
@@ -70,6 +70,7 @@ public class PojoConfigurationTypeHandler extends AbstractPojoConfigurationTypeH
         try {
             ClientProxyFactoryBean factory = createClientProxyFactoryBean(sd, iClass);
             factory.getServiceFactory().setDataBinding(getDataBinding(sd, iClass));
+            ignoreAsyncMethods(factory.getServiceFactory(), iClass);
             factory.setServiceClass(iClass);
             factory.setAddress(address);
             addWsInterceptorsFeaturesProps(factory.getClientFactoryBean(), callingContext, sd);
@@ -93,12 +94,14 @@ public class PojoConfigurationTypeHandler extends AbstractPojoConfigurationTypeH
                                      Map<String, Object> sd,
                                      Class<?> iClass,
                                      Object serviceBean) throws IntentUnsatisfiedException {
+        Bus bus = null;
         try {
             String address = getPojoAddress(sd, iClass);
             ServerFactoryBean factory = createServerFactoryBean(sd, iClass);
             factory.setDataBinding(getDataBinding(sd, iClass));
+            ignoreAsyncMethods(factory.getServiceFactory(), iClass);
             String contextRoot = getServletContextRoot(sd);
-            Bus bus = createBus(sref, callingContext, contextRoot);
+            bus = createBus(sref, callingContext, contextRoot);
             factory.setBus(bus);
             factory.setServiceClass(iClass);
             factory.setAddress(address);
@@ -116,6 +119,9 @@ public class PojoConfigurationTypeHandler extends AbstractPojoConfigurationTypeH
 
             return createServerFromFactory(factory, endpointProps);
         } catch (RuntimeException re) {
+            if (bus != null) {
+                httpServiceManager.releaseBus(bus);
+            }
             return new ExportResult(sd, re);
         }
     }
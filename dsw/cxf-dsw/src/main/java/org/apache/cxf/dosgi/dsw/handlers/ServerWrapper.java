@@ -21,14 +21,24 @@ package org.apache.cxf.dosgi.dsw.handlers;
 import java.io.Closeable;
 import java.io.IOException;
 
+import org.apache.cxf.Bus;
 import org.apache.cxf.endpoint.Server;
 
 public class ServerWrapper implements Closeable {
     private Server server;
+    private HttpServiceManager httpServiceManager;
+    private Bus bus;
 
     public ServerWrapper(Server server) {
         this.server = server;
     }
+
+    // releases the bus (if it is shared) when the server is closed
+    public ServerWrapper(Server server, HttpServiceManager httpServiceManager, Bus bus) {
+        this.server = server;
+        this.httpServiceManager = httpServiceManager;
+        this.bus = bus;
+    }
     
     public Server getServer() {
         return server;
@@ -38,6 +48,9 @@ public class ServerWrapper implements Closeable {
     public void close() throws IOException {
         server.stop();
         server.destroy();
+        if (httpServiceManager != null) {
+            httpServiceManager.releaseBus(bus);
+        }
     }
     
     
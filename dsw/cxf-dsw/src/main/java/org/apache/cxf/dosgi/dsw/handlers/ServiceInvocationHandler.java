@@ -19,82 +19,283 @@
 package org.apache.cxf.dosgi.dsw.handlers;
 
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.security.AccessController;
+import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import org.apache.cxf.endpoint.Client;
+import org.apache.cxf.endpoint.ClientCallback;
+import org.apache.cxf.endpoint.Endpoint;
+import org.apache.cxf.service.invoker.MethodDispatcher;
+import org.apache.cxf.service.model.BindingOperationInfo;
 import org.osgi.framework.ServiceException;
 
 public class ServiceInvocationHandler implements InvocationHandler {
 
     private static final String REMOTE_EXCEPTION_TYPE = "REMOTE";
-    private static final Collection<Method> OBJECT_METHODS = Arrays.asList(Object.class.getMethods());
+    private static final Class<?>[] NO_EXCEPTION_TYPES = new Class<?>[0];
 
-    private Map<Method, List<Class<?>>> exceptionsMap = new HashMap<Method, List<Class<?>>>();
+    // the checked exception types declared by each method of the proxied interface,
+    // resolved once so that the invocation path only needs a single map lookup
+    private final Map<Method, Class<?>[]> exceptionsMap = new HashMap<Method, Class<?>[]>();
+    // async method -> its synchronous variant
+    private final Map<Method, Method> asyncMethods;
+    private final Client client;
+    private final Executor asyncExecutor;
     private Object serviceObject;
 
     public ServiceInvocationHandler(Object serviceObject, Class<?> iType) {
+        this(serviceObject, iType, null);
+    }
+
+    /**
+     * Creates a handler which runs asynchronous methods (see {@link AsyncUtils})
+     * on the given executor.
+     *
+     * @param serviceObject the object to invoke
+     * @param iType the proxied interface
+     * @param asyncExecutor the executor for asynchronous methods,
+     *        or null to run them in the calling thread
+     */
+    public ServiceInvocationHandler(Object serviceObject, Class<?> iType, Executor asyncExecutor) {
+        this(serviceObject, iType, null, asyncExecutor);
+    }
+
+    /**
+     * Creates a handler which invokes asynchronous methods (see {@link AsyncUtils})
+     * through the asynchronous invocation of the given CXF client, or else on the
+     * given executor.
+     *
+     * @param serviceObject the object to invoke
+     * @param iType the proxied interface
+     * @param client the CXF client of the service object, or null
+     * @param asyncExecutor the executor for asynchronous methods if there is no client,
+     *        or null to run them in the calling thread
+     */
+    public ServiceInvocationHandler(Object serviceObject, Class<?> iType, Client client, Executor asyncExecutor) {
         this.serviceObject = serviceObject;
+        this.client = client;
+        this.asyncExecutor = asyncExecutor;
+        this.asyncMethods = AsyncUtils.getAsyncMethods(iType);
         introspectType(iType);
     }
 
     public Object invoke(Object proxy, final Method m, Object[] params) throws Throwable {
-        if (OBJECT_METHODS.contains(m)) {
+        if (m.getDeclaringClass() == Object.class) {
             if (m.getName().equals("equals")) {
                 params = new Object[] {Proxy.getInvocationHandler(params[0])};
             }
             return m.invoke(this, params);
         }
 
-        ClassLoader oldCl = Thread.currentThread().getContextClassLoader();
-        try {
-            Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
-            final Object[] paramsFinal = params;
-            return AccessController.doPrivileged(new PrivilegedExceptionAction<Object>() {
-                public Object run() throws Exception {
-                    return m.invoke(serviceObject, paramsFinal);
+        if (!asyncMethods.isEmpty()) {
+            Method syncMethod = asyncMethods.get(m);
+            if (syncMethod != null) {
+                return invokeAsync(syncMethod, params);
+            }
+        }
+        return invokeSync(m, params);
+    }
+
+    private Future<Object> invokeAsync(final Method m, final Object[] params) {
+        BindingOperationInfo operation = client == null ? null : getBindingOperation(m);
+        if (operation != null) {
+            return invokeClientAsync(m, operation, params);
+        }
+        FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+            public Object call() throws Exception {
+                try {
+                    return invokeSync(m, params);
+                } catch (Exception e) {
+                    throw e;
+                } catch (Error e) {
+                    throw e;
+                } catch (Throwable t) {
+                    throw new ServiceException(REMOTE_EXCEPTION_TYPE, t);
                 }
-            });
+            }
+        });
+        if (asyncExecutor != null) {
+            asyncExecutor.execute(task);
+        } else {
+            task.run();
+        }
+        return task;
+    }
+
+    private BindingOperationInfo getBindingOperation(Method m) {
+        Endpoint endpoint = client.getEndpoint();
+        MethodDispatcher dispatcher = (MethodDispatcher) endpoint.getService().get(MethodDispatcher.class.getName());
+        return dispatcher == null ? null : dispatcher.getBindingOperation(m, endpoint);
+    }
+
+    /**
+     * Invokes the method through the CXF client, which completes the returned Future
+     * when the response arrives, rather than a thread waiting for it.
+     */
+    private Future<Object> invokeClientAsync(Method m, BindingOperationInfo operation, Object[] params) {
+        ClientCallback callback = new ClientCallback();
+        Thread thread = Thread.currentThread();
+        ClassLoader oldCl = thread.getContextClassLoader();
+        ClassLoader cl = getClass().getClassLoader();
+        try {
+            if (oldCl != cl) {
+                thread.setContextClassLoader(cl);
+            }
+            client.invoke(callback, operation, params == null ? new Object[0] : params);
+        } catch (Exception e) {
+            callback.handleException(Collections.<String, Object>emptyMap(), e);
+        } finally {
+            if (oldCl != cl) {
+                thread.setContextClassLoader(oldCl);
+            }
+        }
+        return new ClientCallbackFuture(m, callback);
+    }
+
+    private Object invokeSync(Method m, Object[] params) throws Throwable {
+        Thread thread = Thread.currentThread();
+        ClassLoader oldCl = thread.getContextClassLoader();
+        ClassLoader cl = getClass().getClassLoader();
+        try {
+            if (oldCl != cl) {
+                thread.setContextClassLoader(cl);
+            }
+            return invokeRemote(m, params);
         } catch (Throwable ex) {
             Throwable theCause = ex.getCause() == null ? ex : ex.getCause();
             Throwable theCauseCause = theCause.getCause() == null ? theCause : theCause.getCause();
-            List<Class<?>> excTypes = exceptionsMap.get(m);
-            if (excTypes != null) {
-                for (Class<?> type : excTypes) {
-                    if (type.isAssignableFrom(theCause.getClass())) {
-                        throw theCause;
-                    }
-                    if (type.isAssignableFrom(theCauseCause.getClass())) {
-                        throw theCauseCause;
+            Throwable declared = getDeclaredException(m, theCause, theCauseCause);
+            throw declared != null ? declared : new ServiceException(REMOTE_EXCEPTION_TYPE, theCause);
+        } finally {
+            if (oldCl != cl) {
+                thread.setContextClassLoader(oldCl);
+            }
+        }
+    }
+
+    /**
+     * Returns the first of the given exceptions which is declared by the given method.
+     *
+     * @return the declared exception, or null if none is declared
+     */
+    private Throwable getDeclaredException(Method m, Throwable... candidates) {
+        Class<?>[] excTypes = exceptionsMap.get(m);
+        if (excTypes != null) {
+            for (Class<?> type : excTypes) {
+                for (Throwable candidate : candidates) {
+                    if (type.isInstance(candidate)) {
+                        return candidate;
                     }
                 }
             }
+        }
+        return null;
+    }
 
-            throw new ServiceException(REMOTE_EXCEPTION_TYPE, theCause);
-        } finally {
-            Thread.currentThread().setContextClassLoader(oldCl);
+    /**
+     * Invokes the method on the service object. A privileged block is only
+     * needed (and allocated) when a SecurityManager is installed.
+     * In both cases failures surface with the original exception as their cause.
+     */
+    private Object invokeRemote(final Method m, final Object[] params) throws Exception {
+        if (System.getSecurityManager() == null) {
+            try {
+                return m.invoke(serviceObject, params);
+            } catch (InvocationTargetException e) {
+                // keep the same exception nesting as the privileged path
+                throw new PrivilegedActionException(e);
+            }
         }
+        return AccessController.doPrivileged(new PrivilegedExceptionAction<Object>() {
+            public Object run() throws Exception {
+                return m.invoke(serviceObject, params);
+            }
+        });
     }
 
     private void introspectType(Class<?> iType) {
-        for (Method m : iType.getDeclaredMethods()) {
+        for (Method m : iType.getMethods()) {
+            if (m.getDeclaringClass() == Object.class) {
+                continue;
+            }
+            List<Class<?>> types = new ArrayList<Class<?>>();
             for (Class<?> excType : m.getExceptionTypes()) {
                 if (Exception.class.isAssignableFrom(excType)) {
-                    List<Class<?>> types = exceptionsMap.get(m);
-                    if (types == null) {
-                        types = new ArrayList<Class<?>>();
-                        exceptionsMap.put(m, types);
-                    }
                     types.add(excType);
                 }
             }
+            exceptionsMap.put(m, types.isEmpty() ? NO_EXCEPTION_TYPES : types.toArray(new Class<?>[types.size()]));
+        }
+    }
+
+    /**
+     * The result of an asynchronous client invocation, which fails with the
+     * exceptions declared by the method like a synchronous invocation.
+     */
+    private final class ClientCallbackFuture implements Future<Object> {
+
+        private final Method method;
+        private final ClientCallback callback;
+
+        ClientCallbackFuture(Method method, ClientCallback callback) {
+            this.method = method;
+            this.callback = callback;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return callback.cancel(mayInterruptIfRunning);
+        }
+
+        public boolean isCancelled() {
+            return callback.isCancelled();
+        }
+
+        public boolean isDone() {
+            return callback.isDone();
+        }
+
+        public Object get() throws InterruptedException, ExecutionException {
+            try {
+                return getResult(callback.get());
+            } catch (ExecutionException e) {
+                throw mapException(e);
+            }
+        }
+
+        public Object get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+            try {
+                return getResult(callback.get(timeout, unit));
+            } catch (ExecutionException e) {
+                throw mapException(e);
+            }
+        }
+
+        private Object getResult(Object[] result) {
+            return result == null || result.length == 0 ? null : result[0];
+        }
+
+        private ExecutionException mapException(ExecutionException e) {
+            Throwable ex = e.getCause() == null ? e : e.getCause();
+            Throwable declared = getDeclaredException(method, ex, ex.getCause());
+            return new ExecutionException(declared != null
+                ? declared : new ServiceException(REMOTE_EXCEPTION_TYPE, ex));
         }
     }
 }
@@ -127,24 +127,33 @@ public class WsdlConfigurationTypeHandler extends AbstractPojoConfigurationTypeH
         DataBinding databinding = new JAXBDataBinding();
         JaxWsServerFactoryBean factory = new JaxWsServerFactoryBean();
         
-        Bus bus = createBus(sref, callingContext, contextRoot);
-        factory.setBus(bus);
-        factory.setServiceClass(iClass);
-        factory.setAddress(address != null ? address : "/");
-        factory.getServiceFactory().setDataBinding(databinding);
-        factory.setServiceBean(serviceBean);
-
-        addWsInterceptorsFeaturesProps(factory, callingContext, sd);
-
-        setWsdlProperties(factory, callingContext, sd, true);
-
-        String[] intents = intentManager.applyIntents(factory.getFeatures(), factory, sd);
-
-        // The properties for the EndpointDescription
-        Map<String, Object> endpointProps = createEndpointProps(sd, iClass,
-                                                                new String[]{Constants.WS_CONFIG_TYPE},
-                                                                address, intents);
-        return createServerFromFactory(factory, endpointProps);
+        Bus bus = null;
+        try {
+            bus = createBus(sref, callingContext, contextRoot);
+            factory.setBus(bus);
+            factory.setServiceClass(iClass);
+            factory.setAddress(address != null ? address : "/");
+            factory.getServiceFactory().setDataBinding(databinding);
+            ignoreAsyncMethods(factory.getServiceFactory(), iClass);
+            factory.setServiceBean(serviceBean);
+
+            addWsInterceptorsFeaturesProps(factory, callingContext, sd);
+
+            setWsdlProperties(factory, callingContext, sd, true);
+
+            String[] intents = intentManager.applyIntents(factory.getFeatures(), factory, sd);
+
+            // The properties for the EndpointDescription
+            Map<String, Object> endpointProps = createEndpointProps(sd, iClass,
+                                                                    new String[]{Constants.WS_CONFIG_TYPE},
+                                                                    address, intents);
+            return createServerFromFactory(factory, endpointProps);
+        } catch (RuntimeException re) {
+            if (bus != null) {
+                httpServiceManager.releaseBus(bus);
+            }
+            return new ExportResult(sd, re);
+        }
     }
 
     private String getWsdlAddress(EndpointDescription endpoint, Class<?> iClass) {
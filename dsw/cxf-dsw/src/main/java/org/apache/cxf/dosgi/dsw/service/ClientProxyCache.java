@@ -0,0 +1,168 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.dosgi.dsw.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded cache of client proxies, keyed by endpoint id and interface class
+ * (and hence the interface's class loader). A proxy is created once and handed
+ * out to all bundles requesting it, unless it is configured from the requesting
+ * bundle, in which case the bundle is part of the key. Proxies are reference
+ * counted and removed from the cache when the last bundle releases them. When
+ * the cache is full, proxies are created without being cached.
+ */
+public class ClientProxyCache {
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClientProxyCache.class);
+
+    private final Map<Key, Entry> entries = new HashMap<Key, Entry>();
+    private final int maxSize;
+
+    public ClientProxyCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public ClientProxyCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Creates proxies for the cache.
+     */
+    public interface ProxyCreator {
+        Object create();
+    }
+
+    /**
+     * Returns the cached proxy for the given endpoint and interface, creating it
+     * with the given creator if necessary. Each call that returns a non-null proxy
+     * must be balanced by a call to {@link #release}.
+     *
+     * @param endpointId the endpoint id
+     * @param iClass the proxied interface
+     * @param bundle the requesting bundle if the proxy is specific to it, or null if it is shared
+     * @param creator creates the proxy if it is not cached
+     * @return the proxy, or null if it could not be created
+     */
+    public Object acquire(String endpointId, Class<?> iClass, Bundle bundle, ProxyCreator creator) {
+        Key key = new Key(endpointId, iClass, bundle);
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                if (entries.size() >= maxSize) {
+                    LOG.debug("Client proxy cache is full, not caching proxy for {}", endpointId);
+                    return creator.create();
+                }
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+            entry.refCount++;
+        }
+
+        // create outside the global lock so that proxies for different keys are built in parallel
+        synchronized (entry) {
+            boolean created = false;
+            try {
+                if (entry.proxy == null) {
+                    entry.proxy = creator.create();
+                }
+                created = entry.proxy != null;
+            } finally {
+                if (!created) {
+                    release(key, entry);
+                }
+            }
+            return entry.proxy;
+        }
+    }
+
+    /**
+     * Releases a proxy obtained from {@link #acquire}. Proxies that are
+     * not cached are ignored.
+     *
+     * @param endpointId the endpoint id
+     * @param iClass the proxied interface
+     * @param bundle the requesting bundle if the proxy is specific to it, or null if it is shared
+     * @param proxy the proxy
+     */
+    public void release(String endpointId, Class<?> iClass, Bundle bundle, Object proxy) {
+        Key key = new Key(endpointId, iClass, bundle);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.proxy == proxy) {
+                release(key, entry);
+            }
+        }
+    }
+
+    private void release(Key key, Entry entry) {
+        synchronized (entries) {
+            entry.refCount--;
+            if (entry.refCount <= 0 && entries.get(key) == entry) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static final class Entry {
+        volatile Object proxy;
+        int refCount;
+    }
+
+    private static final class Key {
+        private final String endpointId;
+        private final Class<?> iClass;
+        private final Bundle bundle;
+
+        Key(String endpointId, Class<?> iClass, Bundle bundle) {
+            this.endpointId = endpointId;
+            this.iClass = iClass;
+            this.bundle = bundle;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * endpointId.hashCode() + iClass.hashCode()) + (bundle == null ? 0 : bundle.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return endpointId.equals(other.endpointId) && iClass == other.iClass && bundle == other.bundle;
+        }
+    }
+}
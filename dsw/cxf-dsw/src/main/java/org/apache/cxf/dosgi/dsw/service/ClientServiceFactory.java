@@ -23,6 +23,7 @@ import java.security.PrivilegedAction;
 import java.util.Arrays;
 import java.util.List;
 
+import org.apache.cxf.dosgi.dsw.Constants;
 import org.apache.cxf.dosgi.dsw.api.ConfigurationTypeHandler;
 import org.apache.cxf.dosgi.dsw.api.IntentUnsatisfiedException;
 import org.osgi.framework.Bundle;
@@ -38,22 +39,59 @@ public class ClientServiceFactory implements ServiceFactory {
 
     private static final Logger LOG = LoggerFactory.getLogger(ClientServiceFactory.class);
 
+    /**
+     * The properties naming classes that are loaded from the requesting bundle.
+     */
+    private static final String[] BUNDLE_CLASSES_PROPERTIES = {
+        Constants.WS_IN_INTERCEPTORS_PROP_KEY, Constants.WS_OUT_INTERCEPTORS_PROP_KEY,
+        Constants.WS_IN_FAULT_INTERCEPTORS_PROP_KEY, Constants.WS_OUT_FAULT_INTERCEPTORS_PROP_KEY,
+        Constants.WS_FEATURES_PROP_KEY
+    };
+
     private BundleContext dswContext;
     private Class<?> iClass;
     private EndpointDescription endpoint;
     private ConfigurationTypeHandler handler;
     private ImportRegistrationImpl importRegistration;
+    private ClientProxyCache proxyCache;
+    private boolean bundleSpecific;
 
     private boolean closeable;
     private int serviceCounter;
 
     public ClientServiceFactory(BundleContext dswContext, Class<?> iClass, EndpointDescription endpoint,
                                 ConfigurationTypeHandler handler, ImportRegistrationImpl ir) {
+        this(dswContext, iClass, endpoint, handler, ir, new ClientProxyCache());
+    }
+
+    public ClientServiceFactory(BundleContext dswContext, Class<?> iClass, EndpointDescription endpoint,
+                                ConfigurationTypeHandler handler, ImportRegistrationImpl ir,
+                                ClientProxyCache proxyCache) {
         this.dswContext = dswContext;
         this.iClass = iClass;
         this.endpoint = endpoint;
         this.handler = handler;
         this.importRegistration = ir;
+        this.proxyCache = proxyCache;
+        this.bundleSpecific = isBundleSpecific(endpoint);
+    }
+
+    /**
+     * Returns whether the proxies for the given endpoint are configured from the
+     * requesting bundle, so that they cannot be shared with other bundles.
+     * JAX-RS proxies use the providers and models visible to the requesting bundle,
+     * and interceptors and features are loaded from it.
+     */
+    private static boolean isBundleSpecific(EndpointDescription endpoint) {
+        if (endpoint.getConfigurationTypes().contains(Constants.RS_CONFIG_TYPE)) {
+            return true;
+        }
+        for (String key : BUNDLE_CLASSES_PROPERTIES) {
+            if (endpoint.getProperties().get(key) != null) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public Object getService(final Bundle requestingBundle, final ServiceRegistration sreg) {
@@ -63,8 +101,16 @@ public class ClientServiceFactory implements ServiceFactory {
         try {
             Object proxy = AccessController.doPrivileged(new PrivilegedAction<Object>() {
                 public Object run() {
-                    return handler.createProxy(sreg.getReference(), dswContext,
-                            requestingBundle.getBundleContext(), iClass, endpoint);
+                    // shared proxies must not depend on the bundle that happens to request them first
+                    Bundle bundle = bundleSpecific ? requestingBundle : null;
+                    final BundleContext callingContext = bundleSpecific
+                        ? requestingBundle.getBundleContext() : dswContext;
+                    return proxyCache.acquire(endpoint.getId(), iClass, bundle, new ClientProxyCache.ProxyCreator() {
+                        public Object create() {
+                            return handler.createProxy(sreg.getReference(), dswContext, callingContext,
+                                                       iClass, endpoint);
+                        }
+                    });
                 }
             });
 
@@ -84,6 +130,7 @@ public class ClientServiceFactory implements ServiceFactory {
     public void ungetService(Bundle requestingBundle, ServiceRegistration sreg, Object serviceObject) {
         String[] interfaces = (String[])sreg.getReference().getProperty(org.osgi.framework.Constants.OBJECTCLASS);
         LOG.info("Releasing a client object, interfaces: {}", Arrays.toString(interfaces));
+        proxyCache.release(endpoint.getId(), iClass, bundleSpecific ? requestingBundle : null, serviceObject);
 
         synchronized (this) {
             serviceCounter--;
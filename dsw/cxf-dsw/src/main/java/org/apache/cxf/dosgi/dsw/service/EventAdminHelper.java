@@ -65,7 +65,7 @@ public class EventAdminHelper {
 
         EndpointDescription endpoint = null;
         if (rsae.getImportReference() != null) {
-            endpoint = ((ImportRegistrationImpl)rsae.getImportReference()).getImportedEndpointAlways();
+            endpoint = rsae.getImportReference().getImportedEndpoint();
             setIfNotNull(props, "import.registration", endpoint);
         } else if (rsae.getExportReference() != null) {
             endpoint = rsae.getExportReference().getExportedEndpoint();
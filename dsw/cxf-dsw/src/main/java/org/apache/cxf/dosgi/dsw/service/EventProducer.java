@@ -18,28 +18,108 @@
  */
 package org.apache.cxf.dosgi.dsw.service;
 
+import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+import org.osgi.service.remoteserviceadmin.ExportReference;
 import org.osgi.service.remoteserviceadmin.ExportRegistration;
+import org.osgi.service.remoteserviceadmin.ImportReference;
 import org.osgi.service.remoteserviceadmin.ImportRegistration;
 import org.osgi.service.remoteserviceadmin.RemoteServiceAdminEvent;
 import org.osgi.service.remoteserviceadmin.RemoteServiceAdminListener;
+import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Publishes RemoteServiceAdminEvents to the RemoteServiceAdminListeners and EventAdmins.
+ * <p>
+ * Events are queued and delivered in order by a single dispatcher, so that slow
+ * listeners do not stall exports and imports. Queued events are delivered in
+ * batches, looking up the tracked listeners once per batch. Events are never
+ * dropped: when the queue is full, publishing blocks until the dispatcher has
+ * caught up, except for events published by the dispatcher itself (e.g. by a
+ * listener closing a registration), which are held back until there is room.
+ */
 public class EventProducer {
 
+    static final int QUEUE_CAPACITY = 10000;
+    static final int MAX_BATCH_SIZE = 500;
+
     private static final Logger LOG = LoggerFactory.getLogger(EventProducer.class);
     private final BundleContext bctx;
     private final EventAdminHelper eaHelper;
+    private final ServiceTracker<RemoteServiceAdminListener, RemoteServiceAdminListener> listenerTracker;
+    private final BlockingQueue<RemoteServiceAdminEvent> queue
+        = new LinkedBlockingQueue<RemoteServiceAdminEvent>(QUEUE_CAPACITY);
+    private final AtomicBoolean dispatchScheduled = new AtomicBoolean();
+    private final Executor dispatcher;
+    private volatile Thread dispatchThread;
+
+    /**
+     * The events published by the dispatcher while the queue was full, accessed only by the dispatcher.
+     */
+    private final Queue<RemoteServiceAdminEvent> overflow = new LinkedList<RemoteServiceAdminEvent>();
 
     public EventProducer(BundleContext bc) {
+        this(bc, Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "RemoteServiceAdmin event dispatcher");
+                t.setDaemon(true);
+                return t;
+            }
+        }));
+    }
+
+    /**
+     * Creates an EventProducer that dispatches events on the given executor.
+     * At most one dispatch task is submitted at any time.
+     *
+     * @param bc the bundle context
+     * @param dispatcher the executor running the dispatch tasks
+     */
+    public EventProducer(BundleContext bc, Executor dispatcher) {
         bctx = bc;
         eaHelper = new EventAdminHelper(bctx);
+        this.dispatcher = dispatcher;
+        listenerTracker = new ServiceTracker<RemoteServiceAdminListener, RemoteServiceAdminListener>(bctx,
+            createFilter("(objectClass=" + RemoteServiceAdminListener.class.getName() + ")"), null);
+        listenerTracker.open();
+    }
+
+    private static Filter createFilter(String filter) {
+        try {
+            return FrameworkUtil.createFilter(filter);
+        } catch (InvalidSyntaxException e) {
+            throw new RuntimeException(e); // can never happen
+        }
+    }
+
+    /**
+     * Stops tracking listeners. Events that are already queued are still delivered.
+     */
+    public void close() {
+        if (dispatcher instanceof ExecutorService) {
+            ((ExecutorService) dispatcher).shutdown();
+        }
+        listenerTracker.close();
     }
 
     protected void publishNotification(List<ExportRegistration> erl) {
@@ -72,43 +152,213 @@ public class EventProducer {
 
     // only one of ir or er must be set, and the other must be null
     private void notify(int type, ImportRegistration ir, ExportRegistration er) {
+        RemoteServiceAdminEvent event;
         try {
-            RemoteServiceAdminEvent event = ir != null
-                ? new RemoteServiceAdminEvent(type, bctx.getBundle(), ir.getImportReference(), ir.getException())
-                : new RemoteServiceAdminEvent(type, bctx.getBundle(), er.getExportReference(), er.getException());
-            notifyListeners(event);
-            eaHelper.notifyEventAdmin(event);
+            // the references are copied, since the registration may be closed before the event is delivered;
+            // the copies equal the original references, so listeners can still match them
+            event = ir != null
+                ? new RemoteServiceAdminEvent(type, bctx.getBundle(), snapshot(ir.getImportReference()),
+                                              ir.getException())
+                : new RemoteServiceAdminEvent(type, bctx.getBundle(), snapshot(er.getExportReference()),
+                                              er.getException());
         } catch (IllegalStateException ise) {
             LOG.debug("can't send notifications since bundle context is no longer valid");
+            return;
+        }
+        enqueue(event);
+        scheduleDispatch();
+    }
+
+    /**
+     * Queues the event. When the queue is full, a publisher waits for the dispatcher to
+     * catch up, but the dispatcher itself never waits, as nobody else would make room:
+     * its events are held back and queued once it has delivered a batch.
+     */
+    private void enqueue(RemoteServiceAdminEvent event) {
+        if (Thread.currentThread() == dispatchThread) {
+            // keep the order of the held back events
+            if (!overflow.isEmpty() || !queue.offer(event)) {
+                LOG.debug("RemoteServiceAdmin event queue is full, holding back event of type {}", event.getType());
+                overflow.add(event);
+            }
+            return;
         }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(event);
+                break;
+            } catch (InterruptedException ie) {
+                interrupted = true; // retry, as the event must not be lost
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // must be called by the dispatcher
+    private void queueOverflow() {
+        while (!overflow.isEmpty() && queue.offer(overflow.peek())) {
+            overflow.remove();
+        }
+    }
+
+    private static ExportReference snapshot(ExportReference ref) {
+        return ref == null ? null : new ExportReferenceSnapshot(ref);
+    }
+
+    private static ImportReference snapshot(ImportReference ref) {
+        return ref == null ? null : new ImportReferenceSnapshot(ref);
     }
 
-    @SuppressWarnings({
-     "rawtypes", "unchecked"
-    })
-    private void notifyListeners(RemoteServiceAdminEvent rsae) {
+    private void scheduleDispatch() {
+        if (dispatchScheduled.compareAndSet(false, true)) {
+            try {
+                dispatcher.execute(new Runnable() {
+                    public void run() {
+                        dispatch();
+                    }
+                });
+            } catch (RejectedExecutionException ree) {
+                LOG.debug("event dispatcher has been shut down, dropping {} events", queue.size());
+                queue.clear();
+                dispatchScheduled.set(false);
+            }
+        }
+    }
+
+    private void dispatch() {
+        dispatchThread = Thread.currentThread();
         try {
-            ServiceReference[] listenerRefs = bctx.getServiceReferences(
-                    RemoteServiceAdminListener.class.getName(), null);
-            if (listenerRefs != null) {
-                for (ServiceReference sref : listenerRefs) {
-                    RemoteServiceAdminListener rsal = (RemoteServiceAdminListener)bctx.getService(sref);
-                    if (rsal != null) {
-                        try {
-                            Bundle bundle = sref.getBundle();
-                            if (bundle != null) {
-                                LOG.debug("notify RemoteServiceAdminListener {} of bundle {}",
-                                        rsal, bundle.getSymbolicName());
-                                rsal.remoteAdminEvent(rsae);
-                            }
-                        } finally {
-                            bctx.ungetService(sref);
-                        }
+            dispatchBatches();
+        } finally {
+            dispatchThread = null;
+        }
+    }
+
+    private void dispatchBatches() {
+        List<RemoteServiceAdminEvent> batch = new ArrayList<RemoteServiceAdminEvent>();
+        do {
+            while (queue.drainTo(batch, MAX_BATCH_SIZE) > 0) {
+                deliver(batch);
+                batch.clear();
+                queueOverflow();
+            }
+            dispatchScheduled.set(false);
+            // an event may have been queued after draining but before the flag was cleared
+        } while (!queue.isEmpty() && dispatchScheduled.compareAndSet(false, true));
+    }
+
+    private void deliver(List<RemoteServiceAdminEvent> events) {
+        ServiceReference<RemoteServiceAdminListener>[] listenerRefs = listenerTracker.getServiceReferences();
+        if (listenerRefs != null) {
+            for (ServiceReference<RemoteServiceAdminListener> sref : listenerRefs) {
+                RemoteServiceAdminListener rsal = listenerTracker.getService(sref);
+                Bundle bundle = sref.getBundle();
+                if (rsal != null && bundle != null) {
+                    LOG.debug("notify RemoteServiceAdminListener {} of bundle {} of {} events",
+                            new Object[] {rsal, bundle.getSymbolicName(), events.size()});
+                    for (RemoteServiceAdminEvent event : events) {
+                        notifyListener(rsal, event);
                     }
                 }
             }
-        } catch (InvalidSyntaxException e) {
-            LOG.error(e.getMessage(), e);
+        }
+        for (RemoteServiceAdminEvent event : events) {
+            try {
+                eaHelper.notifyEventAdmin(event);
+            } catch (IllegalStateException ise) {
+                LOG.debug("can't send notifications since bundle context is no longer valid");
+                return;
+            } catch (RuntimeException e) {
+                LOG.warn("failed to post event to EventAdmin", e);
+            }
+        }
+    }
+
+    private static void notifyListener(RemoteServiceAdminListener rsal, RemoteServiceAdminEvent event) {
+        try {
+            rsal.remoteAdminEvent(event);
+        } catch (RuntimeException e) {
+            LOG.warn("RemoteServiceAdminListener " + rsal + " failed to handle event", e);
+        }
+    }
+
+    /**
+     * A copy of the values of an export reference, which equals the original reference.
+     */
+    private static final class ExportReferenceSnapshot implements ExportReference {
+
+        private final ExportReference original;
+        private final ServiceReference<?> service;
+        private final EndpointDescription endpoint;
+
+        ExportReferenceSnapshot(ExportReference original) {
+            this.original = original;
+            this.service = original.getExportedService();
+            this.endpoint = original.getExportedEndpoint();
+        }
+
+        public ServiceReference<?> getExportedService() {
+            return service;
+        }
+
+        public EndpointDescription getExportedEndpoint() {
+            return endpoint;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof ExportReferenceSnapshot) {
+                return original.equals(((ExportReferenceSnapshot) obj).original);
+            }
+            return original.equals(obj);
+        }
+
+        @Override
+        public int hashCode() {
+            return original.hashCode();
+        }
+    }
+
+    /**
+     * A copy of the values of an import reference, which equals the original reference.
+     */
+    private static final class ImportReferenceSnapshot implements ImportReference {
+
+        private final ImportReference original;
+        private final ServiceReference<?> service;
+        private final EndpointDescription endpoint;
+
+        ImportReferenceSnapshot(ImportReference original) {
+            this.original = original;
+            this.service = original.getImportedService();
+            // a closed registration no longer exposes its endpoint, but the removal event must carry it
+            this.endpoint = original instanceof ImportRegistrationImpl
+                ? ((ImportRegistrationImpl) original).getImportedEndpointAlways()
+                : original.getImportedEndpoint();
+        }
+
+        public ServiceReference<?> getImportedService() {
+            return service;
+        }
+
+        public EndpointDescription getImportedEndpoint() {
+            return endpoint;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof ImportReferenceSnapshot) {
+                return original.equals(((ImportReferenceSnapshot) obj).original);
+            }
+            return original.equals(obj);
+        }
+
+        @Override
+        public int hashCode() {
+            return original.hashCode();
         }
     }
 }
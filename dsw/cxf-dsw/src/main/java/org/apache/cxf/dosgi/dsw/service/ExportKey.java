@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.dosgi.dsw.service;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.cxf.dosgi.dsw.util.Utils;
+import org.osgi.service.remoteserviceadmin.RemoteConstants;
+
+/**
+ * An immutable key identifying an export by the properties it was exported with.
+ * <p>
+ * Logically equal properties produce equal keys: property names are compared
+ * case-insensitively, arrays are compared by content, String+ values are compared
+ * as sets of strings, and private properties (starting with a '.', which are never
+ * part of an endpoint description) are ignored. The hash code is computed once.
+ */
+final class ExportKey {
+
+    private static final Set<String> STRING_PLUS_KEYS = new HashSet<String>(Arrays.asList(
+        RemoteConstants.SERVICE_EXPORTED_INTERFACES.toLowerCase(),
+        RemoteConstants.SERVICE_EXPORTED_CONFIGS.toLowerCase(),
+        RemoteConstants.SERVICE_EXPORTED_INTENTS.toLowerCase(),
+        RemoteConstants.SERVICE_EXPORTED_INTENTS_EXTRA.toLowerCase(),
+        RemoteConstants.SERVICE_INTENTS.toLowerCase()));
+
+    private final Map<String, Object> properties;
+    private final int hash;
+
+    ExportKey(Map<String, Object> serviceProperties) {
+        Map<String, Object> normalized = new HashMap<String, Object>(serviceProperties.size());
+        for (Map.Entry<String, Object> entry : serviceProperties.entrySet()) {
+            String key = entry.getKey().toLowerCase();
+            if (!key.startsWith(".")) {
+                normalized.put(key, normalize(key, entry.getValue()));
+            }
+        }
+        this.properties = Collections.unmodifiableMap(normalized);
+        this.hash = normalized.hashCode();
+    }
+
+    private static Object normalize(String key, Object value) {
+        if (STRING_PLUS_KEYS.contains(key)) {
+            String[] values = Utils.normalizeStringPlus(value);
+            if (values != null) {
+                return new HashSet<String>(Arrays.asList(values));
+            }
+        }
+        // convert arrays into lists so that they can be compared via equals()
+        if (value != null && value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            List<Object> list = new ArrayList<Object>(length);
+            for (int i = 0; i < length; i++) {
+                list.add(Array.get(value, i));
+            }
+            return list;
+        }
+        return value;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ExportKey)) {
+            return false;
+        }
+        ExportKey other = (ExportKey) obj;
+        return hash == other.hash && properties.equals(other.properties);
+    }
+
+    @Override
+    public String toString() {
+        return properties.toString();
+    }
+}
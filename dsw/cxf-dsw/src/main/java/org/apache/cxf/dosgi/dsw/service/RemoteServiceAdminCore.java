@@ -26,11 +26,24 @@ import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.cxf.dosgi.dsw.api.ConfigurationTypeHandler;
 import org.apache.cxf.dosgi.dsw.api.ExportResult;
@@ -57,24 +70,52 @@ import org.slf4j.LoggerFactory;
 public class RemoteServiceAdminCore implements RemoteServiceAdmin {
 
     private static final Logger LOG = LoggerFactory.getLogger(RemoteServiceAdminCore.class);
-
-    private final Map<Map<String, Object>, Collection<ExportRegistration>> exportedServices
-        = new LinkedHashMap<Map<String, Object>, Collection<ExportRegistration>>();
+    private static final int BULK_EXPORT_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final long BULK_EXPORT_KEEP_ALIVE_SECONDS = 30;
+    private static final ThreadFactory BULK_EXPORT_THREAD_FACTORY = new ThreadFactory() {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "RemoteServiceAdmin bulk export " + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
+    private final Map<ExportKey, Collection<ExportRegistration>> exportedServices
+        = new LinkedHashMap<ExportKey, Collection<ExportRegistration>>();
+    // secondary indexes of exportedServices, guarded by its lock
+    private final Map<ExportRegistration, IndexedExport> exportIndex
+        = new HashMap<ExportRegistration, IndexedExport>();
+    private final Map<ServiceReference<?>, Set<ExportRegistration>> exportsByService
+        = new HashMap<ServiceReference<?>, Set<ExportRegistration>>();
+    private final Map<Bundle, Set<ExportRegistration>> exportsByBundle
+        = new HashMap<Bundle, Set<ExportRegistration>>();
     private final Map<EndpointDescription, Collection<ImportRegistrationImpl>> importedServices
         = new LinkedHashMap<EndpointDescription, Collection<ImportRegistrationImpl>>();
 
-    // Is stored in exportedServices while the export is in progress as a marker
-    private final List<ExportRegistration> exportInProgress = Collections.emptyList();
+    // exports that are currently in progress, by export key
+    private final ConcurrentMap<ExportKey, InProgress> exportsInProgress
+        = new ConcurrentHashMap<ExportKey, InProgress>();
+    // imports that are currently in progress, by endpoint
+    private final ConcurrentMap<EndpointDescription, InProgress> importsInProgress
+        = new ConcurrentHashMap<EndpointDescription, InProgress>();
 
     private final BundleContext bctx;
     private final EventProducer eventProducer;
     private final ConfigTypeHandlerFinder configTypeHandlerFinder;
+    private final ClientProxyCache proxyCache = new ClientProxyCache();
     private final ServiceListener exportedServiceListener;
+    // runs the exports of exportServices, without idle threads between bulk exports
+    private final ThreadPoolExecutor bulkExportExecutor = new ThreadPoolExecutor(BULK_EXPORT_THREADS,
+        BULK_EXPORT_THREADS, BULK_EXPORT_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        BULK_EXPORT_THREAD_FACTORY);
 
     public RemoteServiceAdminCore(BundleContext bc, ConfigTypeHandlerFinder configTypeHandlerFinder) {
         this.bctx = bc;
         this.eventProducer = new EventProducer(bctx);
         this.configTypeHandlerFinder = configTypeHandlerFinder;
+        this.bulkExportExecutor.allowCoreThreadTimeOut(true);
         // listen for exported services being unregistered so we can close the export
         this.exportedServiceListener = new ServiceListener() {
             public void serviceChanged(ServiceEvent event) {
@@ -95,11 +136,95 @@ public class RemoteServiceAdminCore implements RemoteServiceAdmin {
     @SuppressWarnings({ "rawtypes", "unchecked" })
     public List<ExportRegistration> exportService(ServiceReference serviceReference, Map additionalProperties)
         throws IllegalArgumentException, UnsupportedOperationException {
+        List<ExportRegistration> published = new ArrayList<ExportRegistration>();
+        try {
+            return doExportService(serviceReference, additionalProperties, published);
+        } finally {
+            eventProducer.publishNotification(published);
+        }
+    }
+
+    /**
+     * Exports the given services, e.g. all existing services on startup.
+     * The services are exported in parallel and the resulting events are
+     * published together once all exports are complete. A service that cannot
+     * be exported due to invalid properties is logged and has no registrations.
+     *
+     * @param serviceReferences the services to export
+     * @param additionalProperties the properties to add to or override the properties
+     *        of each service, or null
+     * @return the export registrations of each service, in the order of the given services
+     * @see #exportService(ServiceReference, Map)
+     */
+    public Map<ServiceReference<?>, List<ExportRegistration>> exportServices(
+            Collection<? extends ServiceReference<?>> serviceReferences,
+            final Map<String, Object> additionalProperties) {
+        Map<ServiceReference<?>, List<ExportRegistration>> result
+            = new LinkedHashMap<ServiceReference<?>, List<ExportRegistration>>();
+        final List<ExportRegistration> published
+            = Collections.synchronizedList(new ArrayList<ExportRegistration>());
+        boolean parallel = serviceReferences.size() > 1;
+        Map<ServiceReference<?>, Future<List<ExportRegistration>>> futures
+            = new LinkedHashMap<ServiceReference<?>, Future<List<ExportRegistration>>>();
+        try {
+            for (final ServiceReference<?> sref : serviceReferences) {
+                Callable<List<ExportRegistration>> task = new Callable<List<ExportRegistration>>() {
+                    public List<ExportRegistration> call() {
+                        return doExportService(sref, additionalProperties, published);
+                    }
+                };
+                FutureTask<List<ExportRegistration>> future = new FutureTask<List<ExportRegistration>>(task);
+                futures.put(sref, future);
+                if (parallel) {
+                    executeBulkExport(future);
+                } else {
+                    future.run();
+                }
+            }
+            for (Map.Entry<ServiceReference<?>, Future<List<ExportRegistration>>> entry : futures.entrySet()) {
+                result.put(entry.getKey(), getExportResult(entry.getKey(), entry.getValue()));
+            }
+        } catch (InterruptedException ie) {
+            LOG.debug("interrupted while exporting services");
+            Thread.currentThread().interrupt();
+            for (Future<List<ExportRegistration>> future : futures.values()) {
+                future.cancel(false); // exports that have started are completed
+            }
+        } finally {
+            eventProducer.publishNotification(new ArrayList<ExportRegistration>(published));
+        }
+        return result;
+    }
+
+    private void executeBulkExport(FutureTask<List<ExportRegistration>> export) {
+        try {
+            bulkExportExecutor.execute(export);
+        } catch (RejectedExecutionException ree) {
+            export.run(); // we are closed, but the caller still gets its result
+        }
+    }
+
+    private static List<ExportRegistration> getExportResult(ServiceReference<?> sref,
+            Future<List<ExportRegistration>> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException ee) {
+            LOG.error("failed to export service " + sref, ee.getCause());
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Exports a service, collecting the registrations whose events must be published
+     * instead of publishing them.
+     */
+    private List<ExportRegistration> doExportService(ServiceReference<?> serviceReference,
+            Map<String, Object> additionalProperties, List<ExportRegistration> published) {
         Map<String, Object> serviceProperties = OsgiUtils.getProperties(serviceReference);
         if (additionalProperties != null) {
             OsgiUtils.overlayProperties(serviceProperties, additionalProperties);
         }
-        Map<String, Object> key = makeKey(serviceProperties);
+        ExportKey key = new ExportKey(serviceProperties);
 
         List<String> interfaces = getInterfaces(serviceProperties);
 
@@ -109,49 +234,112 @@ public class RemoteServiceAdminCore implements RemoteServiceAdmin {
             return Collections.emptyList();
         }
 
-        synchronized (exportedServices) {
-            // check if it is already exported...
-            Collection<ExportRegistration> existingRegs = exportedServices.get(key);
+        // if the export is complete, return a copy of existing export
+        List<ExportRegistration> copy = copyExistingExport(key);
+        if (copy != null) {
+            LOG.debug("already exported this service. Returning existing exportRegs {} ", interfaces);
+            published.addAll(copy);
+            return copy;
+        }
 
-            // if the export is already in progress, wait for it to be complete
-            while (existingRegs == exportInProgress) {
-                try {
-                    exportedServices.wait();
-                    existingRegs = exportedServices.get(key);
-                } catch (InterruptedException ie) {
-                    LOG.debug("interrupted while waiting for export in progress");
-                    return Collections.emptyList();
-                }
+        // mark export as being in progress, or join the export already in progress
+        InProgress export = new InProgress();
+        InProgress existingExport;
+        while ((existingExport = exportsInProgress.putIfAbsent(key, export)) != null) {
+            copy = joinExport(key, existingExport, interfaces);
+            if (copy != null) {
+                published.addAll(copy);
+                return copy;
             }
+            // the export in progress failed, so try it again ourselves
+        }
 
-            // if the export is complete, return a copy of existing export
-            if (existingRegs != null) {
+        try {
+            // the export may have completed between the check above and marking it as in progress
+            copy = copyExistingExport(key);
+            if (copy != null) {
                 LOG.debug("already exported this service. Returning existing exportRegs {} ", interfaces);
-                return copyExportRegistration(existingRegs);
+                published.addAll(copy);
+                return copy;
             }
 
-            // mark export as being in progress
-            exportedServices.put(key, exportInProgress);
-        }
-
-        try {
             // do the export
             List<ExportRegistration> exportRegs = exportInterfaces(interfaces, serviceReference, serviceProperties);
             if (!exportRegs.isEmpty()) {
                 // enlist initial export registrations in global list of exportRegistrations
                 synchronized (exportedServices) {
                     exportedServices.put(key, new ArrayList<ExportRegistration>(exportRegs));
+                    for (ExportRegistration exportReg : exportRegs) {
+                        addToIndexes(key, exportReg);
+                    }
                 }
-                eventProducer.publishNotification(exportRegs);
+                published.addAll(exportRegs);
             }
             return exportRegs;
         } finally {
-            synchronized (exportedServices) {
-                if (exportedServices.get(key) == exportInProgress) {
-                    exportedServices.remove(key);
-                }
-                exportedServices.notifyAll(); // in any case, always notify waiting threads
+            // in any case, always release waiting threads
+            export.done();
+            exportsInProgress.remove(key, export);
+        }
+    }
+
+    /**
+     * Waits for an export of the same service that is in progress in another thread
+     * and returns copies of its registrations.
+     *
+     * @return the copies, or null if the export in progress did not export the service
+     */
+    private List<ExportRegistration> joinExport(ExportKey key, InProgress export,
+                                                List<String> interfaces) {
+        try {
+            export.await();
+        } catch (InterruptedException ie) {
+            LOG.debug("interrupted while waiting for export in progress");
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        }
+        List<ExportRegistration> copy = copyExistingExport(key);
+        if (copy != null) {
+            LOG.debug("already exported this service. Returning existing exportRegs {} ", interfaces);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns copies of the registrations of an existing export.
+     *
+     * @param key the export key
+     * @return the copies, or null if there is no such export
+     */
+    private List<ExportRegistration> copyExistingExport(ExportKey key) {
+        List<ExportRegistration> copy;
+        synchronized (exportedServices) {
+            Collection<ExportRegistration> existingRegs = exportedServices.get(key);
+            if (existingRegs == null) {
+                return null;
             }
+            copy = copyExportRegistration(existingRegs);
+            for (ExportRegistration exportReg : copy) {
+                addToIndexes(key, exportReg);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * An export or import that is in progress. Other threads exporting the same
+     * service or importing the same endpoint wait for it to complete instead of
+     * doing it again.
+     */
+    private static final class InProgress {
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        void done() {
+            latch.countDown();
+        }
+
+        void await() throws InterruptedException {
+            latch.await();
         }
     }
 
@@ -240,29 +428,6 @@ public class RemoteServiceAdminCore implements RemoteServiceAdmin {
         return interfaces;
     }
 
-    /**
-     * Converts the given properties map into one that can be used as a map key itself.
-     * For example, if a value is an array, it is converted into a list so that the
-     * equals method will compare it properly.
-     *
-     * @param properties a properties map
-     * @return a map that represents the given map, but can be safely used as a map key itself
-     */
-    private Map<String, Object> makeKey(Map<String, Object> properties) {
-        // FIXME: we should also make logically equal values actually compare as equal
-        // (e.g. String+ values should be normalized)
-        Map<String, Object> converted = new HashMap<String, Object>(properties.size());
-        for (Map.Entry<String, Object> entry : properties.entrySet()) {
-            Object val = entry.getValue();
-            // convert arrays into lists so that they can be compared via equals()
-            if (val instanceof Object[]) {
-                val = Arrays.asList((Object[])val);
-            }
-            converted.put(entry.getKey(), val);
-        }
-        return converted;
-    }
-
     private List<ExportRegistration> copyExportRegistration(Collection<ExportRegistration> regs) {
         Set<EndpointDescription> copiedEndpoints = new HashSet<EndpointDescription>();
 
@@ -281,8 +446,6 @@ public class RemoteServiceAdminCore implements RemoteServiceAdmin {
         }
 
         regs.addAll(copy);
-
-        eventProducer.publishNotification(copy);
         return copy;
     }
 
@@ -323,15 +486,26 @@ public class RemoteServiceAdminCore implements RemoteServiceAdmin {
     public ImportRegistration importService(EndpointDescription endpoint) {
         LOG.debug("importService() Endpoint: {}", endpoint.getProperties());
 
-        synchronized (importedServices) {
-            Collection<ImportRegistrationImpl> imRegs = importedServices.get(endpoint);
-            if (imRegs != null && !imRegs.isEmpty()) {
-                LOG.debug("creating copy of existing import registrations");
-                ImportRegistrationImpl irParent = imRegs.iterator().next();
-                ImportRegistrationImpl ir = new ImportRegistrationImpl(irParent);
-                imRegs.add(ir);
-                eventProducer.publishNotification(ir);
-                return ir;
+        // if the endpoint is already imported, return a copy of the existing import
+        ImportRegistrationImpl copy = copyExistingImport(endpoint);
+        if (copy != null) {
+            eventProducer.publishNotification(copy);
+            return copy;
+        }
+
+        // mark import as being in progress, or join the import already in progress
+        InProgress importInProgress = new InProgress();
+        InProgress existingImport = importsInProgress.putIfAbsent(endpoint, importInProgress);
+        if (existingImport != null) {
+            return joinImport(endpoint, existingImport);
+        }
+
+        try {
+            // the import may have completed between the check above and marking it as in progress
+            copy = copyExistingImport(endpoint);
+            if (copy != null) {
+                eventProducer.publishNotification(copy);
+                return copy;
             }
 
             ConfigurationTypeHandler handler = findHandler(endpoint);
@@ -347,15 +521,61 @@ public class RemoteServiceAdminCore implements RemoteServiceAdmin {
                 ImportRegistrationImpl imReg = new ImportRegistrationImpl(endpoint, this);
 
                 proxifyMatchingInterface(matchingInterfaces.get(0), imReg, handler, bctx);
-                if (imRegs == null) {
-                    imRegs = new ArrayList<ImportRegistrationImpl>();
-                    importedServices.put(endpoint, imRegs);
+                synchronized (importedServices) {
+                    Collection<ImportRegistrationImpl> imRegs = importedServices.get(endpoint);
+                    if (imRegs == null) {
+                        imRegs = new ArrayList<ImportRegistrationImpl>();
+                        importedServices.put(endpoint, imRegs);
+                    }
+                    imRegs.add(imReg);
                 }
-                imRegs.add(imReg);
                 eventProducer.publishNotification(imReg);
                 return imReg;
             }
             return null;
+        } finally {
+            // in any case, always release waiting threads
+            importInProgress.done();
+            importsInProgress.remove(endpoint, importInProgress);
+        }
+    }
+
+    /**
+     * Waits for an import of the same endpoint that is in progress in another thread
+     * and returns a copy of its registration.
+     */
+    private ImportRegistration joinImport(EndpointDescription endpoint, InProgress importInProgress) {
+        try {
+            importInProgress.await();
+        } catch (InterruptedException ie) {
+            LOG.debug("interrupted while waiting for import in progress");
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        ImportRegistrationImpl copy = copyExistingImport(endpoint);
+        if (copy != null) {
+            eventProducer.publishNotification(copy);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns a copy of the registration of an existing import.
+     *
+     * @param endpoint the imported endpoint
+     * @return the copy, or null if the endpoint is not imported
+     */
+    private ImportRegistrationImpl copyExistingImport(EndpointDescription endpoint) {
+        synchronized (importedServices) {
+            Collection<ImportRegistrationImpl> imRegs = importedServices.get(endpoint);
+            if (imRegs == null || imRegs.isEmpty()) {
+                return null;
+            }
+            LOG.debug("creating copy of existing import registrations");
+            ImportRegistrationImpl irParent = imRegs.iterator().next();
+            ImportRegistrationImpl ir = new ImportRegistrationImpl(irParent);
+            imRegs.add(ir);
+            return ir;
         }
     }
 
@@ -384,7 +604,8 @@ public class RemoteServiceAdminCore implements RemoteServiceAdmin {
             serviceProps.put(RemoteConstants.SERVICE_IMPORTED, true);
             serviceProps.remove(RemoteConstants.SERVICE_EXPORTED_INTERFACES);
 
-            ClientServiceFactory csf = new ClientServiceFactory(actualContext, iClass, endpoint, handler, imReg);
+            ClientServiceFactory csf = new ClientServiceFactory(actualContext, iClass, endpoint, handler, imReg,
+                proxyCache);
             imReg.setClientServiceFactory(csf);
             ServiceRegistration<?> proxyReg = actualContext.registerService(interfaceName, csf, serviceProps);
             imReg.setImportedServiceRegistration(proxyReg);
@@ -395,6 +616,47 @@ public class RemoteServiceAdminCore implements RemoteServiceAdmin {
         }
     }
 
+    private void addToIndexes(ExportKey key, ExportRegistration exportReg) {
+        // the service and bundle are captured now, as they are no longer available once
+        // the registration is closed or the service is unregistered
+        ServiceReference<?> sref = exportReg.getExportReference().getExportedService();
+        IndexedExport indexed = new IndexedExport(key, sref, sref.getBundle());
+        exportIndex.put(exportReg, indexed);
+        addToIndex(exportsByService, indexed.sref, exportReg);
+        if (indexed.bundle != null) {
+            addToIndex(exportsByBundle, indexed.bundle, exportReg);
+        }
+    }
+
+    private static <K> void addToIndex(Map<K, Set<ExportRegistration>> index, K key, ExportRegistration reg) {
+        Set<ExportRegistration> regs = index.get(key);
+        if (regs == null) {
+            regs = new LinkedHashSet<ExportRegistration>();
+            index.put(key, regs);
+        }
+        regs.add(reg);
+    }
+
+    private static <K> void removeFromIndex(Map<K, Set<ExportRegistration>> index, K key,
+                                            ExportRegistration reg) {
+        Set<ExportRegistration> regs = index.get(key);
+        if (regs != null && regs.remove(reg) && regs.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private static final class IndexedExport {
+        final ExportKey key;
+        final ServiceReference<?> sref;
+        final Bundle bundle;
+
+        IndexedExport(ExportKey key, ServiceReference<?> sref, Bundle bundle) {
+            this.key = key;
+            this.sref = sref;
+            this.bundle = bundle;
+        }
+    }
+
     /**
      * Removes and closes all exports for the given service.
      * This is called when the service is unregistered.
@@ -402,24 +664,19 @@ public class RemoteServiceAdminCore implements RemoteServiceAdmin {
      * @param sref the service whose exports should be removed and closed
      */
     protected void removeServiceExports(ServiceReference<?> sref) {
-        List<ExportRegistration> regs = new ArrayList<ExportRegistration>(1);
+        List<ExportRegistration> regs;
         synchronized (exportedServices) {
-            for (Iterator<Collection<ExportRegistration>> it = exportedServices.values().iterator(); it.hasNext();) {
-                Collection<ExportRegistration> value = it.next();
-                for (Iterator<ExportRegistration> it2 = value.iterator(); it2.hasNext();) {
-                    ExportRegistration er = it2.next();
-                    if (er.getExportReference().getExportedService().equals(sref)) {
-                        regs.add(er);
-                    }
-                }
-            }
-            // do this outside of iteration to avoid concurrent modification
-            for (ExportRegistration er : regs) {
-                LOG.debug("closing export for service {}", sref);
-                er.close();
+            Set<ExportRegistration> serviceRegs = exportsByService.get(sref);
+            if (serviceRegs == null) {
+                return;
             }
+            regs = new ArrayList<ExportRegistration>(serviceRegs);
+        }
+        // do this outside of the lock as closing calls back into removeExportRegistration
+        for (ExportRegistration er : regs) {
+            LOG.debug("closing export for service {}", sref);
+            er.close();
         }
-
     }
 
     /**
@@ -431,21 +688,20 @@ public class RemoteServiceAdminCore implements RemoteServiceAdmin {
      */
     protected void removeExportRegistration(ExportRegistrationImpl eri) {
         synchronized (exportedServices) {
-            for (Iterator<Collection<ExportRegistration>> it = exportedServices.values().iterator(); it.hasNext();) {
-                Collection<ExportRegistration> value = it.next();
-                for (Iterator<ExportRegistration> it2 = value.iterator(); it2.hasNext();) {
-                    ExportRegistration er = it2.next();
-                    if (er.equals(eri)) {
-                        eventProducer.notifyRemoval(eri);
-                        it2.remove();
-                        if (value.isEmpty()) {
-                            it.remove();
-                        }
-                        return;
-                    }
-                }
+            IndexedExport indexed = exportIndex.remove(eri);
+            if (indexed == null) {
+                return;
+            }
+            Collection<ExportRegistration> regs = exportedServices.get(indexed.key);
+            if (regs != null && regs.remove(eri) && regs.isEmpty()) {
+                exportedServices.remove(indexed.key);
+            }
+            removeFromIndex(exportsByService, indexed.sref, eri);
+            if (indexed.bundle != null) {
+                removeFromIndex(exportsByBundle, indexed.bundle, eri);
             }
         }
+        eventProducer.notifyRemoval(eri);
     }
 
     // remove all export registrations associated with the given bundle
@@ -471,37 +727,33 @@ public class RemoteServiceAdminCore implements RemoteServiceAdmin {
 
     private List<ExportRegistration> getExportsForBundle(Bundle exportingBundle) {
         synchronized (exportedServices) {
-            List<ExportRegistration> bundleRegs = new ArrayList<ExportRegistration>();
-            for (Collection<ExportRegistration> regs : exportedServices.values()) {
-                if (!regs.isEmpty()) {
-                    Bundle regBundle = regs.iterator().next().getExportReference().getExportedService().getBundle();
-                    if (exportingBundle.equals(regBundle)) {
-                        bundleRegs.addAll(regs);
-                    }
-                }
-            }
-            return bundleRegs;
+            Set<ExportRegistration> bundleRegs = exportsByBundle.get(exportingBundle);
+            return bundleRegs == null
+                ? new ArrayList<ExportRegistration>() : new ArrayList<ExportRegistration>(bundleRegs);
         }
     }
 
     protected void removeImportRegistration(ImportRegistrationImpl iri) {
+        boolean removed;
         synchronized (importedServices) {
             LOG.debug("Removing importRegistration {}", iri);
 
             Collection<ImportRegistrationImpl> imRegs = importedServices.get(iri.getImportedEndpointAlways());
-            if (imRegs != null && imRegs.contains(iri)) {
-                imRegs.remove(iri);
-                eventProducer.notifyRemoval(iri);
-            }
+            removed = imRegs != null && imRegs.remove(iri);
             if (imRegs == null || imRegs.isEmpty()) {
                 importedServices.remove(iri.getImportedEndpointAlways());
             }
         }
+        if (removed) {
+            eventProducer.notifyRemoval(iri);
+        }
     }
 
     public void close() {
         removeImportRegistrations();
         bctx.removeServiceListener(exportedServiceListener);
+        bulkExportExecutor.shutdown();
+        eventProducer.close();
     }
     
     private ConfigurationTypeHandler findHandler(EndpointDescription endpoint) {
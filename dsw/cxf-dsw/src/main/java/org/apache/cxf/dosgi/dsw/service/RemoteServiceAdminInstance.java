@@ -61,6 +61,24 @@ public class RemoteServiceAdminInstance implements RemoteServiceAdmin {
         });
     }
 
+    /**
+     * Exports the given services in bulk.
+     *
+     * @see RemoteServiceAdminCore#exportServices
+     */
+    public Map<ServiceReference<?>, List<ExportRegistration>> exportServices(
+            final Collection<? extends ServiceReference<?>> refs, final Map<String, Object> properties) {
+        checkPermission(new EndpointPermission("*", EndpointPermission.EXPORT));
+        return AccessController.doPrivileged(
+            new PrivilegedAction<Map<ServiceReference<?>, List<ExportRegistration>>>() {
+                public Map<ServiceReference<?>, List<ExportRegistration>> run() {
+                    return closed
+                        ? Collections.<ServiceReference<?>, List<ExportRegistration>>emptyMap()
+                        : rsaCore.exportServices(refs, properties);
+                }
+            });
+    }
+
     @Override
     public Collection<ExportReference> getExportedServices() {
         checkPermission(new EndpointPermission("*", EndpointPermission.READ));
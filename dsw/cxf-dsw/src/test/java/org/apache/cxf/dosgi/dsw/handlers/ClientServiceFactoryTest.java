@@ -24,6 +24,7 @@ import java.util.Map;
 import junit.framework.TestCase;
 
 import org.apache.cxf.dosgi.dsw.api.ConfigurationTypeHandler;
+import org.apache.cxf.dosgi.dsw.service.ClientProxyCache;
 import org.apache.cxf.dosgi.dsw.service.ClientServiceFactory;
 import org.apache.cxf.dosgi.dsw.service.ImportRegistrationImpl;
 import org.easymock.EasyMock;
@@ -54,19 +55,106 @@ public class ClientServiceFactoryTest extends TestCase {
 
         ImportRegistrationImpl iri = new ImportRegistrationImpl(endpoint, null);
 
-        BundleContext requestingContext = control.createMock(BundleContext.class);
         Bundle requestingBundle = control.createMock(Bundle.class);
-        EasyMock.expect(requestingBundle.getBundleContext()).andReturn(requestingContext);
 
         ServiceReference sr = control.createMock(ServiceReference.class);
         ServiceRegistration sreg = control.createMock(ServiceRegistration.class);
         EasyMock.expect(sreg.getReference()).andReturn(sr);
 
-        handler.createProxy(sr, dswContext, requestingContext, String.class, endpoint);
+        // a shared proxy is not created with the context of the requesting bundle
+        handler.createProxy(sr, dswContext, dswContext, String.class, endpoint);
         EasyMock.expectLastCall().andReturn(myTestProxyObject);
         control.replay();
 
         ClientServiceFactory csf = new ClientServiceFactory(dswContext, String.class, endpoint, handler, iri);
         assertSame(myTestProxyObject, csf.getService(requestingBundle, sreg));
     }
+
+    @SuppressWarnings("rawtypes")
+    public void testProxyIsSharedBetweenBundles() {
+        Object myTestProxyObject = new Object();
+
+        IMocksControl control = EasyMock.createNiceControl();
+        BundleContext dswContext = control.createMock(BundleContext.class);
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put(RemoteConstants.ENDPOINT_ID, "http://google.de");
+        map.put(RemoteConstants.SERVICE_IMPORTED_CONFIGS, "myGreatConfiguration");
+        map.put(Constants.OBJECTCLASS, new String[]{"my.class"});
+
+        EndpointDescription endpoint = new EndpointDescription(map);
+        ConfigurationTypeHandler handler = control.createMock(ConfigurationTypeHandler.class);
+        ImportRegistrationImpl iri = new ImportRegistrationImpl(endpoint, null);
+
+        Bundle requestingBundle1 = control.createMock(Bundle.class);
+        Bundle requestingBundle2 = control.createMock(Bundle.class);
+        ServiceReference sr = control.createMock(ServiceReference.class);
+        ServiceRegistration sreg = control.createMock(ServiceRegistration.class);
+        EasyMock.expect(sreg.getReference()).andReturn(sr).anyTimes();
+
+        // the proxy must only be created once for both bundles, and again after it was released
+        handler.createProxy(EasyMock.<ServiceReference<?>>anyObject(), EasyMock.<BundleContext>anyObject(),
+                EasyMock.<BundleContext>anyObject(), EasyMock.eq(String.class), EasyMock.eq(endpoint));
+        EasyMock.expectLastCall().andReturn(myTestProxyObject).times(2);
+        control.replay();
+
+        ClientProxyCache cache = new ClientProxyCache();
+        ClientServiceFactory csf = new ClientServiceFactory(dswContext, String.class, endpoint, handler, iri, cache);
+        assertSame(myTestProxyObject, csf.getService(requestingBundle1, sreg));
+        assertSame(myTestProxyObject, csf.getService(requestingBundle2, sreg));
+        assertEquals(1, cache.size());
+
+        csf.ungetService(requestingBundle1, sreg, myTestProxyObject);
+        assertEquals(1, cache.size());
+        csf.ungetService(requestingBundle2, sreg, myTestProxyObject);
+        assertEquals(0, cache.size());
+
+        assertSame(myTestProxyObject, csf.getService(requestingBundle1, sreg));
+        control.verify();
+    }
+
+    @SuppressWarnings("rawtypes")
+    public void testBundleSpecificProxyIsNotShared() {
+        Object proxy1 = new Object();
+        Object proxy2 = new Object();
+
+        IMocksControl control = EasyMock.createNiceControl();
+        BundleContext dswContext = control.createMock(BundleContext.class);
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put(RemoteConstants.ENDPOINT_ID, "http://google.de");
+        map.put(RemoteConstants.SERVICE_IMPORTED_CONFIGS, "myGreatConfiguration");
+        map.put(Constants.OBJECTCLASS, new String[]{"my.class"});
+        map.put(org.apache.cxf.dosgi.dsw.Constants.WS_IN_INTERCEPTORS_PROP_KEY, "my.Interceptor");
+
+        EndpointDescription endpoint = new EndpointDescription(map);
+        ConfigurationTypeHandler handler = control.createMock(ConfigurationTypeHandler.class);
+        ImportRegistrationImpl iri = new ImportRegistrationImpl(endpoint, null);
+
+        BundleContext requestingContext1 = control.createMock(BundleContext.class);
+        Bundle requestingBundle1 = control.createMock(Bundle.class);
+        EasyMock.expect(requestingBundle1.getBundleContext()).andReturn(requestingContext1).anyTimes();
+        BundleContext requestingContext2 = control.createMock(BundleContext.class);
+        Bundle requestingBundle2 = control.createMock(Bundle.class);
+        EasyMock.expect(requestingBundle2.getBundleContext()).andReturn(requestingContext2).anyTimes();
+        ServiceReference sr = control.createMock(ServiceReference.class);
+        ServiceRegistration sreg = control.createMock(ServiceRegistration.class);
+        EasyMock.expect(sreg.getReference()).andReturn(sr).anyTimes();
+
+        // each bundle gets a proxy created with its own context
+        handler.createProxy(sr, dswContext, requestingContext1, String.class, endpoint);
+        EasyMock.expectLastCall().andReturn(proxy1).once();
+        handler.createProxy(sr, dswContext, requestingContext2, String.class, endpoint);
+        EasyMock.expectLastCall().andReturn(proxy2).once();
+        control.replay();
+
+        ClientProxyCache cache = new ClientProxyCache();
+        ClientServiceFactory csf = new ClientServiceFactory(dswContext, String.class, endpoint, handler, iri, cache);
+        assertSame(proxy1, csf.getService(requestingBundle1, sreg));
+        assertSame(proxy2, csf.getService(requestingBundle2, sreg));
+        assertSame(proxy1, csf.getService(requestingBundle1, sreg));
+        assertEquals(2, cache.size());
+
+        csf.ungetService(requestingBundle2, sreg, proxy2);
+        assertEquals(1, cache.size());
+        control.verify();
+    }
 }
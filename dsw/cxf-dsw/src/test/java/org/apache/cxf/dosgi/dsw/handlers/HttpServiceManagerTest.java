@@ -96,8 +96,60 @@ public class HttpServiceManagerTest extends TestCase {
         c.verify();
     }
 
+    public void testSharedBusPerContextRoot() throws Exception {
+        IMocksControl c = EasyMock.createControl();
+        BundleContext dswContext = c.createMock(BundleContext.class);
+        expect(dswContext.getProperty("org.apache.cxf.httpservice.requirefilter")).andReturn(null).anyTimes();
+        BundleContext otherContext = c.createMock(BundleContext.class);
+        ServletConfig config = c.createMock(ServletConfig.class);
+        expect(config.getInitParameter(EasyMock.<String>anyObject())).andReturn(null).anyTimes();
+        ServletContext servletContext = c.createMock(ServletContext.class);
+        expect(config.getServletContext()).andReturn(servletContext).anyTimes();
+        expect(servletContext.getResourceAsStream((String)EasyMock.anyObject())).andReturn(null).anyTimes();
+        c.replay();
+
+        final DummyHttpService httpService = new DummyHttpService(config);
+        HttpServiceManager h = new HttpServiceManager(dswContext, null, null, true, null) {
+            @Override
+            protected HttpService getHttpService() {
+                return httpService;
+            }
+        };
+        assertTrue(h.isSharedBusPerContextRoot());
+
+        Bus bus1 = h.acquireSharedBus("/myService", dswContext);
+        Bus bus2 = h.acquireSharedBus("/myService", dswContext);
+        Bus defaultBus = h.acquireSharedBus(null, dswContext);
+        assertSame(bus1, bus2);
+        assertNotSame(bus1, defaultBus);
+        assertEquals(1, httpService.registered);
+
+        // the servlet is registered with the HttpContext of the first bundle
+        assertNull(h.acquireSharedBus("/myService", otherContext));
+        Bus otherDefaultBus = h.acquireSharedBus(null, otherContext);
+        assertSame(defaultBus, otherDefaultBus);
+        h.releaseBus(otherDefaultBus);
+        assertEquals(1, httpService.registered);
+
+        h.releaseBus(bus1);
+        assertEquals(0, httpService.unregistered);
+        h.releaseBus(bus2);
+        assertEquals(1, httpService.unregistered);
+        h.releaseBus(defaultBus);
+        assertEquals(1, httpService.unregistered);
+
+        // the context root can be used again after the last release
+        Bus bus3 = h.acquireSharedBus("/myService", dswContext);
+        assertNotSame(bus1, bus3);
+        assertEquals(2, httpService.registered);
+        h.releaseBus(bus3);
+        c.verify();
+    }
+
     static class DummyHttpService implements HttpService {
 
+        int registered;
+        int unregistered;
         private ServletConfig config;
 
         DummyHttpService(ServletConfig config) {
@@ -109,6 +161,7 @@ public class HttpServiceManagerTest extends TestCase {
             throws ServletException, NamespaceException {
             Assert.assertEquals("/myService", alias);
             servlet.init(config);
+            registered++;
         }
 
         public void registerResources(String alias, String name, HttpContext context) throws NamespaceException {
@@ -116,6 +169,7 @@ public class HttpServiceManagerTest extends TestCase {
         }
 
         public void unregister(String alias) {
+            unregistered++;
         }
 
         public HttpContext createDefaultHttpContext() {
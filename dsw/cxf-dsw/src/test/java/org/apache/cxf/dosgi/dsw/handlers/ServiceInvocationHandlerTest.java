@@ -18,16 +18,33 @@
  */
 package org.apache.cxf.dosgi.dsw.handlers;
 
+import java.io.IOException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 import junit.framework.TestCase;
 
+import org.apache.cxf.endpoint.Client;
+import org.apache.cxf.endpoint.ClientCallback;
+import org.apache.cxf.endpoint.Endpoint;
+import org.apache.cxf.service.Service;
+import org.apache.cxf.service.invoker.MethodDispatcher;
+import org.apache.cxf.service.model.BindingOperationInfo;
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.easymock.EasyMock;
+import org.osgi.framework.ServiceException;
+
 public class ServiceInvocationHandlerTest extends TestCase {
 
     private static final Map<String, Method> OBJECT_METHODS = new HashMap<String, Method>(); {
@@ -72,4 +89,106 @@ public class ServiceInvocationHandlerTest extends TestCase {
                 sih.invoke(null, OBJECT_METHODS.get("toString"), new Object[] {}));
         assertEquals(Arrays.asList("equals", "hashCode", "toString"), called);
     }
+
+    public void testInvokeDeclaredException() throws Throwable {
+        Readable service = new Readable() {
+            public int read(CharBuffer cb) throws IOException {
+                throw new IOException("declared");
+            }
+        };
+        ServiceInvocationHandler sih = new ServiceInvocationHandler(service, Readable.class);
+        Method m = Readable.class.getMethod("read", CharBuffer.class);
+        try {
+            sih.invoke(null, m, new Object[] {null});
+            fail("should have thrown the declared exception");
+        } catch (IOException e) {
+            assertEquals("declared", e.getMessage());
+        }
+    }
+
+    public void testInvokeUndeclaredException() throws Throwable {
+        Runnable service = new Runnable() {
+            public void run() {
+                throw new IllegalStateException("undeclared");
+            }
+        };
+        ServiceInvocationHandler sih = new ServiceInvocationHandler(service, Runnable.class);
+        Method m = Runnable.class.getMethod("run");
+        try {
+            sih.invoke(null, m, new Object[] {});
+            fail("should have thrown a ServiceException");
+        } catch (ServiceException e) {
+            assertEquals("REMOTE", e.getMessage());
+            assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+        }
+    }
+
+    public void testInvokeAsync() throws Throwable {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        Executor executor = new Executor() {
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        AsyncGreeter service = EasyMock.createMock(AsyncGreeter.class);
+        EasyMock.expect(service.greet("Bob")).andReturn("Hello Bob");
+        EasyMock.replay(service);
+
+        ServiceInvocationHandler sih = new ServiceInvocationHandler(service, AsyncGreeter.class, executor);
+        Method m = AsyncGreeter.class.getMethod("greetAsync", String.class);
+        Future<?> future = (Future<?>) sih.invoke(null, m, new Object[] {"Bob"});
+        assertFalse(future.isDone());
+        assertEquals(1, tasks.size());
+
+        tasks.get(0).run();
+        assertEquals("Hello Bob", future.get());
+        EasyMock.verify(service);
+    }
+
+    public void testInvokeAsyncThroughClient() throws Throwable {
+        AsyncGreeter service = EasyMock.createMock(AsyncGreeter.class);
+        EasyMock.replay(service);
+        Method greet = AsyncGreeter.class.getMethod("greet", String.class);
+        BindingOperationInfo operation = EasyMock.createNiceMock(BindingOperationInfo.class);
+        Endpoint endpoint = EasyMock.createNiceMock(Endpoint.class);
+        Service cxfService = EasyMock.createNiceMock(Service.class);
+        MethodDispatcher dispatcher = EasyMock.createMock(MethodDispatcher.class);
+        EasyMock.expect(endpoint.getService()).andReturn(cxfService).anyTimes();
+        EasyMock.expect(cxfService.get(MethodDispatcher.class.getName())).andReturn(dispatcher).anyTimes();
+        EasyMock.expect(dispatcher.getBindingOperation(greet, endpoint)).andReturn(operation).anyTimes();
+        Client client = EasyMock.createMock(Client.class);
+        EasyMock.expect(client.getEndpoint()).andReturn(endpoint).anyTimes();
+        Capture<ClientCallback> callbacks = EasyMock.newCapture(CaptureType.ALL);
+        client.invoke(EasyMock.capture(callbacks), EasyMock.same(operation), EasyMock.eq("Bob"));
+        EasyMock.expectLastCall().times(2);
+        EasyMock.replay(operation, endpoint, cxfService, dispatcher, client);
+
+        // the client invokes the service, no thread is waiting for the response
+        ServiceInvocationHandler sih = new ServiceInvocationHandler(service, AsyncGreeter.class, client, null);
+        Method m = AsyncGreeter.class.getMethod("greetAsync", String.class);
+        Future<?> future = (Future<?>) sih.invoke(null, m, new Object[] {"Bob"});
+        assertFalse(future.isDone());
+        callbacks.getValues().get(0).handleResponse(Collections.<String, Object>emptyMap(),
+                                                    new Object[] {"Hello Bob"});
+        assertTrue(future.isDone());
+        assertEquals("Hello Bob", future.get());
+
+        future = (Future<?>) sih.invoke(null, m, new Object[] {"Bob"});
+        callbacks.getValues().get(1).handleException(Collections.<String, Object>emptyMap(),
+                                                     new IllegalStateException("undeclared"));
+        try {
+            future.get();
+            fail("should have thrown an ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ServiceException);
+            assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+        }
+        EasyMock.verify(service, client);
+    }
+
+    public interface AsyncGreeter {
+        String greet(String name);
+
+        Future<String> greetAsync(String name);
+    }
 }
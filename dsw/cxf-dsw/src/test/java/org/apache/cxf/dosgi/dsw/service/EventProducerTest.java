@@ -19,11 +19,14 @@
 package org.apache.cxf.dosgi.dsw.service;
 
 import java.io.Closeable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.easymock.EasyMock;
 import org.easymock.IAnswer;
@@ -39,9 +42,16 @@ import org.osgi.service.remoteserviceadmin.EndpointDescription;
 import org.osgi.service.remoteserviceadmin.ExportReference;
 import org.osgi.service.remoteserviceadmin.ExportRegistration;
 import org.osgi.service.remoteserviceadmin.RemoteServiceAdminEvent;
+import org.osgi.service.remoteserviceadmin.RemoteServiceAdminListener;
 
 public class EventProducerTest {
 
+    private static final Executor SYNC_EXECUTOR = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
     @Test
     public void testPublishNotification() throws Exception {
         RemoteServiceAdminCore remoteServiceAdminCore = EasyMock.createNiceMock(RemoteServiceAdminCore.class);
@@ -112,11 +122,12 @@ public class EventProducerTest {
             .andReturn(new ServiceReference[] {eaSref}).anyTimes();
         EasyMock.expect(bc.getService(eaSref)).andReturn(ea).anyTimes();
         EasyMock.replay(bc);
-        EventProducer eventProducer = new EventProducer(bc);
+        EventProducer eventProducer = new EventProducer(bc, SYNC_EXECUTOR);
 
         ExportRegistrationImpl ereg = new ExportRegistrationImpl(sref, endpoint, remoteServiceAdminCore, 
                                                                  (Closeable)null);
         eventProducer.publishNotification(ereg);
+        EasyMock.verify(ea);
     }
 
     @Test
@@ -177,9 +188,153 @@ public class EventProducerTest {
             .andReturn(new ServiceReference[] {eaSref}).anyTimes();
         EasyMock.expect(bc.getService(eaSref)).andReturn(ea).anyTimes();
         EasyMock.replay(bc);
-        EventProducer eventProducer = new EventProducer(bc);
+        EventProducer eventProducer = new EventProducer(bc, SYNC_EXECUTOR);
 
         ExportRegistrationImpl ereg = new ExportRegistrationImpl(sref, endpoint, rsaCore, exportException);
         eventProducer.publishNotification(Arrays.<ExportRegistration>asList(ereg));
+        EasyMock.verify(ea);
+    }
+
+    @Test
+    public void testListenersAreNotifiedInOrderOnDispatcher() throws Exception {
+        RemoteServiceAdminCore rsaCore = EasyMock.createNiceMock(RemoteServiceAdminCore.class);
+        EasyMock.replay(rsaCore);
+        EndpointDescription endpoint = EasyMock.createNiceMock(EndpointDescription.class);
+        EasyMock.expect(endpoint.getInterfaces()).andReturn(Arrays.asList("org.foo.Bar")).anyTimes();
+        EasyMock.replay(endpoint);
+        ServiceReference sref = EasyMock.createNiceMock(ServiceReference.class);
+        EasyMock.replay(sref);
+
+        Bundle bundle = EasyMock.createNiceMock(Bundle.class);
+        EasyMock.expect(bundle.getHeaders()).andReturn(new Hashtable<String, String>()).anyTimes();
+        EasyMock.replay(bundle);
+
+        final List<RemoteServiceAdminEvent> received = new ArrayList<RemoteServiceAdminEvent>();
+        RemoteServiceAdminListener listener = new RemoteServiceAdminListener() {
+            public void remoteAdminEvent(RemoteServiceAdminEvent event) {
+                received.add(event);
+            }
+        };
+        ServiceReference listenerSref = EasyMock.createNiceMock(ServiceReference.class);
+        EasyMock.expect(listenerSref.getBundle()).andReturn(bundle).anyTimes();
+        EasyMock.replay(listenerSref);
+
+        BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
+        EasyMock.expect(bc.getBundle()).andReturn(bundle).anyTimes();
+        EasyMock.expect(bc.getServiceReferences((String) EasyMock.isNull(), (String) EasyMock.anyObject()))
+            .andReturn(new ServiceReference[] {listenerSref}).once();
+        EasyMock.expect(bc.getService(listenerSref)).andReturn(listener).once();
+        EasyMock.replay(bc);
+
+        // queue the events and run the dispatcher later
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        EventProducer eventProducer = new EventProducer(bc, new Executor() {
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+
+        ExportRegistrationImpl ereg1 = new ExportRegistrationImpl(sref, endpoint, rsaCore, (Closeable) null);
+        ExportRegistrationImpl ereg2 = new ExportRegistrationImpl(sref, endpoint, rsaCore, new Exception());
+        eventProducer.publishNotification(ereg1);
+        eventProducer.publishNotification(ereg2);
+        eventProducer.notifyRemoval(ereg1);
+        // the registration is closed before the event is delivered
+        ereg1.close();
+        Assert.assertEquals(0, received.size());
+        Assert.assertEquals("events must be dispatched by a single task", 1, tasks.size());
+
+        tasks.get(0).run();
+        Assert.assertEquals(3, received.size());
+        Assert.assertEquals(RemoteServiceAdminEvent.EXPORT_REGISTRATION, received.get(0).getType());
+        Assert.assertEquals(RemoteServiceAdminEvent.EXPORT_ERROR, received.get(1).getType());
+        Assert.assertEquals(RemoteServiceAdminEvent.EXPORT_UNREGISTRATION, received.get(2).getType());
+        Assert.assertSame(endpoint, received.get(2).getExportReference().getExportedEndpoint());
+        Assert.assertSame(sref, received.get(2).getExportReference().getExportedService());
+
+        eventProducer.publishNotification(ereg2);
+        Assert.assertEquals(2, tasks.size());
+        EasyMock.verify(bc);
+    }
+
+    @Test
+    public void testEventsAreNotDroppedWhenQueueIsFull() throws Exception {
+        final List<RemoteServiceAdminEvent> received = new ArrayList<RemoteServiceAdminEvent>();
+        final AtomicReference<EventProducer> producerRef = new AtomicReference<EventProducer>();
+        final ExportRegistrationImpl ereg = createExportRegistration();
+        RemoteServiceAdminListener listener = new RemoteServiceAdminListener() {
+            public void remoteAdminEvent(RemoteServiceAdminEvent event) {
+                if (received.isEmpty()) {
+                    // more events than there is room for after the first batch
+                    for (int i = 0; i <= EventProducer.MAX_BATCH_SIZE; i++) {
+                        producerRef.get().notifyRemoval(ereg);
+                    }
+                }
+                received.add(event);
+            }
+        };
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        final EventProducer eventProducer = new EventProducer(createListenerContext(listener), new Executor() {
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        producerRef.set(eventProducer);
+        for (int i = 0; i < EventProducer.QUEUE_CAPACITY; i++) {
+            eventProducer.publishNotification(ereg);
+        }
+
+        // a publisher waits for the dispatcher rather than dropping the event
+        Thread publisher = new Thread() {
+            public void run() {
+                eventProducer.publishNotification(ereg);
+            }
+        };
+        publisher.start();
+        publisher.join(100);
+        Assert.assertTrue("publisher must wait while the queue is full", publisher.isAlive());
+
+        tasks.get(0).run();
+        publisher.join(10000);
+        Assert.assertFalse(publisher.isAlive());
+        if (tasks.size() > 1) {
+            tasks.get(1).run(); // the publisher queued its event after the dispatcher was done
+        }
+        int events = EventProducer.QUEUE_CAPACITY + 1 + EventProducer.MAX_BATCH_SIZE + 1;
+        Assert.assertEquals(events, received.size());
+        int removals = 0;
+        for (RemoteServiceAdminEvent event : received) {
+            if (event.getType() == RemoteServiceAdminEvent.EXPORT_UNREGISTRATION) {
+                removals++;
+            }
+        }
+        Assert.assertEquals(EventProducer.MAX_BATCH_SIZE + 1, removals);
+    }
+
+    private static ExportRegistrationImpl createExportRegistration() {
+        RemoteServiceAdminCore rsaCore = EasyMock.createNiceMock(RemoteServiceAdminCore.class);
+        EasyMock.replay(rsaCore);
+        EndpointDescription endpoint = EasyMock.createNiceMock(EndpointDescription.class);
+        EasyMock.expect(endpoint.getInterfaces()).andReturn(Arrays.asList("org.foo.Bar")).anyTimes();
+        EasyMock.replay(endpoint);
+        ServiceReference sref = EasyMock.createNiceMock(ServiceReference.class);
+        EasyMock.replay(sref);
+        return new ExportRegistrationImpl(sref, endpoint, rsaCore, (Closeable) null);
+    }
+
+    private static BundleContext createListenerContext(RemoteServiceAdminListener listener) throws Exception {
+        Bundle bundle = EasyMock.createNiceMock(Bundle.class);
+        EasyMock.expect(bundle.getHeaders()).andReturn(new Hashtable<String, String>()).anyTimes();
+        EasyMock.replay(bundle);
+        ServiceReference listenerSref = EasyMock.createNiceMock(ServiceReference.class);
+        EasyMock.expect(listenerSref.getBundle()).andReturn(bundle).anyTimes();
+        EasyMock.replay(listenerSref);
+        BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
+        EasyMock.expect(bc.getBundle()).andReturn(bundle).anyTimes();
+        EasyMock.expect(bc.getServiceReferences((String) EasyMock.isNull(), (String) EasyMock.anyObject()))
+            .andReturn(new ServiceReference[] {listenerSref}).once();
+        EasyMock.expect(bc.getService(listenerSref)).andReturn(listener).once();
+        EasyMock.replay(bc);
+        return bc;
     }
 }
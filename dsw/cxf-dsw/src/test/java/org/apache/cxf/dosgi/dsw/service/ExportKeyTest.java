@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.dosgi.dsw.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.osgi.framework.Constants;
+import org.osgi.service.remoteserviceadmin.RemoteConstants;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ExportKeyTest {
+
+    @Test
+    public void testLogicallyEqualPropertiesAreEqual() {
+        Map<String, Object> p1 = new HashMap<String, Object>();
+        p1.put(Constants.OBJECTCLASS, new String[] {"a.A", "b.B"});
+        p1.put(RemoteConstants.SERVICE_EXPORTED_INTERFACES, "a.A, b.B");
+        p1.put("Some.Property", new int[] {1, 2});
+        p1.put(".private", "x");
+
+        Map<String, Object> p2 = new HashMap<String, Object>();
+        p2.put(Constants.OBJECTCLASS, new String[] {"a.A", "b.B"});
+        p2.put(RemoteConstants.SERVICE_EXPORTED_INTERFACES, new String[] {"b.B", "a.A"});
+        p2.put("some.property", new int[] {1, 2});
+
+        ExportKey k1 = new ExportKey(p1);
+        ExportKey k2 = new ExportKey(p2);
+        assertEquals(k1, k2);
+        assertEquals(k1.hashCode(), k2.hashCode());
+    }
+
+    @Test
+    public void testDifferentPropertiesAreNotEqual() {
+        Map<String, Object> p1 = new HashMap<String, Object>();
+        p1.put(Constants.OBJECTCLASS, new String[] {"a.A", "b.B"});
+        Map<String, Object> p2 = new HashMap<String, Object>();
+        p2.put(Constants.OBJECTCLASS, new String[] {"b.B", "a.A"});
+
+        // the order of non String+ array values is significant
+        assertFalse(new ExportKey(p1).equals(new ExportKey(p2)));
+    }
+}
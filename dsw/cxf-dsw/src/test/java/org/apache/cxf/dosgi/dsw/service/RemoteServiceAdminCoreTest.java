@@ -20,13 +20,17 @@ package org.apache.cxf.dosgi.dsw.service;
 
 import java.io.Closeable;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.cxf.dosgi.dsw.api.ConfigurationTypeHandler;
 import org.apache.cxf.dosgi.dsw.api.ExportResult;
@@ -71,6 +75,8 @@ public class RemoteServiceAdminCoreTest {
         EasyMock.expectLastCall().anyTimes();
         bc.removeServiceListener(EasyMock.<ServiceListener>anyObject());
         EasyMock.expectLastCall().anyTimes();
+        EasyMock.expect(bc.getServiceReferences(EasyMock.<String>isNull(),
+                                                EasyMock.<String>anyObject())).andReturn(null).anyTimes();
 
         Dictionary<String, String> d = new Hashtable<String, String>();
         EasyMock.expect(b.getHeaders()).andReturn(d).anyTimes();
@@ -337,6 +343,252 @@ public class RemoteServiceAdminCoreTest {
         assertEquals("No more exported services", 0, exportedServices.size());
     }
 
+    @Test
+    public void testConcurrentExportJoinsExportInProgress() throws Exception {
+        BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
+        Bundle b = createDummyRsaBundle(bc);
+
+        final Map<String, Object> sProps = new HashMap<String, Object>();
+        sProps.put("objectClass", new String[] {"java.lang.Runnable"});
+        sProps.put("service.id", 51L);
+        sProps.put("service.exported.interfaces", "*");
+        final ServiceReference sref = mockServiceReference(sProps);
+
+        Runnable svcObject = EasyMock.createNiceMock(Runnable.class);
+        EasyMock.replay(svcObject);
+        EasyMock.expect(bc.getService(sref)).andReturn(svcObject).anyTimes();
+        EasyMock.expect(bc.getBundle()).andReturn(b).anyTimes();
+        EasyMock.replay(bc);
+
+        Map<String, Object> eProps = new HashMap<String, Object>(sProps);
+        eProps.put("endpoint.id", "http://something");
+        eProps.put("service.imported.configs", new String[] {"org.apache.cxf.ws"});
+        final ExportResult er = new ExportResult(eProps, (Closeable) null);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        IAnswer<ExportResult> slowExport = new IAnswer<ExportResult>() {
+            public ExportResult answer() throws Throwable {
+                started.countDown();
+                release.await();
+                return er;
+            }
+        };
+        ConfigurationTypeHandler handler = EasyMock.createNiceMock(ConfigurationTypeHandler.class);
+        EasyMock.expect(handler.createServer(sref, bc, sref.getBundle().getBundleContext(),
+                                             sProps, Runnable.class, svcObject)).andAnswer(slowExport).once();
+        EasyMock.replay(handler);
+
+        ConfigTypeHandlerFinder handlerFactory = EasyMock.createNiceMock(ConfigTypeHandlerFactory.class);
+        EasyMock.expect(handlerFactory.getHandler(bc, sProps)).andReturn(handler).once();
+        EasyMock.replay(handlerFactory);
+        final RemoteServiceAdminCore rsaCore = new RemoteServiceAdminCore(bc, handlerFactory);
+
+        final List<List<ExportRegistration>> results
+            = Collections.synchronizedList(new ArrayList<List<ExportRegistration>>());
+        Runnable exporter = new Runnable() {
+            public void run() {
+                results.add(rsaCore.exportService(sref, null));
+            }
+        };
+        Thread t1 = new Thread(exporter);
+        t1.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Thread t2 = new Thread(exporter);
+        t2.start();
+        Thread.sleep(100);
+        release.countDown();
+        t1.join(10000);
+        t2.join(10000);
+
+        assertEquals(2, results.size());
+        assertEquals(1, results.get(0).size());
+        assertEquals(1, results.get(1).size());
+        assertEquals(2, rsaCore.getExportedServices().size());
+        EasyMock.verify(handler, handlerFactory);
+    }
+
+    @Test
+    public void testConcurrentExportRetriesFailedExportInProgress() throws Exception {
+        final BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
+        Bundle b = createDummyRsaBundle(bc);
+
+        final Map<String, Object> sProps = new HashMap<String, Object>();
+        sProps.put("objectClass", new String[] {"java.lang.Runnable"});
+        sProps.put("service.id", 52L);
+        sProps.put("service.exported.interfaces", "*");
+        final ServiceReference sref = mockServiceReference(sProps);
+
+        Runnable svcObject = EasyMock.createNiceMock(Runnable.class);
+        EasyMock.replay(svcObject);
+        EasyMock.expect(bc.getService(sref)).andReturn(svcObject).anyTimes();
+        EasyMock.expect(bc.getBundle()).andReturn(b).anyTimes();
+        EasyMock.replay(bc);
+
+        Map<String, Object> eProps = new HashMap<String, Object>(sProps);
+        eProps.put("endpoint.id", "http://something");
+        eProps.put("service.imported.configs", new String[] {"org.apache.cxf.ws"});
+        ConfigurationTypeHandler handler = EasyMock.createNiceMock(ConfigurationTypeHandler.class);
+        EasyMock.expect(handler.createServer(sref, bc, sref.getBundle().getBundleContext(),
+                                             sProps, Runnable.class, svcObject))
+            .andReturn(new ExportResult(eProps, (Closeable) null)).once();
+        EasyMock.replay(handler);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        IAnswer<ConfigurationTypeHandler> slowFailure = new IAnswer<ConfigurationTypeHandler>() {
+            public ConfigurationTypeHandler answer() throws Throwable {
+                started.countDown();
+                release.await();
+                throw new RuntimeException("no handler yet");
+            }
+        };
+        ConfigTypeHandlerFinder handlerFactory = EasyMock.createNiceMock(ConfigTypeHandlerFactory.class);
+        EasyMock.expect(handlerFactory.getHandler(bc, sProps)).andAnswer(slowFailure).once();
+        EasyMock.expect(handlerFactory.getHandler(bc, sProps)).andReturn(handler).once();
+        EasyMock.replay(handlerFactory);
+        final RemoteServiceAdminCore rsaCore = new RemoteServiceAdminCore(bc, handlerFactory);
+
+        final List<ExportRegistration> failed = new ArrayList<ExportRegistration>();
+        Thread t1 = new Thread(new Runnable() {
+            public void run() {
+                failed.addAll(rsaCore.exportService(sref, null));
+            }
+        });
+        t1.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        final List<ExportRegistration> joined = new ArrayList<ExportRegistration>();
+        Thread t2 = new Thread(new Runnable() {
+            public void run() {
+                joined.addAll(rsaCore.exportService(sref, null));
+            }
+        });
+        t2.start();
+        Thread.sleep(100);
+        release.countDown();
+        t1.join(10000);
+        t2.join(10000);
+
+        assertEquals(0, failed.size());
+        assertEquals("the waiting export must retry the failed one", 1, joined.size());
+        assertEquals(1, rsaCore.getExportedServices().size());
+        EasyMock.verify(handler, handlerFactory);
+    }
+
+    @Test
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void testExportServices() throws Exception {
+        BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
+        Bundle b = createDummyRsaBundle(bc);
+        EasyMock.expect(bc.getBundle()).andReturn(b).anyTimes();
+
+        List<ServiceReference<?>> srefs = new ArrayList<ServiceReference<?>>();
+        Runnable svcObject = EasyMock.createNiceMock(Runnable.class);
+        EasyMock.replay(svcObject);
+        for (long id = 1; id <= 3; id++) {
+            Map<String, Object> sProps = new HashMap<String, Object>();
+            sProps.put("objectClass", new String[] {"java.lang.Runnable"});
+            sProps.put("service.id", id);
+            if (id < 3) {
+                sProps.put("service.exported.interfaces", "*");
+            }
+            ServiceReference sref = mockServiceReference(sProps);
+            EasyMock.expect(bc.getService(sref)).andReturn(svcObject).anyTimes();
+            srefs.add(sref);
+        }
+        EasyMock.replay(bc);
+
+        IAnswer<ExportResult> export = new IAnswer<ExportResult>() {
+            public ExportResult answer() throws Throwable {
+                Map<String, Object> eProps
+                    = new HashMap<String, Object>((Map<String, Object>) EasyMock.getCurrentArguments()[3]);
+                eProps.put("endpoint.id", "http://something/" + eProps.get("service.id"));
+                eProps.put("service.imported.configs", new String[] {"org.apache.cxf.ws"});
+                return new ExportResult(eProps, (Closeable) null);
+            }
+        };
+        ConfigurationTypeHandler handler = EasyMock.createNiceMock(ConfigurationTypeHandler.class);
+        EasyMock.expect(handler.createServer((ServiceReference) EasyMock.anyObject(), EasyMock.eq(bc),
+                                             (BundleContext) EasyMock.anyObject(), (Map) EasyMock.anyObject(),
+                                             EasyMock.eq(Runnable.class), EasyMock.same(svcObject)))
+            .andAnswer(export).times(2);
+        EasyMock.replay(handler);
+
+        ConfigTypeHandlerFinder handlerFactory = EasyMock.createNiceMock(ConfigTypeHandlerFactory.class);
+        EasyMock.expect(handlerFactory.getHandler(EasyMock.eq(bc), (Map) EasyMock.anyObject()))
+            .andReturn(handler).anyTimes();
+        EasyMock.replay(handlerFactory);
+        RemoteServiceAdminCore rsaCore = new RemoteServiceAdminCore(bc, handlerFactory);
+
+        Map<ServiceReference<?>, List<ExportRegistration>> result = rsaCore.exportServices(srefs, null);
+        assertEquals(srefs, new ArrayList<ServiceReference<?>>(result.keySet()));
+        assertEquals(1, result.get(srefs.get(0)).size());
+        assertEquals(1, result.get(srefs.get(1)).size());
+        assertEquals("service without exported interfaces must not be exported",
+                     0, result.get(srefs.get(2)).size());
+        assertEquals(2, rsaCore.getExportedServices().size());
+        EasyMock.verify(handler);
+    }
+
+    @Test
+    public void testConcurrentImportJoinsImportInProgress() throws Exception {
+        BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
+        Bundle b = createDummyRsaBundle(bc);
+        EasyMock.expect(bc.getBundle()).andReturn(b).anyTimes();
+        EasyMock.replay(bc);
+
+        Map<String, Object> p = new HashMap<String, Object>();
+        p.put(RemoteConstants.ENDPOINT_ID, "http://google.de");
+        p.put(Constants.OBJECTCLASS, new String[] {"es.schaaf.my.class"});
+        p.put(RemoteConstants.SERVICE_IMPORTED_CONFIGS, org.apache.cxf.dosgi.dsw.Constants.WS_CONFIG_TYPE);
+        final EndpointDescription endpoint = new EndpointDescription(p);
+
+        ConfigurationTypeHandler handler = EasyMock.createNiceMock(ConfigurationTypeHandler.class);
+        EasyMock.replay(handler);
+        ConfigTypeHandlerFinder handlerFactory = EasyMock.createNiceMock(ConfigTypeHandlerFactory.class);
+        EasyMock.expect(handlerFactory.getHandler(bc, endpoint)).andReturn(handler).once();
+        EasyMock.replay(handlerFactory);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RemoteServiceAdminCore rsaCore = new RemoteServiceAdminCore(bc, handlerFactory) {
+            @Override
+            protected void proxifyMatchingInterface(String interfaceName, ImportRegistrationImpl imReg,
+                                                    ConfigurationTypeHandler handler,
+                                                    BundleContext requestingContext) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        final List<ImportRegistration> results
+            = Collections.synchronizedList(new ArrayList<ImportRegistration>());
+        Runnable importer = new Runnable() {
+            public void run() {
+                results.add(rsaCore.importService(endpoint));
+            }
+        };
+        Thread t1 = new Thread(importer);
+        t1.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Thread t2 = new Thread(importer);
+        t2.start();
+        Thread.sleep(100);
+        release.countDown();
+        t1.join(10000);
+        t2.join(10000);
+
+        assertEquals(2, results.size());
+        assertNotNull(results.get(0));
+        assertNotNull(results.get(1));
+        assertEquals(2, rsaCore.getImportedEndpoints().size());
+        EasyMock.verify(handlerFactory);
+    }
+
     private ServiceReference mockServiceReference(final Map<String, Object> sProps) {
         BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
 
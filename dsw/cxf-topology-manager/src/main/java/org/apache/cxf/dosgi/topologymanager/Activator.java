@@ -18,32 +18,58 @@
  */
 package org.apache.cxf.dosgi.topologymanager;
 
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import org.apache.cxf.dosgi.topologymanager.exporter.EndpointListenerNotifier;
 import org.apache.cxf.dosgi.topologymanager.exporter.TopologyManagerExport;
+import org.apache.cxf.dosgi.topologymanager.importer.AggregatedImport;
+import org.apache.cxf.dosgi.topologymanager.importer.EndpointListenerManager;
+import org.apache.cxf.dosgi.topologymanager.importer.EndpointSelector;
+import org.apache.cxf.dosgi.topologymanager.importer.EndpointSelectors;
 import org.apache.cxf.dosgi.topologymanager.importer.TopologyManagerImport;
 import org.apache.cxf.dosgi.topologymanager.util.SimpleServiceTracker;
+import org.apache.cxf.dosgi.topologymanager.util.TopologyExecutor;
+import org.apache.cxf.dosgi.topologymanager.util.Utils;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
 import org.osgi.service.remoteserviceadmin.RemoteServiceAdmin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class Activator implements BundleActivator {
+public class Activator implements ManagedService, BundleActivator {
 
     private static final Logger LOG = LoggerFactory.getLogger(Activator.class);
+    private static final String CONFIG_SERVICE_PID = "cxf-dosgi-topology-manager";
 
     private TopologyManagerExport topologyManagerExport;
     private TopologyManagerImport topologyManagerImport;
     private SimpleServiceTracker<RemoteServiceAdmin> rsaTracker;
+    private TopologyExecutor executor;
+    private String frameworkUUID;
 
     public void start(BundleContext bc) throws Exception {
         LOG.debug("TopologyManager: start()");
+        frameworkUUID = Utils.getUUID(bc);
+        executor = new TopologyExecutor("TopologyManager");
         rsaTracker = new SimpleServiceTracker<RemoteServiceAdmin>(bc, RemoteServiceAdmin.class);
-        topologyManagerExport = new TopologyManagerExport(bc, rsaTracker);
-        topologyManagerImport = new TopologyManagerImport(bc, rsaTracker);
+        topologyManagerExport = new TopologyManagerExport(bc, rsaTracker, null, executor);
+        topologyManagerImport = new TopologyManagerImport(bc, rsaTracker, executor);
 
         rsaTracker.open();
         topologyManagerExport.start();
         topologyManagerImport.start();
+        registerManagedService(bc);
+    }
+
+    private void registerManagedService(BundleContext bc) {
+        Dictionary<String, String> props = new Hashtable<String, String>();
+        props.put(Constants.SERVICE_PID, CONFIG_SERVICE_PID);
+        // No need to store the registration. Will be unregistered in stop by framework
+        bc.registerService(ManagedService.class.getName(), this, props);
     }
 
     public void stop(BundleContext bc) throws Exception {
@@ -51,5 +77,26 @@ public class Activator implements BundleActivator {
         topologyManagerExport.stop();
         topologyManagerImport.stop();
         rsaTracker.close();
+        executor.shutdown();
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void updated(Dictionary config) throws ConfigurationException {
+        LOG.debug("TopologyManager configuration is updated with {}", config);
+        // config is null if it doesn't exist, is being deleted or has not yet been loaded,
+        // in which case we run with defaults
+        try {
+            EndpointSelector selector = EndpointSelectors.create(config, frameworkUUID);
+            AggregatedImport.Balancing balancing = AggregatedImport.Balancing.fromConfig(config);
+            long quietPeriod = EndpointListenerManager.getQuietPeriod(config);
+            long notificationWindow = EndpointListenerNotifier.getBatchWindow(config);
+            executor.configure(config);
+            topologyManagerExport.setNotificationWindow(notificationWindow);
+            topologyManagerImport.setScopeQuietPeriod(quietPeriod);
+            topologyManagerImport.setEndpointSelector(selector);
+            topologyManagerImport.setLoadBalancing(balancing);
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException(null, e.getMessage(), e);
+        }
     }
 }
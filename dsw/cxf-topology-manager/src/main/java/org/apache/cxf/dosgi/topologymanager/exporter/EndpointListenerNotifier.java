@@ -20,8 +20,22 @@ package org.apache.cxf.dosgi.topologymanager.exporter;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.cxf.dosgi.topologymanager.util.SimpleServiceTracker;
 import org.apache.cxf.dosgi.topologymanager.util.SimpleServiceTrackerListener;
@@ -38,17 +52,58 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Tracks EndpointListeners and allows to notify them of endpoints.
+ * <p>
+ * The endpoints added and removed within a batch window are delivered together,
+ * in the order in which they were added and removed, getting each listener only
+ * once per batch.
+ * <p>
+ * A new listener is notified of the endpoints that were already delivered to the
+ * other listeners, and then receives the same subsequent changes as they do, so it
+ * is neither notified twice of an endpoint nor of the removal of an endpoint it
+ * has not been notified of.
  */
 public class EndpointListenerNotifier {
 
+    public static final String BATCH_WINDOW = "export.notificationWindow";
+    public static final long DEFAULT_BATCH_WINDOW_MILLIS = 20;
+
     private static final String ENDPOINT_LISTENER_FILTER =
         "(&(" + Constants.OBJECTCLASS + "=" + EndpointListener.class.getName() + ")"
         + "(" + EndpointListener.ENDPOINT_LISTENER_SCOPE + "=*))";
+    /**
+     * Matches scopes that can only match endpoints with the given objectClass,
+     * i.e. an objectClass equality or a conjunction starting with one.
+     */
+    private static final Pattern REQUIRED_OBJECTCLASS_PATTERN =
+        Pattern.compile("\\((?:&\\()?" + Constants.OBJECTCLASS + "=([a-zA-Z_0-9.$]+)\\).*");
     private static final Logger LOG = LoggerFactory.getLogger(EndpointListenerNotifier.class);
     private BundleContext bctx;
     private SimpleServiceTracker<EndpointListener> endpointListenerTracker;
+    private volatile long batchWindowMillis = DEFAULT_BATCH_WINDOW_MILLIS;
+
+    /**
+     * The changes that have not been delivered yet, in the order in which they were made.
+     */
+    private final List<Change> pendingChanges = new ArrayList<Change>();
+    private final Object deliveryLock = new Object();
 
-    public EndpointListenerNotifier(BundleContext bctx, final EndpointRepository endpointRepository) {
+    /**
+     * The endpoints the listeners have been notified of, guarded by deliveryLock.
+     */
+    private final Map<EndpointDescription, EndpointView> deliveredEndpoints
+        = new LinkedHashMap<EndpointDescription, EndpointView>();
+
+    // the following are guarded by pendingChanges
+    private ScheduledExecutorService scheduler;
+    private boolean deliveryScheduled;
+
+    /**
+     * The compiled scope of each tracked EndpointListener.
+     */
+    private final ConcurrentMap<ServiceReference, ListenerScope> listenerScopes
+        = new ConcurrentHashMap<ServiceReference, ListenerScope>();
+
+    public EndpointListenerNotifier(BundleContext bctx) {
         this.bctx = bctx;
         Filter filter;
         try {
@@ -61,29 +116,115 @@ public class EndpointListenerNotifier {
             @Override
             public void added(ServiceReference<EndpointListener> reference, EndpointListener service) {
                 LOG.debug("new EndpointListener detected");
-                notifyListener(true, reference, endpointRepository.getAllEndpoints());
+                listenerAdded(reference);
             }
 
             @Override
             public void modified(ServiceReference<EndpointListener> reference, EndpointListener service) {
                 LOG.debug("EndpointListener modified");
-                notifyListener(true, reference, endpointRepository.getAllEndpoints());
+                listenerModified(reference);
             }
 
             @Override
             public void removed(ServiceReference<EndpointListener> reference, EndpointListener service) {
+                listenerScopes.remove(reference);
             }
         });
     }
 
+    /**
+     * Returns the batch window in the given configuration.
+     *
+     * @param config the configuration, or null
+     * @return the configured batch window in milliseconds, or the default
+     * @throws IllegalArgumentException if the configured batch window is invalid
+     */
+    public static long getBatchWindow(Dictionary<String, ?> config) {
+        return Utils.getMillis(config, BATCH_WINDOW, DEFAULT_BATCH_WINDOW_MILLIS);
+    }
+
+    /**
+     * Sets the time during which added and removed endpoints are collected
+     * before the listeners are notified of them.
+     *
+     * @param millis the batch window in milliseconds, or 0 to notify the listeners immediately
+     */
+    public void setBatchWindow(long millis) {
+        batchWindowMillis = millis;
+    }
+
     public void start() {
+        synchronized (pendingChanges) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "EndpointListenerNotifier");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
         endpointListenerTracker.open();
     }
 
     public void stop() {
+        synchronized (pendingChanges) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+        deliverPendingChanges();
         endpointListenerTracker.close();
     }
 
+    /**
+     * Compiles the scope of a new endpoint listener and notifies it of the delivered
+     * endpoints in its scope. Pending changes are delivered to it later along with the
+     * other listeners.
+     *
+     * @param endpointListenerRef the ServiceReference of the new EndpointListener
+     */
+    void listenerAdded(ServiceReference endpointListenerRef) {
+        synchronized (deliveryLock) {
+            ListenerScope scope = createScope(endpointListenerRef);
+            listenerScopes.put(endpointListenerRef, scope);
+            notifyListener(true, endpointListenerRef, scope, getDeliveredEndpoints());
+        }
+    }
+
+    /**
+     * Recompiles the scope of a modified endpoint listener and notifies it of the changes
+     * only: endpoints matching scope filters that were removed are removed, and endpoints
+     * matching scope filters that were added are added. Endpoints matching unchanged
+     * filters are not notified again.
+     *
+     * @param endpointListenerRef the ServiceReference of the modified EndpointListener
+     */
+    void listenerModified(ServiceReference endpointListenerRef) {
+        synchronized (deliveryLock) {
+            ListenerScope scope = createScope(endpointListenerRef);
+            ListenerScope oldScope = listenerScopes.put(endpointListenerRef, scope);
+            if (oldScope == null) {
+                notifyListener(true, endpointListenerRef, scope, getDeliveredEndpoints());
+                return;
+            }
+            ListenerScope removedScope = oldScope.without(scope);
+            ListenerScope addedScope = scope.without(oldScope);
+            if (removedScope.isEmpty() && addedScope.isEmpty()) {
+                LOG.debug("scope of EndpointListener is unchanged");
+                return;
+            }
+            List<EndpointView> views = getDeliveredEndpoints();
+            notifyListener(false, endpointListenerRef, removedScope, views);
+            notifyListener(true, endpointListenerRef, addedScope, views);
+        }
+    }
+
+    // must be called while holding the deliveryLock
+    private List<EndpointView> getDeliveredEndpoints() {
+        return new ArrayList<EndpointView>(deliveredEndpoints.values());
+    }
+
     /**
      * Notifies all endpoint listeners about endpoints being added or removed.
      *
@@ -94,8 +235,68 @@ public class EndpointListenerNotifier {
         if (endpoints.isEmpty()) { // a little optimization to prevent unnecessary processing
             return;
         }
-        for (ServiceReference eplReference : endpointListenerTracker.getAllServiceReferences()) {
-            notifyListener(added, eplReference, endpoints);
+        long window = batchWindowMillis;
+        synchronized (pendingChanges) {
+            pendingChanges.add(new Change(added, endpoints));
+            if (window > 0 && scheduler != null) {
+                if (!deliveryScheduled) {
+                    deliveryScheduled = true;
+                    scheduler.schedule(new Runnable() {
+                        public void run() {
+                            deliverPendingChanges();
+                        }
+                    }, window, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+        }
+        deliverPendingChanges();
+    }
+
+    /**
+     * Notifies all endpoint listeners of the pending changes. The deliveries are
+     * serialized so that the listeners receive the changes in order. Only listeners
+     * that were already notified of the delivered endpoints are notified of changes.
+     */
+    void deliverPendingChanges() {
+        synchronized (deliveryLock) {
+            List<Change> changes;
+            synchronized (pendingChanges) {
+                deliveryScheduled = false;
+                if (pendingChanges.isEmpty()) {
+                    return;
+                }
+                changes = new ArrayList<Change>(pendingChanges);
+                pendingChanges.clear();
+            }
+            LOG.debug("delivering {} endpoint changes", changes.size());
+            for (Change change : changes) {
+                for (EndpointView view : change.endpoints) {
+                    if (change.added) {
+                        deliveredEndpoints.put(view.endpoint, view);
+                    } else {
+                        deliveredEndpoints.remove(view.endpoint);
+                    }
+                }
+            }
+            for (Map.Entry<ServiceReference, ListenerScope> entry : listenerScopes.entrySet()) {
+                ServiceReference eplReference = entry.getKey();
+                ListenerScope scope = entry.getValue();
+                if (scope.isEmpty()) {
+                    continue;
+                }
+                EndpointListener endpointListener = (EndpointListener)bctx.getService(eplReference);
+                if (endpointListener == null) {
+                    continue;
+                }
+                try {
+                    for (Change change : changes) {
+                        notifyListener(change.added, endpointListener, scope, change.endpoints);
+                    }
+                } finally {
+                    bctx.ungetService(eplReference);
+                }
+            }
         }
     }
 
@@ -108,23 +309,36 @@ public class EndpointListenerNotifier {
      */
     void notifyListener(boolean added, ServiceReference endpointListenerRef,
                                 Collection<EndpointDescription> endpoints) {
-        List<Filter> filters = getFiltersFromEndpointListenerScope(endpointListenerRef, bctx);
+        notifyListener(added, endpointListenerRef, getScope(endpointListenerRef), createViews(endpoints));
+    }
+
+    private void notifyListener(boolean added, ServiceReference endpointListenerRef, ListenerScope scope,
+                                List<EndpointView> endpoints) {
+        if (scope.isEmpty() || endpoints.isEmpty()) {
+            return;
+        }
         EndpointListener endpointListener = (EndpointListener)bctx.getService(endpointListenerRef);
+        if (endpointListener == null) {
+            return; // unregistered in the meantime
+        }
         try {
-            LOG.debug("notifyListener (added={})", added);
-            for (EndpointDescription endpoint : endpoints) {
-                List<Filter> matchingFilters = getMatchingFilters(filters, endpoint);
-                for (Filter filter : matchingFilters) {
-                    if (added) {
-                        endpointListener.endpointAdded(endpoint, filter.toString());
-                    } else {
-                        endpointListener.endpointRemoved(endpoint, filter.toString());
-                    }
-                }
-            }
+            notifyListener(added, endpointListener, scope, endpoints);
         } finally {
-            if (endpointListener != null) {
-                bctx.ungetService(endpointListenerRef);
+            bctx.ungetService(endpointListenerRef);
+        }
+    }
+
+    private static void notifyListener(boolean added, EndpointListener endpointListener, ListenerScope scope,
+                                       List<EndpointView> endpoints) {
+        LOG.debug("notifyListener (added={})", added);
+        for (EndpointView view : endpoints) {
+            List<Filter> matchingFilters = scope.getMatchingFilters(view);
+            for (Filter filter : matchingFilters) {
+                if (added) {
+                    endpointListener.endpointAdded(view.endpoint, filter.toString());
+                } else {
+                    endpointListener.endpointRemoved(view.endpoint, filter.toString());
+                }
             }
         }
     }
@@ -142,18 +356,126 @@ public class EndpointListenerNotifier {
         return filters;
     }
 
-    private static List<Filter> getMatchingFilters(List<Filter> filters, EndpointDescription endpoint) {
-        List<Filter> matchingFilters = new ArrayList<Filter>();
-        Dictionary<String, Object> dict = Utils.getEndpointProperties(endpoint);
+    private ListenerScope getScope(ServiceReference sref) {
+        // the scopes of tracked listeners are compiled when they are added or modified
+        ListenerScope scope = listenerScopes.get(sref);
+        return scope != null ? scope : createScope(sref);
+    }
+
+    private ListenerScope createScope(ServiceReference sref) {
+        return new ListenerScope(getFiltersFromEndpointListenerScope(sref, bctx));
+    }
+
+    private static List<EndpointView> createViews(Collection<EndpointDescription> endpoints) {
+        List<EndpointView> views = new ArrayList<EndpointView>(endpoints.size());
+        for (EndpointDescription endpoint : endpoints) {
+            views.add(new EndpointView(endpoint));
+        }
+        return views;
+    }
+
+    /**
+     * Endpoints that were added or removed.
+     */
+    private static final class Change {
+        final boolean added;
+        final List<EndpointView> endpoints;
+
+        Change(boolean added, Collection<EndpointDescription> endpoints) {
+            this.added = added;
+            this.endpoints = createViews(endpoints);
+        }
+    }
+
+    /**
+     * An endpoint with the properties used for filter matching, which are created once
+     * and shared by all listeners being notified of the endpoint.
+     */
+    private static final class EndpointView {
+        final EndpointDescription endpoint;
+        final Dictionary<String, Object> properties;
+        final String[] objectClass;
+
+        EndpointView(EndpointDescription endpoint) {
+            this.endpoint = endpoint;
+            this.properties = Utils.getEndpointProperties(endpoint);
+            this.objectClass = Utils.getStringPlusProperty(properties.get(Constants.OBJECTCLASS));
+        }
+    }
+
+    /**
+     * The compiled filters of an EndpointListener scope. Filters that require a specific
+     * objectClass are indexed by it, so that only the filters that can possibly match
+     * an endpoint are evaluated.
+     */
+    private static final class ListenerScope {
+        private final List<Filter> filters;
+        private final Map<String, List<Filter>> filtersByObjectClass = new HashMap<String, List<Filter>>();
+        private final List<Filter> otherFilters = new ArrayList<Filter>();
+
+        ListenerScope(List<Filter> filters) {
+            this.filters = filters;
+            for (Filter filter : filters) {
+                Matcher matcher = REQUIRED_OBJECTCLASS_PATTERN.matcher(filter.toString());
+                if (matcher.matches()) {
+                    List<Filter> indexed = filtersByObjectClass.get(matcher.group(1));
+                    if (indexed == null) {
+                        indexed = new ArrayList<Filter>();
+                        filtersByObjectClass.put(matcher.group(1), indexed);
+                    }
+                    indexed.add(filter);
+                } else {
+                    otherFilters.add(filter);
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return filters.isEmpty();
+        }
+
+        /**
+         * Returns the scope containing the filters of this scope that are not in the given scope.
+         */
+        ListenerScope without(ListenerScope other) {
+            Set<String> otherScopeFilters = new HashSet<String>();
+            for (Filter filter : other.filters) {
+                otherScopeFilters.add(filter.toString());
+            }
+            List<Filter> remaining = new ArrayList<Filter>();
+            for (Filter filter : filters) {
+                if (!otherScopeFilters.contains(filter.toString())) {
+                    remaining.add(filter);
+                }
+            }
+            return new ListenerScope(remaining);
+        }
+
+        List<Filter> getMatchingFilters(EndpointView view) {
+            List<Filter> matchingFilters = Collections.emptyList();
+            for (String objectClass : view.objectClass) {
+                List<Filter> candidates = filtersByObjectClass.get(objectClass);
+                if (candidates != null) {
+                    matchingFilters = match(candidates, view, matchingFilters);
+                }
+            }
+            return match(otherFilters, view, matchingFilters);
+        }
 
-        for (Filter filter : filters) {
-            if (filter.match(dict)) {
-                LOG.debug("Filter {} matches endpoint {}", filter, dict);
-                matchingFilters.add(filter);
-            } else {
-                LOG.trace("Filter {} does not match endpoint {}", filter, dict);
+        private static List<Filter> match(List<Filter> filters, EndpointView view, List<Filter> matchingFilters) {
+            List<Filter> result = matchingFilters;
+            for (Filter filter : filters) {
+                if (filter.match(view.properties)) {
+                    LOG.debug("Filter {} matches endpoint {}", filter, view.properties);
+                    if (result.isEmpty()) {
+                        result = new ArrayList<Filter>();
+                    }
+                    result.add(filter);
+                } else {
+                    LOG.trace("Filter {} does not match endpoint {}", filter, view.properties);
+                }
             }
+            return result;
         }
-        return matchingFilters;
     }
 }
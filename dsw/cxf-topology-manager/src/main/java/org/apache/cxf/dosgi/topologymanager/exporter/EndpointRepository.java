@@ -19,16 +19,22 @@
 package org.apache.cxf.dosgi.topologymanager.exporter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.cxf.dosgi.topologymanager.util.Utils;
+import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.remoteserviceadmin.EndpointDescription;
+import org.osgi.service.remoteserviceadmin.RemoteConstants;
 import org.osgi.service.remoteserviceadmin.RemoteServiceAdmin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,13 +43,35 @@ import org.slf4j.LoggerFactory;
  * Holds all endpoints that are exported by a TopologyManager. For each ServiceReference that is exported a
  * map is maintained which contains information on the endpoints for each RemoteAdminService that created the
  * endpoints.
+ * <p>
+ * Modifications are serialized, while queries do not lock, as the maps are concurrent. The services
+ * exported by each RemoteServiceAdmin are indexed, so that removing a RemoteServiceAdmin only visits
+ * its own exports.
  */
 class EndpointRepository {
 
     private static final Logger LOG = LoggerFactory.getLogger(EndpointRepository.class);
 
-    private final Map<ServiceReference, Map<RemoteServiceAdmin, Collection<EndpointDescription>>> exportedServices
-        = new LinkedHashMap<ServiceReference, Map<RemoteServiceAdmin, Collection<EndpointDescription>>>();
+    /**
+     * The lower case names of the endpoint properties set by the RemoteServiceAdmin rather
+     * than copied from the service.
+     */
+    private static final Set<String> DERIVED_PROPERTIES = new HashSet<String>(Arrays.asList(
+        RemoteConstants.ENDPOINT_ID, RemoteConstants.ENDPOINT_SERVICE_ID, RemoteConstants.ENDPOINT_FRAMEWORK_UUID,
+        RemoteConstants.SERVICE_INTENTS, Constants.OBJECTCLASS.toLowerCase(), Constants.SERVICE_ID));
+    private static final String[] DERIVED_PROPERTY_PREFIXES = {
+        ".", "service.exported.", RemoteConstants.SERVICE_IMPORTED, RemoteConstants.ENDPOINT_PACKAGE_VERSION_
+    };
+
+    private final ConcurrentMap<ServiceReference, ConcurrentMap<RemoteServiceAdmin, Collection<EndpointDescription>>>
+        exportedServices
+        = new ConcurrentHashMap<ServiceReference, ConcurrentMap<RemoteServiceAdmin, Collection<EndpointDescription>>>();
+
+    /**
+     * The services with endpoints by the RemoteServiceAdmin that exported them, guarded by this.
+     */
+    private final Map<RemoteServiceAdmin, Set<ServiceReference>> servicesByRsa
+        = new HashMap<RemoteServiceAdmin, Set<ServiceReference>>();
 
     /**
      * Remove all services exported by the given rsa.
@@ -53,11 +81,14 @@ class EndpointRepository {
      */
     synchronized List<EndpointDescription> removeRemoteServiceAdmin(RemoteServiceAdmin rsa) {
         List<EndpointDescription> removedEndpoints = new ArrayList<EndpointDescription>();
-        for (Map<RemoteServiceAdmin, Collection<EndpointDescription>> exports : exportedServices.values()) {
-            Collection<EndpointDescription> endpoints = exports.get(rsa);
-            if (endpoints != null) {
-                removedEndpoints.addAll(endpoints);
-                exports.remove(rsa);
+        Set<ServiceReference> srefs = servicesByRsa.remove(rsa);
+        if (srefs != null) {
+            for (ServiceReference sref : srefs) {
+                Map<RemoteServiceAdmin, Collection<EndpointDescription>> exports = exportedServices.get(sref);
+                Collection<EndpointDescription> endpoints = exports == null ? null : exports.remove(rsa);
+                if (endpoints != null) {
+                    removedEndpoints.addAll(endpoints);
+                }
             }
         }
         return removedEndpoints;
@@ -65,12 +96,12 @@ class EndpointRepository {
 
     synchronized List<EndpointDescription> removeService(ServiceReference sref) {
         List<EndpointDescription> removedEndpoints = new ArrayList<EndpointDescription>();
-        Map<RemoteServiceAdmin, Collection<EndpointDescription>> rsas = exportedServices.get(sref);
+        Map<RemoteServiceAdmin, Collection<EndpointDescription>> rsas = exportedServices.remove(sref);
         if (rsas != null) {
-            for (Collection<EndpointDescription> endpoints : rsas.values()) {
-                removedEndpoints.addAll(endpoints);
+            for (Map.Entry<RemoteServiceAdmin, Collection<EndpointDescription>> entry : rsas.entrySet()) {
+                removedEndpoints.addAll(entry.getValue());
+                unindex(entry.getKey(), sref);
             }
-            exportedServices.remove(sref);
         }
         return removedEndpoints;
     }
@@ -78,7 +109,7 @@ class EndpointRepository {
     synchronized void addService(ServiceReference sref) {
         if (!exportedServices.containsKey(sref)) {
             LOG.info("Marking service from bundle {} for export", Utils.getBundleName(sref));
-            exportedServices.put(sref, new LinkedHashMap<RemoteServiceAdmin, Collection<EndpointDescription>>());
+            exportedServices.put(sref, new ConcurrentHashMap<RemoteServiceAdmin, Collection<EndpointDescription>>());
         }
     }
 
@@ -90,26 +121,92 @@ class EndpointRepository {
         addService(sref);
         Map<RemoteServiceAdmin, Collection<EndpointDescription>> exports = exportedServices.get(sref);
         exports.put(rsa, endpoints);
+        Set<ServiceReference> srefs = servicesByRsa.get(rsa);
+        if (srefs == null) {
+            srefs = new HashSet<ServiceReference>();
+            servicesByRsa.put(rsa, srefs);
+        }
+        srefs.add(sref);
+    }
+
+    boolean containsService(ServiceReference sref) {
+        return exportedServices.containsKey(sref);
     }
 
-    synchronized boolean isAlreadyExportedForRsa(ServiceReference sref, RemoteServiceAdmin rsa) {
+    /**
+     * Updates the endpoints of the given service with its current properties.
+     * Properties that are derived by the RemoteServiceAdmin, such as the endpoint id
+     * and the interfaces, are kept, and properties removed from the service are not
+     * removed from the endpoints.
+     *
+     * @param sref the modified service
+     * @return the endpoints whose properties changed, with their new properties
+     */
+    synchronized List<EndpointDescription> updateService(ServiceReference sref) {
+        List<EndpointDescription> updatedEndpoints = new ArrayList<EndpointDescription>();
         Map<RemoteServiceAdmin, Collection<EndpointDescription>> exports = exportedServices.get(sref);
-        return exports != null && exports.containsKey(rsa);
+        if (exports == null) {
+            return updatedEndpoints;
+        }
+        for (Map.Entry<RemoteServiceAdmin, Collection<EndpointDescription>> entry : exports.entrySet()) {
+            List<EndpointDescription> endpoints = new ArrayList<EndpointDescription>(entry.getValue().size());
+            boolean changed = false;
+            for (EndpointDescription endpoint : entry.getValue()) {
+                EndpointDescription updated = updateEndpoint(endpoint, sref);
+                endpoints.add(updated);
+                if (updated != endpoint) {
+                    updatedEndpoints.add(updated);
+                    changed = true;
+                }
+            }
+            if (changed) {
+                exports.put(entry.getKey(), endpoints);
+            }
+        }
+        return updatedEndpoints;
+    }
+
+    /**
+     * Returns the given endpoint with the current properties of its service.
+     *
+     * @return the updated endpoint, or the given endpoint if no property changed
+     */
+    static EndpointDescription updateEndpoint(EndpointDescription endpoint, ServiceReference sref) {
+        // endpoint property names are case insensitive
+        Map<String, Object> props = new TreeMap<String, Object>(String.CASE_INSENSITIVE_ORDER);
+        props.putAll(endpoint.getProperties());
+        boolean changed = false;
+        for (String key : sref.getPropertyKeys()) {
+            Object value = sref.getProperty(key);
+            if (isCopiedToEndpoint(key) && !Arrays.deepEquals(new Object[] {value}, new Object[] {props.get(key)})) {
+                props.put(key, value);
+                changed = true;
+            }
+        }
+        return changed ? new EndpointDescription(props) : endpoint;
     }
 
-    synchronized Collection<EndpointDescription> getAllEndpoints() {
-        List<EndpointDescription> allEndpoints = new ArrayList<EndpointDescription>();
-        for (Map<RemoteServiceAdmin, Collection<EndpointDescription>> exports : exportedServices.values()) {
-            for (Collection<EndpointDescription> endpoints : exports.values()) {
-                allEndpoints.addAll(endpoints);
+    private static boolean isCopiedToEndpoint(String key) {
+        String lowerKey = key.toLowerCase();
+        if (DERIVED_PROPERTIES.contains(lowerKey)) {
+            return false;
+        }
+        for (String prefix : DERIVED_PROPERTY_PREFIXES) {
+            if (lowerKey.startsWith(prefix)) {
+                return false;
             }
         }
-        return allEndpoints;
+        return true;
+    }
+
+    boolean isAlreadyExportedForRsa(ServiceReference sref, RemoteServiceAdmin rsa) {
+        Map<RemoteServiceAdmin, Collection<EndpointDescription>> exports = exportedServices.get(sref);
+        return exports != null && exports.containsKey(rsa);
     }
 
-    synchronized Set<ServiceReference> getServicesToBeExportedFor(RemoteServiceAdmin rsa) {
+    Set<ServiceReference> getServicesToBeExportedFor(RemoteServiceAdmin rsa) {
         Set<ServiceReference> servicesToBeExported = new HashSet<ServiceReference>();
-        for (Map.Entry<ServiceReference, Map<RemoteServiceAdmin, Collection<EndpointDescription>>> entry
+        for (Map.Entry<ServiceReference, ConcurrentMap<RemoteServiceAdmin, Collection<EndpointDescription>>> entry
                 : exportedServices.entrySet()) {
             if (!entry.getValue().containsKey(rsa)) {
                 servicesToBeExported.add(entry.getKey());
@@ -117,4 +214,12 @@ class EndpointRepository {
         }
         return servicesToBeExported;
     }
+
+    // must be called while holding the lock
+    private void unindex(RemoteServiceAdmin rsa, ServiceReference sref) {
+        Set<ServiceReference> srefs = servicesByRsa.get(rsa);
+        if (srefs != null && srefs.remove(sref) && srefs.isEmpty()) {
+            servicesByRsa.remove(rsa);
+        }
+    }
 }
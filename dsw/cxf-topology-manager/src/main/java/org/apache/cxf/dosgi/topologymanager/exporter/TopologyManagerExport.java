@@ -21,13 +21,10 @@ package org.apache.cxf.dosgi.topologymanager.exporter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.cxf.dosgi.topologymanager.util.SimpleServiceTracker;
 import org.apache.cxf.dosgi.topologymanager.util.SimpleServiceTrackerListener;
+import org.apache.cxf.dosgi.topologymanager.util.TopologyExecutor;
 import org.apache.cxf.dosgi.topologymanager.util.Utils;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.InvalidSyntaxException;
@@ -61,7 +58,8 @@ public class TopologyManagerExport {
 
     private final BundleContext bctx;
     private final EndpointListenerNotifier epListenerNotifier;
-    private final ExecutorService execService;
+    private final TopologyExecutor execService;
+    private final boolean ownsExecutor;
     private final SimpleServiceTracker<RemoteServiceAdmin> remoteServiceAdminTracker;
     private final ServiceListener serviceListener;
     private final EndpointRepository endpointRepo;
@@ -72,9 +70,24 @@ public class TopologyManagerExport {
 
     public TopologyManagerExport(BundleContext ctx, SimpleServiceTracker<RemoteServiceAdmin> rsaTracker,
                                  EndpointListenerNotifier notif) {
+        this(ctx, rsaTracker, notif, null);
+    }
+
+    /**
+     * Creates a TopologyManagerExport.
+     *
+     * @param ctx the bundle context
+     * @param rsaTracker the tracker of the RemoteServiceAdmins
+     * @param notif the notifier, or null to create one
+     * @param executor the executor running the exports, or null to create one
+     *        (a given executor is not shut down when this instance is stopped)
+     */
+    public TopologyManagerExport(BundleContext ctx, SimpleServiceTracker<RemoteServiceAdmin> rsaTracker,
+                                 EndpointListenerNotifier notif, TopologyExecutor executor) {
         endpointRepo = new EndpointRepository();
-        epListenerNotifier = notif == null ? new EndpointListenerNotifier(ctx, endpointRepo) : notif;
-        execService = new ThreadPoolExecutor(5, 10, 50, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        epListenerNotifier = notif == null ? new EndpointListenerNotifier(ctx) : notif;
+        ownsExecutor = executor == null;
+        execService = executor == null ? new TopologyExecutor("TopologyManagerExport") : executor;
         bctx = ctx;
         remoteServiceAdminTracker = rsaTracker;
 
@@ -111,6 +124,14 @@ public class TopologyManagerExport {
                     if (shouldExportService(sref)) {
                         triggerExport(sref);
                     }
+                } else if (event.getType() == ServiceEvent.MODIFIED) {
+                    LOG.debug("Received MODIFIED ServiceEvent: {}", event);
+                    if (endpointRepo.containsService(sref)) {
+                        // republish the endpoints with the changed properties
+                        epListenerNotifier.notifyListeners(true, endpointRepo.updateService(sref));
+                    } else if (shouldExportService(sref)) {
+                        triggerExport(sref);
+                    }
                 } else if (event.getType() == ServiceEvent.UNREGISTERING) {
                     LOG.debug("Received UNREGISTERING ServiceEvent: {}", event);
                     List<EndpointDescription> endpoints = endpointRepo.removeService(sref);
@@ -120,6 +141,16 @@ public class TopologyManagerExport {
         };
     }
 
+    /**
+     * Sets the time during which added and removed endpoints are collected
+     * before the EndpointListeners are notified of them.
+     *
+     * @param millis the batch window in milliseconds, or 0 to notify the listeners immediately
+     */
+    public void setNotificationWindow(long millis) {
+        epListenerNotifier.setBatchWindow(millis);
+    }
+
     /**
      * checks if a Service is intended to be exported
      */
@@ -134,7 +165,9 @@ public class TopologyManagerExport {
     }
 
     public void stop() {
-        execService.shutdown();
+        if (ownsExecutor) {
+            execService.shutdown();
+        }
         bctx.removeServiceListener(serviceListener);
         epListenerNotifier.stop();
     }
@@ -0,0 +1,410 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.dosgi.topologymanager.importer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+import org.osgi.service.remoteserviceadmin.ImportReference;
+import org.osgi.service.remoteserviceadmin.ImportRegistration;
+import org.osgi.service.remoteserviceadmin.RemoteConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single service that fronts all endpoints imported for an import interest.
+ * <p>
+ * Each invocation is dispatched to one of the imported services according to the
+ * balancing policy. If the endpoint cannot be reached (a remote ServiceException
+ * caused by a failure to connect), the endpoint is skipped for a while and the
+ * invocation is retried on the next endpoint. Other failures, such as timeouts,
+ * are not retried, since the invocation may already have been executed.
+ * <p>
+ * Only imported services implementing the same interface class are fronted; the
+ * services whose interface was loaded by a different class loader are ignored.
+ * <p>
+ * The aggregated service is registered with {@value #AGGREGATED_PROPERTY} set and a
+ * ranking of {@value #AGGREGATED_RANKING}, so that consumers looking up a single
+ * service get it rather than one of the imported services.
+ */
+public class AggregatedImport implements InvocationHandler {
+
+    public static final String LOAD_BALANCING = "import.loadBalancing";
+    public static final String AGGREGATED_PROPERTY = "org.apache.cxf.dosgi.aggregated";
+    public static final int AGGREGATED_RANKING = 100;
+
+    /**
+     * Endpoint property containing the relative weight of the endpoint for weighted balancing.
+     */
+    public static final String WEIGHT_PROPERTY = "endpoint.weight";
+
+    static final long FAILURE_BACKOFF_MILLIS = 5000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(AggregatedImport.class);
+
+    public enum Balancing {
+        ROUND_ROBIN("round-robin"),
+        WEIGHTED("weighted"),
+        LEAST_OUTSTANDING("least-outstanding");
+
+        private final String name;
+
+        Balancing(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Returns the balancing policy for the given configuration.
+         *
+         * @param config the configuration, or null
+         * @return the policy, or null if aggregated imports are not configured
+         * @throws IllegalArgumentException if the configured policy is unknown
+         */
+        public static Balancing fromConfig(Dictionary<String, ?> config) {
+            Object value = config == null ? null : config.get(LOAD_BALANCING);
+            if (value == null || "".equals(value) || "none".equals(value)) {
+                return null;
+            }
+            for (Balancing balancing : values()) {
+                if (balancing.name.equals(value)) {
+                    return balancing;
+                }
+            }
+            throw new IllegalArgumentException("unknown " + LOAD_BALANCING + ": " + value);
+        }
+    }
+
+    private final BundleContext bctx;
+    private final Balancing balancing;
+    private final AtomicInteger counter = new AtomicInteger();
+    private final Random random = new Random();
+
+    private volatile List<Target> targets = Collections.emptyList();
+    private List<Target> ignoredTargets = Collections.emptyList();
+    private ServiceRegistration<?> registration;
+    private Class<?> serviceClass;
+    private boolean closed;
+
+    public AggregatedImport(BundleContext bctx, Balancing balancing) {
+        this.bctx = bctx;
+        this.balancing = balancing;
+    }
+
+    /**
+     * Updates the endpoints fronted by this service. The service is registered
+     * when the first endpoint is available and unregistered when none is left.
+     *
+     * @param imports the current imports
+     */
+    public synchronized void update(List<ImportRegistration> imports) {
+        if (closed) {
+            return;
+        }
+        Map<ServiceReference<?>, Target> oldTargets = new HashMap<ServiceReference<?>, Target>();
+        for (Target target : targets) {
+            oldTargets.put(target.sref, target);
+        }
+        for (Target target : ignoredTargets) {
+            oldTargets.put(target.sref, target);
+        }
+        List<Target> newTargets = new ArrayList<Target>();
+        for (ImportRegistration ir : imports) {
+            ImportReference iref = ir.getImportReference();
+            ServiceReference<?> sref = iref == null ? null : iref.getImportedService();
+            if (sref == null) {
+                continue;
+            }
+            Target target = oldTargets.remove(sref);
+            if (target == null) {
+                target = createTarget(sref, iref.getImportedEndpoint());
+            }
+            if (target != null) {
+                newTargets.add(target);
+            }
+        }
+        for (Target removed : oldTargets.values()) {
+            release(removed);
+        }
+        Class<?> iClass = selectServiceClass(newTargets);
+        List<Target> compatible = new ArrayList<Target>();
+        List<Target> ignored = new ArrayList<Target>();
+        for (Target target : newTargets) {
+            if (target.iClass == iClass) {
+                compatible.add(target);
+            } else {
+                LOG.warn("not aggregating endpoint {}, its interface was loaded by a different class loader",
+                         target.endpoint.getId());
+                ignored.add(target);
+            }
+        }
+        targets = Collections.unmodifiableList(compatible);
+        ignoredTargets = ignored;
+        if (compatible.isEmpty()) {
+            unregister();
+        } else if (registration == null) {
+            register(iClass);
+        }
+    }
+
+    /**
+     * Selects the interface class of the aggregated service: the class of the registered
+     * service as long as a target implements it, or else the class of the first target,
+     * in which case the registered service is unregistered.
+     */
+    private Class<?> selectServiceClass(List<Target> newTargets) {
+        if (registration != null) {
+            for (Target target : newTargets) {
+                if (target.iClass == serviceClass) {
+                    return serviceClass;
+                }
+            }
+            unregister();
+        }
+        return newTargets.isEmpty() ? null : newTargets.get(0).iClass;
+    }
+
+    public synchronized void close() {
+        closed = true;
+        unregister();
+        for (Target target : targets) {
+            release(target);
+        }
+        for (Target target : ignoredTargets) {
+            release(target);
+        }
+        targets = Collections.emptyList();
+        ignoredTargets = Collections.emptyList();
+    }
+
+    private Target createTarget(ServiceReference<?> sref, EndpointDescription endpoint) {
+        Object service = bctx.getService(sref);
+        if (service == null) {
+            return null;
+        }
+        Class<?> iClass = findInterface(service.getClass(), endpoint.getInterfaces().get(0));
+        if (iClass == null) {
+            LOG.warn("imported service {} does not implement {}", service, endpoint.getInterfaces());
+            bctx.ungetService(sref);
+            return null;
+        }
+        return new Target(sref, service, iClass, endpoint, getWeight(endpoint));
+    }
+
+    private void release(Target target) {
+        try {
+            bctx.ungetService(target.sref);
+        } catch (IllegalStateException e) {
+            // the service or our context is already gone
+        }
+    }
+
+    private static Class<?> findInterface(Class<?> clazz, String name) {
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+            for (Class<?> iClass : c.getInterfaces()) {
+                if (iClass.getName().equals(name)) {
+                    return iClass;
+                }
+                Class<?> found = findInterface(iClass, name);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int getWeight(EndpointDescription endpoint) {
+        Object weight = endpoint.getProperties().get(WEIGHT_PROPERTY);
+        try {
+            int w = weight instanceof Number ? ((Number) weight).intValue()
+                : weight != null ? Integer.parseInt(weight.toString()) : 1;
+            return Math.max(w, 1);
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    private void register(Class<?> iClass) {
+        Object proxy = Proxy.newProxyInstance(iClass.getClassLoader(), new Class<?>[] {iClass}, this);
+        Dictionary<String, Object> props = new Hashtable<String, Object>();
+        props.put(RemoteConstants.SERVICE_IMPORTED, true);
+        props.put(AGGREGATED_PROPERTY, true);
+        props.put(Constants.SERVICE_RANKING, AGGREGATED_RANKING);
+        LOG.info("registering aggregated import of {} with {} balancing", iClass.getName(), balancing);
+        registration = bctx.registerService(iClass.getName(), proxy, props);
+        serviceClass = iClass;
+    }
+
+    private void unregister() {
+        if (registration != null) {
+            try {
+                registration.unregister();
+            } catch (IllegalStateException e) {
+                // already unregistered
+            }
+            registration = null;
+            serviceClass = null;
+        }
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            return invokeObjectMethod(proxy, method, args);
+        }
+        List<Target> candidates = targets;
+        if (candidates.isEmpty()) {
+            throw new ServiceException("no endpoint available", ServiceException.UNREGISTERED);
+        }
+        Throwable lastFailure = null;
+        List<Target> tried = new ArrayList<Target>(candidates.size());
+        while (tried.size() < candidates.size()) {
+            Target target = choose(candidates, tried);
+            tried.add(target);
+            target.outstanding.incrementAndGet();
+            try {
+                return method.invoke(target.service, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (!isConnectFailure(cause)) {
+                    throw cause;
+                }
+                LOG.warn("invocation of {} failed on endpoint {}, failing over",
+                         method.getName(), target.endpoint.getId());
+                target.failedUntil = System.currentTimeMillis() + FAILURE_BACKOFF_MILLIS;
+                lastFailure = cause;
+            } finally {
+                target.outstanding.decrementAndGet();
+            }
+        }
+        throw lastFailure;
+    }
+
+    private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("equals".equals(name)) {
+            return proxy == args[0];
+        } else if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        }
+        return "AggregatedImport[" + targets.size() + " endpoints, " + balancing + "]";
+    }
+
+    /**
+     * Returns whether the given failure is a remote ServiceException caused by a failure
+     * to reach the endpoint, in which case the invocation was not executed and can be retried.
+     */
+    static boolean isConnectFailure(Throwable t) {
+        if (!(t instanceof ServiceException)) {
+            return false;
+        }
+        for (Throwable cause = t.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof NoRouteToHostException
+                || cause instanceof UnknownHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Chooses the next target, preferring targets that have not failed recently.
+     */
+    private Target choose(List<Target> candidates, List<Target> tried) {
+        long now = System.currentTimeMillis();
+        List<Target> available = new ArrayList<Target>(candidates.size());
+        for (Target target : candidates) {
+            if (!tried.contains(target) && target.failedUntil <= now) {
+                available.add(target);
+            }
+        }
+        if (available.isEmpty()) {
+            // all remaining targets failed recently; try them anyway
+            for (Target target : candidates) {
+                if (!tried.contains(target)) {
+                    available.add(target);
+                }
+            }
+        }
+        int start = (counter.getAndIncrement() & Integer.MAX_VALUE) % available.size();
+        switch (balancing) {
+        case WEIGHTED:
+            int total = 0;
+            for (Target target : available) {
+                total += target.weight;
+            }
+            int r = random.nextInt(total);
+            for (Target target : available) {
+                r -= target.weight;
+                if (r < 0) {
+                    return target;
+                }
+            }
+            return available.get(start);
+        case LEAST_OUTSTANDING:
+            Target best = null;
+            for (int i = 0; i < available.size(); i++) {
+                Target target = available.get((start + i) % available.size());
+                if (best == null || target.outstanding.get() < best.outstanding.get()) {
+                    best = target;
+                }
+            }
+            return best;
+        default:
+            return available.get(start);
+        }
+    }
+
+    private static final class Target {
+        final ServiceReference<?> sref;
+        final Object service;
+        final Class<?> iClass;
+        final EndpointDescription endpoint;
+        final int weight;
+        final AtomicInteger outstanding = new AtomicInteger();
+        volatile long failedUntil;
+
+        Target(ServiceReference<?> sref, Object service, Class<?> iClass, EndpointDescription endpoint, int weight) {
+            this.sref = sref;
+            this.service = service;
+            this.iClass = iClass;
+            this.endpoint = endpoint;
+            this.weight = weight;
+        }
+    }
+}
@@ -19,10 +19,17 @@
 package org.apache.cxf.dosgi.topologymanager.importer;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.cxf.dosgi.topologymanager.util.Utils;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.remoteserviceadmin.EndpointListener;
@@ -31,27 +38,81 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Manages an EndpointListener and adjusts its scope according to requested service filters.
+ * <p>
+ * Every scope change makes all discovery implementations re-evaluate the scope, so changes
+ * are accumulated until no change has been made for a quiet period, and then published in
+ * a single registration update. The update is delayed by at most
+ * {@value #MAX_DELAY_FACTOR} quiet periods while changes keep coming.
  */
 public class EndpointListenerManager {
 
+    public static final String QUIET_PERIOD = "import.scopeQuietPeriod";
+    public static final long DEFAULT_QUIET_PERIOD_MILLIS = 50;
+    static final int MAX_DELAY_FACTOR = 10;
+
     private static final Logger LOG = LoggerFactory.getLogger(EndpointListenerManager.class);
 
     private final BundleContext bctx;
     private volatile ServiceRegistration serviceRegistration;
     private final List<String> filters = new ArrayList<String>();
+    private final Object publishLock = new Object();
     private final EndpointListener endpointListener;
+    private volatile long quietPeriodMillis = DEFAULT_QUIET_PERIOD_MILLIS;
+    private ScheduledExecutorService scheduler;
+
+    // the following are guarded by filters
+    private List<String> publishedFilters = Collections.emptyList();
+    private boolean updateScheduled;
+    private long firstChangeMillis;
+    private long lastChangeMillis;
 
     protected EndpointListenerManager(BundleContext bc, EndpointListener endpointListener) {
         this.bctx = bc;
         this.endpointListener = endpointListener;
     }
 
+    /**
+     * Returns the quiet period in the given configuration.
+     *
+     * @param config the configuration, or null
+     * @return the configured quiet period in milliseconds, or the default
+     * @throws IllegalArgumentException if the configured quiet period is invalid
+     */
+    public static long getQuietPeriod(Dictionary<String, ?> config) {
+        return Utils.getMillis(config, QUIET_PERIOD, DEFAULT_QUIET_PERIOD_MILLIS);
+    }
+
+    /**
+     * Sets the quiet period after which accumulated scope changes are published.
+     *
+     * @param millis the quiet period in milliseconds, or 0 to publish every change immediately
+     */
+    public void setQuietPeriod(long millis) {
+        quietPeriodMillis = millis;
+    }
+
     protected void start() {
+        synchronized (filters) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "EndpointListenerManager scope updater");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            publishedFilters = new ArrayList<String>(filters);
+        }
         serviceRegistration = bctx.registerService(EndpointListener.class.getName(), endpointListener,
-                                                   getRegistrationProperties());
+                                                   getRegistrationProperties(publishedFilters));
     }
 
     public void stop() {
+        synchronized (filters) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
         if (serviceRegistration != null) {
             serviceRegistration.unregister();
         }
@@ -61,38 +122,123 @@ public class EndpointListenerManager {
         if (filter == null) {
             return;
         }
-        LOG.debug("EndpointListener: extending scope by {}", filter);
+        extendScope(Collections.singletonList(filter));
+    }
+
+    /**
+     * Extends the scope by the given filters in a single scope change.
+     *
+     * @param newFilters the filters to add
+     */
+    protected void extendScope(Collection<String> newFilters) {
+        if (newFilters.isEmpty()) {
+            return;
+        }
+        LOG.debug("EndpointListener: extending scope by {}", newFilters);
         synchronized (filters) {
-            filters.add(filter);
+            for (String filter : newFilters) {
+                if (filter != null) {
+                    filters.add(filter);
+                }
+            }
         }
-        updateRegistration();
+        scopeChanged();
     }
 
     protected void reduceScope(String filter) {
         if (filter == null) {
             return;
         }
-        LOG.debug("EndpointListener: reducing scope by {}", filter);
+        reduceScope(Collections.singletonList(filter));
+    }
+
+    /**
+     * Reduces the scope by the given filters in a single scope change.
+     *
+     * @param oldFilters the filters to remove
+     */
+    protected void reduceScope(Collection<String> oldFilters) {
+        if (oldFilters.isEmpty()) {
+            return;
+        }
+        LOG.debug("EndpointListener: reducing scope by {}", oldFilters);
+        synchronized (filters) {
+            for (String filter : oldFilters) {
+                filters.remove(filter);
+            }
+        }
+        scopeChanged();
+    }
+
+    private void scopeChanged() {
+        long quietPeriod = quietPeriodMillis;
         synchronized (filters) {
-            filters.remove(filter);
+            if (quietPeriod > 0 && scheduler != null) {
+                lastChangeMillis = System.currentTimeMillis();
+                if (!updateScheduled) {
+                    updateScheduled = true;
+                    firstChangeMillis = lastChangeMillis;
+                    scheduleUpdate(quietPeriod);
+                }
+                return;
+            }
         }
         updateRegistration();
     }
 
-    private Dictionary<String, Object> getRegistrationProperties() {
-        Dictionary<String, Object> p = new Hashtable<String, Object>();
+    // must be called while holding the filters lock
+    private void scheduleUpdate(long delayMillis) {
+        scheduler.schedule(new Runnable() {
+            public void run() {
+                updateIfQuiet();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
 
+    private void updateIfQuiet() {
         synchronized (filters) {
-            LOG.debug("Current filter: {}", filters);
-            p.put(EndpointListener.ENDPOINT_LISTENER_SCOPE, new ArrayList<String>(filters));
+            if (scheduler == null) {
+                return; // stopped
+            }
+            long quietPeriod = quietPeriodMillis;
+            long now = System.currentTimeMillis();
+            long quietUntil = Math.min(lastChangeMillis + quietPeriod,
+                                       firstChangeMillis + MAX_DELAY_FACTOR * quietPeriod);
+            if (now < quietUntil) {
+                scheduleUpdate(quietUntil - now);
+                return;
+            }
+            updateScheduled = false;
         }
+        updateRegistration();
+    }
 
+    private Dictionary<String, Object> getRegistrationProperties(List<String> scope) {
+        Dictionary<String, Object> p = new Hashtable<String, Object>();
+        LOG.debug("Current filter: {}", scope);
+        p.put(EndpointListener.ENDPOINT_LISTENER_SCOPE, scope);
         return p;
     }
 
     private void updateRegistration() {
-        if (serviceRegistration != null) {
-            serviceRegistration.setProperties(getRegistrationProperties());
+        ServiceRegistration registration = serviceRegistration;
+        if (registration == null) {
+            return;
+        }
+        // the updates are serialized, so that concurrent updates cannot publish an older
+        // scope after a newer one, but the scope itself is not locked while the listeners
+        // of the registration are called
+        synchronized (publishLock) {
+            List<String> scope;
+            synchronized (filters) {
+                if (filters.equals(publishedFilters)) {
+                    LOG.debug("EndpointListener scope is unchanged");
+                    return;
+                }
+                scope = new ArrayList<String>(filters);
+                publishedFilters = scope;
+            }
+            registration.setProperties(getRegistrationProperties(scope));
         }
     }
 }
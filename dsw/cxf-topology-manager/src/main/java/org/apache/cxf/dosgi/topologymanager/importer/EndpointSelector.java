@@ -0,0 +1,46 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.dosgi.topologymanager.importer;
+
+import java.util.List;
+
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+
+/**
+ * Selects which of the endpoints available for an import interest are imported.
+ *
+ * @see EndpointSelectors
+ */
+public interface EndpointSelector {
+
+    /**
+     * Orders the given endpoints by preference. The topology manager imports the
+     * endpoints in this order until {@link #getMaxImports()} imports are successful,
+     * and closes existing imports of endpoints that are no longer preferred.
+     *
+     * @param endpoints the available endpoints
+     * @return the endpoints that may be imported, most preferred first
+     */
+    List<EndpointDescription> select(List<EndpointDescription> endpoints);
+
+    /**
+     * @return the maximum number of endpoints imported per import interest
+     */
+    int getMaxImports();
+}
@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.dosgi.topologymanager.importer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Dictionary;
+import java.util.List;
+
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+
+/**
+ * The available endpoint selection policies.
+ * <ul>
+ * <li>{@value #ALL}: imports all available endpoints (the default)
+ * <li>{@value #ONE}: imports a single endpoint, the one that has been available longest
+ * <li>{@value #LEAST_LOADED}: imports the endpoint with the lowest {@value #LOAD_PROPERTY}
+ * <li>{@value #SAME_ZONE_FIRST}: imports a single endpoint, preferring endpoints whose
+ *     {@value #ZONE_PROPERTY} equals the configured local zone
+ * <li>{@value #CONSISTENT_HASH}: imports a single endpoint chosen by rendezvous hashing of
+ *     the local framework and the endpoint ids, which spreads the consumers evenly across
+ *     the endpoints and keeps most choices stable when endpoints come and go
+ * </ul>
+ */
+public final class EndpointSelectors {
+
+    public static final String SELECTION_POLICY = "import.selection";
+    public static final String LOCAL_ZONE = "import.zone";
+
+    public static final String ALL = "all";
+    public static final String ONE = "one";
+    public static final String LEAST_LOADED = "least-loaded";
+    public static final String SAME_ZONE_FIRST = "same-zone-first";
+    public static final String CONSISTENT_HASH = "consistent-hash";
+
+    /**
+     * Endpoint property containing the load of the endpoint as a number.
+     * Endpoints without it are considered fully loaded.
+     */
+    public static final String LOAD_PROPERTY = "endpoint.load";
+
+    /**
+     * Endpoint property containing the zone of the endpoint.
+     */
+    public static final String ZONE_PROPERTY = "endpoint.zone";
+
+    private EndpointSelectors() {
+        // prevent instantiation
+    }
+
+    /**
+     * Creates the selector for the given configuration.
+     *
+     * @param config the configuration, or null to use the default policy
+     * @param localId the id of the local framework, used for consistent hashing
+     * @return the selector
+     * @throws IllegalArgumentException if the configured policy is unknown
+     */
+    public static EndpointSelector create(Dictionary<String, ?> config, String localId) {
+        Object policy = config == null ? null : config.get(SELECTION_POLICY);
+        Object zone = config == null ? null : config.get(LOCAL_ZONE);
+        if (policy == null || ALL.equals(policy)) {
+            return all();
+        } else if (ONE.equals(policy)) {
+            return one();
+        } else if (LEAST_LOADED.equals(policy)) {
+            return leastLoaded();
+        } else if (SAME_ZONE_FIRST.equals(policy)) {
+            return sameZoneFirst(zone == null ? null : zone.toString());
+        } else if (CONSISTENT_HASH.equals(policy)) {
+            return consistentHash(localId);
+        }
+        throw new IllegalArgumentException("unknown " + SELECTION_POLICY + ": " + policy);
+    }
+
+    public static EndpointSelector all() {
+        return new OrderingSelector(Integer.MAX_VALUE, null);
+    }
+
+    public static EndpointSelector one() {
+        return new OrderingSelector(1, null);
+    }
+
+    public static EndpointSelector leastLoaded() {
+        return new OrderingSelector(1, new Comparator<EndpointDescription>() {
+            public int compare(EndpointDescription e1, EndpointDescription e2) {
+                return Double.compare(getLoad(e1), getLoad(e2));
+            }
+        });
+    }
+
+    public static EndpointSelector sameZoneFirst(final String localZone) {
+        return new OrderingSelector(1, new Comparator<EndpointDescription>() {
+            public int compare(EndpointDescription e1, EndpointDescription e2) {
+                return (isInZone(e2, localZone) ? 1 : 0) - (isInZone(e1, localZone) ? 1 : 0);
+            }
+        });
+    }
+
+    public static EndpointSelector consistentHash(final String localId) {
+        return new OrderingSelector(1, new Comparator<EndpointDescription>() {
+            public int compare(EndpointDescription e1, EndpointDescription e2) {
+                // highest weight first
+                return Long.signum(weight(localId, e2) - weight(localId, e1));
+            }
+        });
+    }
+
+    private static double getLoad(EndpointDescription endpoint) {
+        Object load = endpoint.getProperties().get(LOAD_PROPERTY);
+        if (load instanceof Number) {
+            return ((Number) load).doubleValue();
+        }
+        if (load != null) {
+            try {
+                return Double.parseDouble(load.toString());
+            } catch (NumberFormatException e) {
+                // treated like a missing load
+            }
+        }
+        return Double.MAX_VALUE;
+    }
+
+    private static boolean isInZone(EndpointDescription endpoint, String zone) {
+        return zone != null && zone.equals(endpoint.getProperties().get(ZONE_PROPERTY));
+    }
+
+    static long weight(String localId, EndpointDescription endpoint) {
+        // mix the bits so that similar ids do not produce similar weights
+        long h = (long) String.valueOf(localId).hashCode() << 32 | endpoint.getId().hashCode() & 0xffffffffL;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h >>> 1; // non-negative, so the difference of two weights cannot overflow
+    }
+
+    /**
+     * Orders the endpoints with a stable sort, so endpoints that compare equal keep
+     * the order in which they became available.
+     */
+    private static final class OrderingSelector implements EndpointSelector {
+        private final int maxImports;
+        private final Comparator<EndpointDescription> comparator;
+
+        OrderingSelector(int maxImports, Comparator<EndpointDescription> comparator) {
+            this.maxImports = maxImports;
+            this.comparator = comparator;
+        }
+
+        public List<EndpointDescription> select(List<EndpointDescription> endpoints) {
+            if (comparator == null) {
+                return endpoints;
+            }
+            List<EndpointDescription> sorted = new ArrayList<EndpointDescription>(endpoints);
+            Collections.sort(sorted, comparator);
+            return sorted;
+        }
+
+        public int getMaxImports() {
+            return maxImports;
+        }
+    }
+}
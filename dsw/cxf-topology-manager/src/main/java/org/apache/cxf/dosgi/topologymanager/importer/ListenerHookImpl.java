@@ -18,8 +18,10 @@
  */
 package org.apache.cxf.dosgi.topologymanager.importer;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.cxf.dosgi.topologymanager.util.Utils;
@@ -61,6 +63,7 @@ public class ListenerHookImpl implements ListenerHook {
     @SuppressWarnings("rawtypes")
     public void added(Collection/* <ListenerInfo> */ listeners) {
         LOG.debug("added listeners {}", listeners);
+        List<String> filters = new ArrayList<String>();
         for (Object li : listeners) {
             ListenerInfo listenerInfo = (ListenerInfo)li;
             LOG.debug("Filter {}", listenerInfo.getFilter());
@@ -81,23 +84,25 @@ public class ListenerHookImpl implements ListenerHook {
                 LOG.debug("Skipping import request for excluded class [{}]", className);
                 continue;
             }
-            String exFilter = extendFilter(listenerInfo.getFilter(), bctx);
-            serviceInterestListener.addServiceInterest(exFilter);
+            filters.add(extendFilter(listenerInfo.getFilter(), bctx));
         }
+        // the interests in all added listeners are added as a single scope change
+        serviceInterestListener.addServiceInterests(filters);
     }
 
     @SuppressWarnings("rawtypes")
     public void removed(Collection/* <ListenerInfo> */ listeners) {
         LOG.debug("removed listeners {}", listeners);
 
+        List<String> filters = new ArrayList<String>();
         for (Object li : listeners) {
             ListenerInfo listenerInfo = (ListenerInfo)li;
             LOG.debug("Filter {}", listenerInfo.getFilter());
 
             // TODO: determine if service was handled?
-            String exFilter = extendFilter(listenerInfo.getFilter(), bctx);
-            serviceInterestListener.removeServiceInterest(exFilter);
+            filters.add(extendFilter(listenerInfo.getFilter(), bctx));
         }
+        serviceInterestListener.removeServiceInterests(filters);
     }
 
     private static boolean isClassExcluded(String className) {
@@ -18,9 +18,25 @@
  */
 package org.apache.cxf.dosgi.topologymanager.importer;
 
+import java.util.Collection;
+
 public interface ServiceInterestListener {
 
     void addServiceInterest(String filter);
 
     void removeServiceInterest(String filter);
+
+    /**
+     * Adds interests in all given filters as a single change.
+     *
+     * @param filters the filters
+     */
+    void addServiceInterests(Collection<String> filters);
+
+    /**
+     * Removes interests in all given filters as a single change.
+     *
+     * @param filters the filters
+     */
+    void removeServiceInterests(Collection<String> filters);
 }
\ No newline at end of file
@@ -25,14 +25,14 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.cxf.dosgi.topologymanager.util.ReferenceCounter;
 import org.apache.cxf.dosgi.topologymanager.util.SimpleServiceTracker;
 import org.apache.cxf.dosgi.topologymanager.util.SimpleServiceTrackerListener;
+import org.apache.cxf.dosgi.topologymanager.util.TopologyExecutor;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.hooks.service.ListenerHook;
@@ -55,7 +55,8 @@ import org.slf4j.LoggerFactory;
 public class TopologyManagerImport implements EndpointListener, RemoteServiceAdminListener, ServiceInterestListener {
 
     private static final Logger LOG = LoggerFactory.getLogger(TopologyManagerImport.class);
-    private ExecutorService execService;
+    private final TopologyExecutor execService;
+    private final boolean ownsExecutor;
 
     private final EndpointListenerManager endpointListenerManager;
     private final BundleContext bctx;
@@ -63,12 +64,21 @@ public class TopologyManagerImport implements EndpointListener, RemoteServiceAdm
     private final ListenerHookImpl listenerHook;
 
     /**
-     * If set to false only one service is imported for each import interest even it multiple services are
-     * available. If set to true, all available services are imported.
-     *
-     * TODO: Make this available as a configuration option
+     * Selects which of the available services are imported for each import interest.
+     */
+    private volatile EndpointSelector endpointSelector = EndpointSelectors.all();
+
+    /**
+     * The balancing policy of the aggregated imports, or null if the imported
+     * services are not aggregated.
      */
-    private boolean importAllAvailable = true;
+    private volatile AggregatedImport.Balancing balancing;
+
+    /**
+     * The aggregated import by filter, if the imported services are aggregated.
+     */
+    private final ConcurrentMap<String, AggregatedImport> aggregatedImports
+        = new ConcurrentHashMap<String, AggregatedImport>();
 
     /**
      * Contains an instance of the Class Import Interest for each distinct import request. If the same filter
@@ -90,7 +100,27 @@ public class TopologyManagerImport implements EndpointListener, RemoteServiceAdm
     private final Map<String /* filter */, List<ImportRegistration>> importedServices
         = new HashMap<String, List<ImportRegistration>>();
 
+    /**
+     * Number of import triggers per filter that have not been handled yet. A reconciliation
+     * task for the filter is queued or running whenever the number is positive.
+     */
+    private final ConcurrentMap<String, AtomicInteger> importTriggers
+        = new ConcurrentHashMap<String, AtomicInteger>();
+
     public TopologyManagerImport(BundleContext bc, SimpleServiceTracker<RemoteServiceAdmin> rsaTracker) {
+        this(bc, rsaTracker, null);
+    }
+
+    /**
+     * Creates a TopologyManagerImport.
+     *
+     * @param bc the bundle context
+     * @param rsaTracker the tracker of the RemoteServiceAdmins
+     * @param executor the executor running the imports, or null to create one
+     *        (a given executor is not shut down when this instance is stopped)
+     */
+    public TopologyManagerImport(BundleContext bc, SimpleServiceTracker<RemoteServiceAdmin> rsaTracker,
+                                 TopologyExecutor executor) {
         bctx = bc;
         remoteServiceAdminTracker = rsaTracker;
         remoteServiceAdminTracker.addListener(new SimpleServiceTrackerListener<RemoteServiceAdmin>() {
@@ -107,7 +137,8 @@ public class TopologyManagerImport implements EndpointListener, RemoteServiceAdm
             }
         });
         endpointListenerManager = new EndpointListenerManager(bctx, this);
-        execService = new ThreadPoolExecutor(5, 10, 50, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        ownsExecutor = executor == null;
+        execService = executor == null ? new TopologyExecutor("TopologyManagerImport") : executor;
         listenerHook = new ListenerHookImpl(bc, this);
     }
 
@@ -119,33 +150,139 @@ public class TopologyManagerImport implements EndpointListener, RemoteServiceAdm
 
     public void stop() {
         endpointListenerManager.stop();
-        execService.shutdown();
+        closeAggregatedImports();
+        if (ownsExecutor) {
+            execService.shutdown();
+        }
         // this is called from Activator.stop(), which implicitly unregisters our registered services
     }
 
+    /**
+     * Sets the endpoint selection policy, and reconciles the existing imports with it.
+     *
+     * @param selector the selector
+     */
+    public void setEndpointSelector(EndpointSelector selector) {
+        endpointSelector = selector;
+        synchronized (importPossibilities) {
+            for (String filter : importPossibilities.keySet()) {
+                triggerImport(filter);
+            }
+        }
+    }
+
+    /**
+     * Sets the quiet period after which accumulated changes of the import interests
+     * are published to the discovery implementations.
+     *
+     * @param millis the quiet period in milliseconds, or 0 to publish every change immediately
+     */
+    public void setScopeQuietPeriod(long millis) {
+        endpointListenerManager.setQuietPeriod(millis);
+    }
+
+    /**
+     * Sets the balancing policy of the aggregated imports, and reconciles the existing
+     * imports with it. If the policy is not null, a single service that balances the
+     * invocations across all imported endpoints and fails over on transport errors is
+     * registered for each import interest, in addition to the imported services.
+     *
+     * @param newBalancing the balancing policy, or null to not aggregate the imported services
+     */
+    public void setLoadBalancing(AggregatedImport.Balancing newBalancing) {
+        if (balancing == newBalancing) {
+            return;
+        }
+        balancing = newBalancing;
+        closeAggregatedImports();
+        synchronized (importPossibilities) {
+            for (String filter : importPossibilities.keySet()) {
+                triggerImport(filter);
+            }
+        }
+    }
+
+    private void closeAggregatedImports() {
+        for (Iterator<AggregatedImport> it = aggregatedImports.values().iterator(); it.hasNext();) {
+            it.next().close();
+            it.remove();
+        }
+    }
+
+    /**
+     * Updates the aggregated import of the given filter with its current imports.
+     *
+     * @param filter the filter
+     */
+    private void updateAggregatedImport(String filter) {
+        AggregatedImport.Balancing currentBalancing = balancing;
+        if (currentBalancing == null) {
+            return;
+        }
+        AggregatedImport aggregate = aggregatedImports.get(filter);
+        if (aggregate == null) {
+            AggregatedImport newAggregate = new AggregatedImport(bctx, currentBalancing);
+            aggregate = aggregatedImports.putIfAbsent(filter, newAggregate);
+            if (aggregate == null) {
+                aggregate = newAggregate;
+            }
+        }
+        aggregate.update(getImportedServicesCopy(filter));
+        if (balancing != currentBalancing && aggregatedImports.remove(filter, aggregate)) {
+            aggregate.close(); // the policy changed concurrently
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.apache.cxf.dosgi.topologymanager.ServiceInterestListener#addServiceInterest(java.lang.String)
      */
     public void addServiceInterest(String filter) {
-        if (importInterestsCounter.add(filter) == 1) {
-            endpointListenerManager.extendScope(filter);
+        addServiceInterests(Collections.singletonList(filter));
+    }
+
+    public void addServiceInterests(Collection<String> filters) {
+        List<String> newFilters = new ArrayList<String>();
+        for (String filter : filters) {
+            if (importInterestsCounter.add(filter) == 1) {
+                newFilters.add(filter);
+            }
         }
+        endpointListenerManager.extendScope(newFilters);
     }
 
     /* (non-Javadoc)
      * @see org.apache.cxf.dosgi.topologymanager.ServiceInterestListener#removeServiceInterest(java.lang.String)
      */
     public void removeServiceInterest(String filter) {
-        if (importInterestsCounter.remove(filter) == 0) {
-            LOG.debug("last reference to import interest is gone -> removing interest filter: {}", filter);
-            endpointListenerManager.reduceScope(filter);
-            synchronized (importedServices) {
-                List<ImportRegistration> irs = importedServices.remove(filter);
-                if (irs != null) {
-                    for (ImportRegistration ir : irs) {
-                        ir.close();
-                    }
-                }
+        removeServiceInterests(Collections.singletonList(filter));
+    }
+
+    public void removeServiceInterests(Collection<String> filters) {
+        List<String> oldFilters = new ArrayList<String>();
+        for (String filter : filters) {
+            if (importInterestsCounter.remove(filter) == 0) {
+                LOG.debug("last reference to import interest is gone -> removing interest filter: {}", filter);
+                oldFilters.add(filter);
+            }
+        }
+        endpointListenerManager.reduceScope(oldFilters);
+        for (String filter : oldFilters) {
+            closeImports(filter);
+        }
+    }
+
+    private void closeImports(String filter) {
+        AggregatedImport aggregate = aggregatedImports.remove(filter);
+        if (aggregate != null) {
+            aggregate.close();
+        }
+        List<ImportRegistration> irs;
+        synchronized (importedServices) {
+            irs = importedServices.remove(filter);
+        }
+        if (irs != null) {
+            for (ImportRegistration ir : irs) {
+                ir.close();
             }
         }
     }
@@ -202,35 +339,66 @@ public class TopologyManagerImport implements EndpointListener, RemoteServiceAdm
         }
     }
 
+    /**
+     * Queues the reconciliation of the imports for the given filter.
+     * At most one reconciliation per filter is queued or running at any time:
+     * if one is already pending, it is rerun once after it completes, so that
+     * a burst of triggers for the same filter is coalesced and the latest state
+     * is always processed. If the executor is saturated, the reconciliation
+     * runs in the calling thread.
+     *
+     * @param filter the filter
+     */
     private void triggerImport(final String filter) {
+        AtomicInteger triggers = importTriggers.get(filter);
+        if (triggers == null) {
+            AtomicInteger newTriggers = new AtomicInteger();
+            triggers = importTriggers.putIfAbsent(filter, newTriggers);
+            if (triggers == null) {
+                triggers = newTriggers;
+            }
+        }
+        if (triggers.getAndIncrement() > 0) {
+            LOG.debug("Import of a service for filter {} is already queued", filter);
+            return;
+        }
         LOG.debug("Import of a service for filter {} was queued", filter);
 
+        final AtomicInteger pendingTriggers = triggers;
         execService.execute(new Runnable() {
             public void run() {
-                try {
-                    unexportNotAvailableServices(filter);
-                    importServices(filter);
-                } catch (Exception e) {
-                    LOG.error(e.getMessage(), e);
-                }
-                // Notify EndpointListeners? NO!
+                int handled;
+                do {
+                    handled = pendingTriggers.get();
+                    try {
+                        unexportNotAvailableServices(filter);
+                        importServices(filter);
+                        updateAggregatedImport(filter);
+                    } catch (Exception e) {
+                        LOG.error(e.getMessage(), e);
+                    }
+                    // Notify EndpointListeners? NO!
+                } while (pendingTriggers.addAndGet(-handled) > 0);
             }
         });
     }
 
     private void unexportNotAvailableServices(String filter) {
+        List<ImportRegistration> unavailable = new ArrayList<ImportRegistration>();
         synchronized (importedServices) {
             List<ImportRegistration> importRegistrations = importedServices.get(filter);
             if (importRegistrations != null) {
-                // iterate over a copy
-                for (ImportRegistration ir : new ArrayList<ImportRegistration>(importRegistrations)) {
+                for (ImportRegistration ir : importRegistrations) {
                     EndpointDescription endpoint = ir.getImportReference().getImportedEndpoint();
                     if (!isImportPossibilityAvailable(endpoint, filter)) {
-                        removeImport(ir, null); // also unexports the service
+                        unavailable.add(ir);
                     }
                 }
             }
         }
+        for (ImportRegistration ir : unavailable) {
+            removeImport(ir, null); // also unexports the service
+        }
     }
 
     private boolean isImportPossibilityAvailable(EndpointDescription endpoint, String filter) {
@@ -250,29 +418,74 @@ public class TopologyManagerImport implements EndpointListener, RemoteServiceAdm
         }
     }
 
+    /**
+     * Imports the preferred endpoints that are available for the given filter but not imported yet,
+     * and closes the imports of endpoints that are no longer preferred once the preferred ones are
+     * imported. The imports are done without holding any lock, so that slow imports for one filter
+     * do not block the reconciliation of other filters.
+     *
+     * @param filter the filter
+     */
     private void importServices(String filter) {
+        EndpointSelector selector = endpointSelector;
+        List<ImportRegistration> importRegistrations = getImportedServicesCopy(filter);
+        List<EndpointDescription> selected = new ArrayList<EndpointDescription>();
+        for (EndpointDescription endpoint : selector.select(getImportPossibilitiesCopy(filter))) {
+            if (selected.size() >= selector.getMaxImports()) {
+                break;
+            }
+            if (alreadyImported(endpoint, importRegistrations)) {
+                selected.add(endpoint);
+            } else {
+                // service not imported yet -> import it now
+                ImportRegistration ir = importService(endpoint);
+                if (ir != null && addImport(filter, endpoint, ir)) {
+                    selected.add(endpoint);
+                }
+            }
+        }
+        if (selected.isEmpty()) {
+            return; // keep the existing imports rather than none
+        }
+        for (ImportRegistration ir : getImportedServicesCopy(filter)) {
+            if (!selected.contains(ir.getImportReference().getImportedEndpoint())) {
+                LOG.debug("closing import of endpoint that is no longer selected: {}", ir);
+                removeImport(ir, null);
+            }
+        }
+    }
+
+    /**
+     * Adds a successful import, unless its endpoint has been removed while it was being imported,
+     * in which case it is closed.
+     *
+     * @return true if the import was added
+     */
+    private boolean addImport(String filter, EndpointDescription endpoint, ImportRegistration ir) {
         synchronized (importedServices) {
-            List<ImportRegistration> importRegistrations = importedServices.get(filter);
-            for (EndpointDescription endpoint : getImportPossibilitiesCopy(filter)) {
-                // TODO but optional: if the service is already imported and the endpoint is still
-                // in the list of possible imports check if a "better" endpoint is now in the list
-                if (!alreadyImported(endpoint, importRegistrations)) {
-                    // service not imported yet -> import it now
-                    ImportRegistration ir = importService(endpoint);
-                    if (ir != null) {
-                        // import was successful
-                        if (importRegistrations == null) {
-                            importRegistrations = new ArrayList<ImportRegistration>();
-                            importedServices.put(filter, importRegistrations);
-                        }
-                        importRegistrations.add(ir);
-                        if (!importAllAvailable) {
-                            return;
-                        }
-                    }
+            if (isImportPossibilityAvailable(endpoint, filter)) {
+                List<ImportRegistration> importRegistrations = importedServices.get(filter);
+                if (importRegistrations == null) {
+                    importRegistrations = new ArrayList<ImportRegistration>();
+                    importedServices.put(filter, importRegistrations);
                 }
+                importRegistrations.add(ir);
+                return true;
             }
         }
+        LOG.debug("endpoint {} was removed while it was imported, closing import", endpoint);
+        ir.close();
+        return false;
+    }
+
+    // return a copy to prevent sync issues
+    List<ImportRegistration> getImportedServicesCopy(String filter) {
+        synchronized (importedServices) {
+            List<ImportRegistration> imports = importedServices.get(filter);
+            return imports == null
+                ? Collections.<ImportRegistration>emptyList()
+                : new ArrayList<ImportRegistration>(imports);
+        }
     }
 
     private boolean alreadyImported(EndpointDescription endpoint, List<ImportRegistration> importRegistrations) {
@@ -323,14 +536,14 @@ public class TopologyManagerImport implements EndpointListener, RemoteServiceAdm
         // this method may be called recursively by calling ImportRegistration.close()
         // and receiving a RemoteServiceAdminEvent for its unregistration, which results
         // in a ConcurrentModificationException. We avoid this by closing the registrations
-        // only after data structure manipulation is done, and being re-entrant.
+        // only after data structure manipulation is done, and outside of the lock.
+        List<ImportRegistration> removed = new ArrayList<ImportRegistration>();
         synchronized (importedServices) {
-            List<ImportRegistration> removed = new ArrayList<ImportRegistration>();
             for (Iterator<List<ImportRegistration>> it1 = importedServices.values().iterator(); it1.hasNext();) {
                 Collection<ImportRegistration> irs = it1.next();
                 for (Iterator<ImportRegistration> it2 = irs.iterator(); it2.hasNext();) {
                     ImportRegistration ir = it2.next();
-                    if (ir.equals(reg) || ir.getImportReference().equals(ref)) {
+                    if (ir.equals(reg) || isImportOf(ir, ref)) {
                         removed.add(ir);
                         it2.remove();
                     }
@@ -339,15 +552,31 @@ public class TopologyManagerImport implements EndpointListener, RemoteServiceAdm
                     it1.remove();
                 }
             }
-            for (ImportRegistration ir : removed) {
-                ir.close();
-            }
+        }
+        for (ImportRegistration ir : removed) {
+            ir.close();
         }
     }
 
+    /**
+     * Returns whether the given registration is the one of the given reference. The reference
+     * of an unregistration event may be a copy taken when the registration was closed, so a
+     * registration that is closed, and hence no longer exposes its endpoint, matches as well.
+     */
+    private static boolean isImportOf(ImportRegistration ir, ImportReference ref) {
+        if (ref == null) {
+            return false;
+        }
+        ImportReference iref = ir.getImportReference();
+        return iref == null || ref.equals(iref) || iref.equals(ref) || iref.getImportedEndpoint() == null;
+    }
+
     public void remoteAdminEvent(RemoteServiceAdminEvent event) {
         if (event.getType() == RemoteServiceAdminEvent.IMPORT_UNREGISTRATION) {
             removeImport(null, event.getImportReference());
+            for (String filter : aggregatedImports.keySet()) {
+                updateAggregatedImport(filter);
+            }
         }
     }
 }
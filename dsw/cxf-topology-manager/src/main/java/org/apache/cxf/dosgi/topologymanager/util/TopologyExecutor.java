@@ -0,0 +1,238 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.dosgi.topologymanager.util;
+
+import java.util.Dictionary;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The executor running the import and export tasks of the topology manager.
+ * <p>
+ * It uses a bounded queue. Idle threads time out, so the core pool size is
+ * the number of threads that work on queued tasks, and additional threads up
+ * to the maximum pool size are started only when the queue is full. When all
+ * threads are busy and the queue is full, tasks run in the submitting thread.
+ * This throttles the producers: an EndpointListener or ListenerHook callback
+ * that triggers an import or export may then perform the remote call itself,
+ * and only returns once it is done.
+ * <p>
+ * The pool sizes and queue capacity can be changed at runtime. Basic metrics
+ * about queue depth and task latency are collected and logged when the
+ * executor is reconfigured or shut down.
+ */
+public class TopologyExecutor implements Executor {
+
+    public static final String CORE_POOL_SIZE = "executor.corePoolSize";
+    public static final String MAX_POOL_SIZE = "executor.maxPoolSize";
+    public static final String QUEUE_CAPACITY = "executor.queueCapacity";
+
+    public static final int DEFAULT_CORE_POOL_SIZE = 10;
+    public static final int DEFAULT_MAX_POOL_SIZE = 20;
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopologyExecutor.class);
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private final AtomicLong completedTasks = new AtomicLong();
+    private final AtomicLong callerRunsTasks = new AtomicLong();
+    private final AtomicLong totalQueueWaitNanos = new AtomicLong();
+    private final AtomicLong totalExecutionNanos = new AtomicLong();
+    private final String name;
+
+    private volatile ThreadPoolExecutor pool;
+    private volatile boolean shutdown;
+    private int queueCapacity;
+
+    public TopologyExecutor(String name) {
+        this(name, DEFAULT_CORE_POOL_SIZE, DEFAULT_MAX_POOL_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public TopologyExecutor(String name, int corePoolSize, int maxPoolSize, int queueCapacity) {
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        this.pool = createPool(corePoolSize, maxPoolSize, queueCapacity);
+    }
+
+    private ThreadPoolExecutor createPool(int corePoolSize, int maxPoolSize, int capacity) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(corePoolSize, maxPoolSize,
+            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(capacity),
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, name + "-" + threadCount.incrementAndGet());
+                }
+            },
+            new RejectedExecutionHandler() {
+                public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                    ThreadPoolExecutor current = pool;
+                    if (executor != current && !shutdown) {
+                        // the pool was replaced by configure() after the task was submitted
+                        current.execute(r);
+                    } else if (executor.isShutdown()) {
+                        LOG.warn("{} is shut down, dropping task {}", name, r);
+                    } else {
+                        callerRunsTasks.incrementAndGet();
+                        LOG.debug("{} is saturated, running task in the submitting thread", name);
+                        r.run();
+                    }
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Applies the given configuration. Missing properties are reset to their defaults.
+     * Changing the pool sizes takes effect immediately; changing the queue capacity
+     * replaces the pool, and the tasks already queued complete in the old pool.
+     * Tasks that are submitted to the old pool while it is being replaced are
+     * passed on to the new pool.
+     *
+     * @param config the configuration, or null to use the defaults
+     * @throws IllegalArgumentException if a property value is invalid
+     */
+    public synchronized void configure(Dictionary<String, ?> config) {
+        int core = getIntProperty(config, CORE_POOL_SIZE, DEFAULT_CORE_POOL_SIZE);
+        int max = getIntProperty(config, MAX_POOL_SIZE, DEFAULT_MAX_POOL_SIZE);
+        int capacity = getIntProperty(config, QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY);
+        if (max < core) {
+            throw new IllegalArgumentException(MAX_POOL_SIZE + " must not be less than " + CORE_POOL_SIZE);
+        }
+        LOG.info("configuring {} with core pool size {}, max pool size {}, queue capacity {}",
+                 new Object[] {this, core, max, capacity});
+        if (capacity != queueCapacity && !shutdown) {
+            ThreadPoolExecutor old = pool;
+            pool = createPool(core, max, capacity);
+            queueCapacity = capacity;
+            old.shutdown();
+        } else if (core > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(max);
+            pool.setCorePoolSize(core);
+        } else {
+            pool.setCorePoolSize(core);
+            pool.setMaximumPoolSize(max);
+        }
+    }
+
+    private static int getIntProperty(Dictionary<String, ?> config, String key, int defaultValue) {
+        Object value = config == null ? null : config.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        int intValue;
+        try {
+            intValue = value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " must be an integer: " + value);
+        }
+        if (intValue < 1) {
+            throw new IllegalArgumentException(key + " must be positive: " + value);
+        }
+        return intValue;
+    }
+
+    public void execute(final Runnable task) {
+        final long queuedAt = System.nanoTime();
+        pool.execute(new Runnable() {
+            public void run() {
+                long startedAt = System.nanoTime();
+                try {
+                    task.run();
+                } finally {
+                    totalQueueWaitNanos.addAndGet(startedAt - queuedAt);
+                    totalExecutionNanos.addAndGet(System.nanoTime() - startedAt);
+                    completedTasks.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops accepting tasks. Tasks that are already queued still complete.
+     */
+    public synchronized void shutdown() {
+        LOG.info("shutting down {}", this);
+        shutdown = true;
+        pool.shutdown();
+    }
+
+    public int getCorePoolSize() {
+        return pool.getCorePoolSize();
+    }
+
+    public int getMaxPoolSize() {
+        return pool.getMaximumPoolSize();
+    }
+
+    public synchronized int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public int getQueueDepth() {
+        return pool.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return pool.getActiveCount();
+    }
+
+    public long getCompletedTaskCount() {
+        return completedTasks.get();
+    }
+
+    /**
+     * Returns the number of tasks that ran in the submitting thread because the queue was full.
+     *
+     * @return the number of tasks run by callers
+     */
+    public long getCallerRunsCount() {
+        return callerRunsTasks.get();
+    }
+
+    public double getAverageQueueWaitMillis() {
+        return average(totalQueueWaitNanos);
+    }
+
+    public double getAverageExecutionMillis() {
+        return average(totalExecutionNanos);
+    }
+
+    private double average(AtomicLong totalNanos) {
+        long count = completedTasks.get();
+        return count == 0 ? 0 : totalNanos.get() / (count * 1000000.0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[active=%d, queued=%d, completed=%d, callerRuns=%d, "
+                             + "avgQueueWait=%.1fms, avgExecution=%.1fms]",
+                             name, getActiveCount(), getQueueDepth(), getCompletedTaskCount(),
+                             getCallerRunsCount(), getAverageQueueWaitMillis(), getAverageExecutionMillis());
+    }
+}
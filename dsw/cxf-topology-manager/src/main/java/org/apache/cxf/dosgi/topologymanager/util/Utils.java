@@ -54,6 +54,31 @@ public final class Utils {
         }
     }
 
+    /**
+     * Returns a non-negative duration from a configuration.
+     *
+     * @param config the configuration, or null
+     * @param key the configuration key
+     * @param defaultMillis the value to return if the key is not configured
+     * @return the configured duration in milliseconds, or the default
+     * @throws IllegalArgumentException if the configured value is not a non-negative number
+     */
+    public static long getMillis(Dictionary<String, ?> config, String key, long defaultMillis) {
+        Object value = config == null ? null : config.get(key);
+        if (value == null) {
+            return defaultMillis;
+        }
+        try {
+            long millis = value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+            if (millis >= 0) {
+                return millis;
+            }
+        } catch (NumberFormatException e) {
+            // handled below
+        }
+        throw new IllegalArgumentException("invalid " + key + ": " + value);
+    }
+
     public static String getObjectClass(String filter) {
         if (filter != null) {
             Matcher matcher = OBJECTCLASS_PATTERN.matcher(filter);
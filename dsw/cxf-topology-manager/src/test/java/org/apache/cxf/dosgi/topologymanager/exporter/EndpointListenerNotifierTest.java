@@ -19,22 +19,30 @@
 package org.apache.cxf.dosgi.topologymanager.exporter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.easymock.Capture;
 import org.easymock.IAnswer;
 import org.easymock.IMocksControl;
 import org.easymock.classextension.EasyMock;
 import org.junit.Test;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.remoteserviceadmin.EndpointDescription;
 import org.osgi.service.remoteserviceadmin.EndpointListener;
+import org.osgi.service.remoteserviceadmin.RemoteConstants;
 
 import static org.junit.Assert.assertEquals;
 
@@ -76,12 +84,10 @@ public class EndpointListenerNotifierTest {
         epl.endpointRemoved(EasyMock.eq(endpoint), EasyMock.eq("(objectClass=myClass)"));
         EasyMock.expectLastCall().once();
 
-        EndpointRepository exportRepository = EasyMock.createMock(EndpointRepository.class);
-
         c.replay();
         EasyMock.replay(epl);
 
-        EndpointListenerNotifier tm = new EndpointListenerNotifier(bc, exportRepository);
+        EndpointListenerNotifier tm = new EndpointListenerNotifier(bc);
 
         List<EndpointDescription> endpoints = new ArrayList<EndpointDescription>();
         endpoints.add(endpoint);
@@ -93,6 +99,198 @@ public class EndpointListenerNotifierTest {
         EasyMock.verify(epl);
     }
 
+    @Test
+    public void testNotifyListenerOnlyForMatchingScopes() throws InvalidSyntaxException {
+        IMocksControl c = EasyMock.createNiceControl();
+        BundleContext bc = c.createMock(BundleContext.class);
+        ServiceReference sref = c.createMock(ServiceReference.class);
+        EndpointListener epl = EasyMock.createStrictMock(EndpointListener.class);
+        EasyMock.expect(bc.getService(EasyMock.eq(sref))).andReturn(epl).anyTimes();
+        EasyMock.expect(bc.createFilter((String)EasyMock.anyObject())).andAnswer(new IAnswer<Filter>() {
+            public Filter answer() throws Throwable {
+                return FrameworkUtil.createFilter((String)EasyMock.getCurrentArguments()[0]);
+            }
+        }).anyTimes();
+        String[] scopes = {"(&(objectClass=myClass)(color=red))", "(objectClass=otherClass)",
+                           "(|(objectClass=myClass)(objectClass=otherClass))", "(objectClass=my*)"};
+        EasyMock.expect(sref.getProperty(EasyMock.eq(EndpointListener.ENDPOINT_LISTENER_SCOPE)))
+            .andReturn(scopes).anyTimes();
+
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put(Constants.OBJECTCLASS, new String[] {"myClass"});
+        props.put(RemoteConstants.ENDPOINT_ID, "http://localhost/my");
+        props.put(RemoteConstants.SERVICE_IMPORTED_CONFIGS, "myConfig");
+        props.put("color", "red");
+        EndpointDescription endpoint = new EndpointDescription(props);
+
+        epl.endpointAdded(endpoint, scopes[0]);
+        epl.endpointAdded(endpoint, scopes[2]);
+        epl.endpointAdded(endpoint, scopes[3]);
+        c.replay();
+        EasyMock.replay(epl);
+
+        EndpointListenerNotifier tm = new EndpointListenerNotifier(bc);
+        tm.notifyListener(true, sref, Collections.singletonList(endpoint));
+
+        EasyMock.verify(epl);
+    }
+
+    @Test
+    public void testModifiedListenerIsNotifiedOfScopeChangesOnly() throws InvalidSyntaxException {
+        IMocksControl c = EasyMock.createNiceControl();
+        BundleContext bc = c.createMock(BundleContext.class);
+        ServiceReference sref = c.createMock(ServiceReference.class);
+        EndpointListener epl = EasyMock.createMock(EndpointListener.class);
+        EasyMock.expect(bc.getService(EasyMock.eq(sref))).andReturn(epl).anyTimes();
+        EasyMock.expect(bc.createFilter((String)EasyMock.anyObject())).andAnswer(new IAnswer<Filter>() {
+            public Filter answer() throws Throwable {
+                return FrameworkUtil.createFilter((String)EasyMock.getCurrentArguments()[0]);
+            }
+        }).anyTimes();
+        final String[][] scope = {{"(objectClass=a)"}};
+        EasyMock.expect(sref.getProperty(EasyMock.eq(EndpointListener.ENDPOINT_LISTENER_SCOPE)))
+            .andAnswer(new IAnswer<Object>() {
+                public Object answer() throws Throwable {
+                    return scope[0];
+                }
+            }).anyTimes();
+        EndpointDescription a = createEndpoint("a");
+        EndpointDescription b = createEndpoint("b");
+        List<EndpointDescription> endpoints = Arrays.asList(a, b);
+
+        epl.endpointAdded(a, "(objectClass=a)");
+        epl.endpointAdded(b, "(objectClass=b)");
+        epl.endpointRemoved(a, "(objectClass=a)");
+        c.replay();
+        EasyMock.replay(epl);
+
+        EndpointListenerNotifier tm = new EndpointListenerNotifier(bc);
+        tm.notifyListeners(true, endpoints);
+        tm.listenerAdded(sref);
+        scope[0] = new String[] {"(objectClass=a)", "(objectClass=b)"};
+        tm.listenerModified(sref);
+        tm.listenerModified(sref); // unchanged
+        scope[0] = new String[] {"(objectClass=b)"};
+        tm.listenerModified(sref);
+
+        EasyMock.verify(epl);
+    }
+
+    @Test
+    public void testChangesAreDeliveredInBatches() throws Exception {
+        IMocksControl c = EasyMock.createNiceControl();
+        BundleContext bc = c.createMock(BundleContext.class);
+        ServiceReference sref = c.createMock(ServiceReference.class);
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        final EndpointListener epl = new EndpointListener() {
+            public void endpointAdded(EndpointDescription endpoint, String matchedFilter) {
+                events.add("added " + endpoint.getId());
+            }
+
+            public void endpointRemoved(EndpointDescription endpoint, String matchedFilter) {
+                events.add("removed " + endpoint.getId());
+            }
+        };
+        final AtomicInteger getServiceCalls = new AtomicInteger();
+        EasyMock.expect(bc.getService(EasyMock.eq(sref))).andAnswer(new IAnswer<Object>() {
+            public Object answer() throws Throwable {
+                getServiceCalls.incrementAndGet();
+                return epl;
+            }
+        }).anyTimes();
+        EasyMock.expect(bc.createFilter((String)EasyMock.anyObject())).andAnswer(new IAnswer<Filter>() {
+            public Filter answer() throws Throwable {
+                return FrameworkUtil.createFilter((String)EasyMock.getCurrentArguments()[0]);
+            }
+        }).anyTimes();
+        final Capture<ServiceListener> trackerListener = EasyMock.newCapture();
+        bc.addServiceListener(EasyMock.capture(trackerListener), (String)EasyMock.anyObject());
+        EasyMock.expect(sref.getProperty(EasyMock.eq(EndpointListener.ENDPOINT_LISTENER_SCOPE)))
+            .andReturn(new String[] {"(objectClass=a)", "(objectClass=b)"}).anyTimes();
+        c.replay();
+
+        EndpointListenerNotifier tm = new EndpointListenerNotifier(bc);
+        tm.setBatchWindow(100);
+        tm.start();
+        trackerListener.getValue().serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, sref));
+        int trackerCalls = getServiceCalls.get(); // the tracker gets the service, there is nothing to replay
+
+        EndpointDescription a = createEndpoint("a");
+        EndpointDescription b = createEndpoint("b");
+        tm.notifyListeners(true, Collections.singletonList(a));
+        tm.notifyListeners(true, Collections.singletonList(b));
+        tm.notifyListeners(false, Collections.singletonList(a));
+        assertEquals(0, events.size());
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (events.size() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Arrays.asList("added http://localhost/a", "added http://localhost/b",
+                                   "removed http://localhost/a"), events);
+        assertEquals(trackerCalls + 1, getServiceCalls.get());
+
+        // pending changes are delivered on stop
+        tm.notifyListeners(false, Collections.singletonList(b));
+        tm.stop();
+        assertEquals("removed http://localhost/b", events.get(3));
+    }
+
+    @Test
+    public void testAddedListenerIsNotifiedConsistentlyWithPendingChanges() throws Exception {
+        IMocksControl c = EasyMock.createNiceControl();
+        BundleContext bc = c.createMock(BundleContext.class);
+        ServiceReference sref = c.createMock(ServiceReference.class);
+        final List<String> events = new ArrayList<String>();
+        EndpointListener epl = new EndpointListener() {
+            public void endpointAdded(EndpointDescription endpoint, String matchedFilter) {
+                events.add("added " + endpoint.getId());
+            }
+
+            public void endpointRemoved(EndpointDescription endpoint, String matchedFilter) {
+                events.add("removed " + endpoint.getId());
+            }
+        };
+        EasyMock.expect(bc.getService(EasyMock.eq(sref))).andReturn(epl).anyTimes();
+        EasyMock.expect(bc.createFilter((String)EasyMock.anyObject())).andAnswer(new IAnswer<Filter>() {
+            public Filter answer() throws Throwable {
+                return FrameworkUtil.createFilter((String)EasyMock.getCurrentArguments()[0]);
+            }
+        }).anyTimes();
+        final Capture<ServiceListener> trackerListener = EasyMock.newCapture();
+        bc.addServiceListener(EasyMock.capture(trackerListener), (String)EasyMock.anyObject());
+        EasyMock.expect(sref.getProperty(EasyMock.eq(EndpointListener.ENDPOINT_LISTENER_SCOPE)))
+            .andReturn(new String[] {"(objectClass=a)", "(objectClass=b)"}).anyTimes();
+        c.replay();
+
+        EndpointListenerNotifier tm = new EndpointListenerNotifier(bc);
+        tm.setBatchWindow(60000);
+        tm.start();
+        EndpointDescription a = createEndpoint("a");
+        EndpointDescription b = createEndpoint("b");
+        tm.notifyListeners(true, Collections.singletonList(a));
+        tm.deliverPendingChanges();
+        tm.notifyListeners(true, Collections.singletonList(b));
+        tm.notifyListeners(false, Collections.singletonList(a));
+
+        // the new listener only gets the endpoints that were delivered
+        trackerListener.getValue().serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, sref));
+        assertEquals(Arrays.asList("added http://localhost/a"), events);
+
+        // and then the pending changes
+        tm.stop();
+        assertEquals(Arrays.asList("added http://localhost/a", "added http://localhost/b",
+                                   "removed http://localhost/a"), events);
+    }
+
+    private static EndpointDescription createEndpoint(String objectClass) {
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put(Constants.OBJECTCLASS, new String[] {objectClass});
+        props.put(RemoteConstants.ENDPOINT_ID, "http://localhost/" + objectClass);
+        props.put(RemoteConstants.SERVICE_IMPORTED_CONFIGS, "myConfig");
+        return new EndpointDescription(props);
+    }
+
     @Test
     public void testNormalizeScopeForSingleString() {
         try {
@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.dosgi.topologymanager.exporter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+import org.osgi.service.remoteserviceadmin.RemoteConstants;
+import org.osgi.service.remoteserviceadmin.RemoteServiceAdmin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EndpointRepositoryTest {
+
+    @Test
+    public void testIndexes() {
+        ServiceReference sref1 = EasyMock.createNiceMock(ServiceReference.class);
+        ServiceReference sref2 = EasyMock.createNiceMock(ServiceReference.class);
+        RemoteServiceAdmin rsa1 = EasyMock.createNiceMock(RemoteServiceAdmin.class);
+        RemoteServiceAdmin rsa2 = EasyMock.createNiceMock(RemoteServiceAdmin.class);
+        EasyMock.replay(sref1, sref2, rsa1, rsa2);
+        EndpointDescription e11 = createEndpoint("e11");
+        EndpointDescription e12 = createEndpoint("e12");
+        EndpointDescription e21 = createEndpoint("e21");
+
+        EndpointRepository repo = new EndpointRepository();
+        repo.addService(sref1);
+        repo.addService(sref2);
+        repo.addEndpoints(sref1, rsa1, Arrays.asList(e11));
+        repo.addEndpoints(sref1, rsa2, Arrays.asList(e12));
+        repo.addEndpoints(sref2, rsa1, Arrays.asList(e21));
+        assertTrue(repo.isAlreadyExportedForRsa(sref1, rsa2));
+        assertFalse(repo.isAlreadyExportedForRsa(sref2, rsa2));
+        assertEquals(Collections.singleton(sref2), repo.getServicesToBeExportedFor(rsa2));
+
+        // replacing the endpoints of an export replaces them
+        EndpointDescription e11b = createEndpoint("e11b");
+        repo.addEndpoints(sref1, rsa1, Arrays.asList(e11b));
+
+        assertEquals(new HashSet<EndpointDescription>(Arrays.asList(e11b, e21)),
+                     new HashSet<EndpointDescription>(repo.removeRemoteServiceAdmin(rsa1)));
+        assertEquals(new HashSet<ServiceReference>(Arrays.asList(sref1, sref2)),
+                     repo.getServicesToBeExportedFor(rsa1));
+        assertEquals(0, repo.removeRemoteServiceAdmin(rsa1).size());
+
+        assertEquals(Arrays.asList(e12), repo.removeService(sref1));
+        assertEquals(0, repo.removeRemoteServiceAdmin(rsa2).size());
+        assertEquals(Collections.singleton(sref2), repo.getServicesToBeExportedFor(rsa2));
+    }
+
+    @Test
+    public void testUpdateServiceCopiesChangedProperties() {
+        ServiceReference sref = EasyMock.createNiceMock(ServiceReference.class);
+        EasyMock.expect(sref.getPropertyKeys()).andReturn(new String[] {
+            Constants.OBJECTCLASS, RemoteConstants.SERVICE_EXPORTED_INTERFACES, "Endpoint.Load"}).anyTimes();
+        EasyMock.expect(sref.getProperty(Constants.OBJECTCLASS)).andReturn(new String[] {"otherClass"}).anyTimes();
+        EasyMock.expect(sref.getProperty(RemoteConstants.SERVICE_EXPORTED_INTERFACES)).andReturn("*").anyTimes();
+        EasyMock.expect(sref.getProperty("Endpoint.Load")).andReturn(3).anyTimes();
+        RemoteServiceAdmin rsa = EasyMock.createNiceMock(RemoteServiceAdmin.class);
+        EasyMock.replay(sref, rsa);
+        Map<String, Object> props = new HashMap<String, Object>(createEndpoint("e1").getProperties());
+        props.put("endpoint.load", 1);
+        EndpointDescription endpoint = new EndpointDescription(props);
+
+        EndpointRepository repo = new EndpointRepository();
+        repo.addEndpoints(sref, rsa, Arrays.asList(endpoint));
+        assertTrue(repo.containsService(sref));
+        EndpointDescription updated = repo.updateService(sref).get(0);
+        assertEquals(3, updated.getProperties().get("endpoint.load"));
+        assertEquals(Arrays.asList("myClass"), updated.getInterfaces());
+        assertFalse(updated.getProperties().containsKey(RemoteConstants.SERVICE_EXPORTED_INTERFACES));
+        assertSame(updated, repo.removeService(sref).get(0));
+
+        // unchanged properties do not update the endpoints
+        repo.addEndpoints(sref, rsa, Arrays.asList(updated));
+        assertEquals(0, repo.updateService(sref).size());
+    }
+
+    private static EndpointDescription createEndpoint(String id) {
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put(Constants.OBJECTCLASS, new String[] {"myClass"});
+        props.put(RemoteConstants.ENDPOINT_ID, id);
+        props.put(RemoteConstants.SERVICE_IMPORTED_CONFIGS, "myConfig");
+        return new EndpointDescription(props);
+    }
+}
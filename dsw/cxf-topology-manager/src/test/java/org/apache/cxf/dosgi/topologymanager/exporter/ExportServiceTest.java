@@ -18,12 +18,15 @@
  */
 package org.apache.cxf.dosgi.topologymanager.exporter;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.cxf.dosgi.topologymanager.importer.EndpointSelectors;
 import org.apache.cxf.dosgi.topologymanager.util.SimpleServiceTracker;
 import org.apache.cxf.dosgi.topologymanager.util.SimpleServiceTrackerListener;
+import org.easymock.Capture;
 import org.easymock.IAnswer;
 import org.easymock.classextension.EasyMock;
 import org.easymock.classextension.IMocksControl;
@@ -40,6 +43,8 @@ import org.osgi.service.remoteserviceadmin.ExportRegistration;
 import org.osgi.service.remoteserviceadmin.RemoteConstants;
 import org.osgi.service.remoteserviceadmin.RemoteServiceAdmin;
 
+import static org.junit.Assert.assertEquals;
+
 public class ExportServiceTest {
 
     /**
@@ -90,6 +95,61 @@ public class ExportServiceTest {
         c.verify();
     }
 
+    @Test
+    public void testModifiedServiceIsRepublished() throws Exception {
+        IMocksControl c = EasyMock.createControl();
+
+        BundleContext bctx = c.createMock(BundleContext.class);
+        RemoteServiceAdmin rsa = c.createMock(RemoteServiceAdmin.class);
+        EndpointListenerNotifier mockEpListenerNotifier = c.createMock(EndpointListenerNotifier.class);
+        mockEpListenerNotifier.start();
+        EasyMock.expectLastCall().once();
+        Capture<ServiceListener> serviceListener = org.easymock.EasyMock.newCapture();
+        bctx.addServiceListener(EasyMock.capture(serviceListener));
+        EasyMock.expectLastCall().once();
+        EasyMock.expect(bctx.getServiceReferences(EasyMock.<String>anyObject(), EasyMock.<String>anyObject()))
+            .andReturn(null).once();
+
+        ServiceReference sref = createExportedServiceReference(c);
+        EasyMock.expect(sref.getPropertyKeys()).andReturn(new String[] {EndpointSelectors.LOAD_PROPERTY}).anyTimes();
+        EasyMock.expect(sref.getProperty(EndpointSelectors.LOAD_PROPERTY)).andReturn(5).anyTimes();
+        SimpleServiceTracker<RemoteServiceAdmin> rsaTracker = createSingleRsaTracker(c, rsa);
+        EndpointDescription endpoint = createEndpoint(c);
+        ExportRegistration exportRegistration = createExportRegistration(c, endpoint);
+        EasyMock.expect(rsa.exportService(EasyMock.same(sref), (Map<String, Object>)EasyMock.anyObject()))
+            .andReturn(Collections.singletonList(exportRegistration)).once();
+        mockEpListenerNotifier.notifyListeners(true, Collections.singletonList(endpoint));
+        EasyMock.expectLastCall().once();
+        Capture<Collection<EndpointDescription>> updated = org.easymock.EasyMock.newCapture();
+        mockEpListenerNotifier.notifyListeners(EasyMock.eq(true), EasyMock.capture(updated));
+        EasyMock.expectLastCall().once();
+        c.replay();
+
+        TopologyManagerExport topManager = new TopologyManagerExport(bctx, rsaTracker, mockEpListenerNotifier) {
+            // override to perform export from the same thread rather than asynchronously
+            @Override
+            protected void triggerExport(ServiceReference sref) {
+                doExportService(sref);
+            }
+        };
+        topManager.start();
+        serviceListener.getValue().serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, sref));
+        serviceListener.getValue().serviceChanged(new ServiceEvent(ServiceEvent.MODIFIED, sref));
+        c.verify();
+        EndpointDescription republished = updated.getValue().iterator().next();
+        assertEquals(endpoint, republished);
+        assertEquals(5, republished.getProperties().get(EndpointSelectors.LOAD_PROPERTY));
+    }
+
+    private ServiceReference createExportedServiceReference(IMocksControl c) {
+        ServiceReference sref = c.createMock(ServiceReference.class);
+        EasyMock.expect(sref.getProperty(RemoteConstants.SERVICE_EXPORTED_INTERFACES)).andReturn("*").anyTimes();
+        Bundle bundle = c.createMock(Bundle.class);
+        EasyMock.expect(bundle.getSymbolicName()).andReturn("serviceBundleName").anyTimes();
+        EasyMock.expect(sref.getBundle()).andReturn(bundle).anyTimes();
+        return sref;
+    }
+
     private void simulateUserServicePublished(BundleContext bctx, final ServiceReference sref) {
         bctx.addServiceListener((ServiceListener)EasyMock.anyObject());
         EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
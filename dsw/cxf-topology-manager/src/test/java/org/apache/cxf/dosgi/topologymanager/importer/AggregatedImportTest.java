@@ -0,0 +1,234 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.dosgi.topologymanager.importer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+import org.osgi.service.remoteserviceadmin.ImportReference;
+import org.osgi.service.remoteserviceadmin.ImportRegistration;
+import org.osgi.service.remoteserviceadmin.RemoteConstants;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class AggregatedImportTest {
+
+    public interface Greeter {
+        String greet(String name);
+    }
+
+    private static class TestGreeter implements Greeter {
+        private final String id;
+        private RuntimeException failure;
+
+        TestGreeter(String id) {
+            this.id = id;
+        }
+
+        public String greet(String name) {
+            if (failure != null) {
+                throw failure;
+            }
+            return id + ":" + name;
+        }
+    }
+
+    @Test
+    public void testConfig() {
+        assertNull(AggregatedImport.Balancing.fromConfig(null));
+        Dictionary<String, Object> config = new Hashtable<String, Object>();
+        config.put(AggregatedImport.LOAD_BALANCING, "least-outstanding");
+        assertSame(AggregatedImport.Balancing.LEAST_OUTSTANDING, AggregatedImport.Balancing.fromConfig(config));
+        config.put(AggregatedImport.LOAD_BALANCING, "random");
+        try {
+            AggregatedImport.Balancing.fromConfig(config);
+            fail("unknown policy must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void testRoundRobinWithFailover() {
+        IMocksControl c = EasyMock.createNiceControl();
+        BundleContext bc = c.createMock(BundleContext.class);
+        TestGreeter g1 = new TestGreeter("g1");
+        TestGreeter g2 = new TestGreeter("g2");
+        ImportRegistration ir1 = createImport(c, bc, "e1", g1);
+        ImportRegistration ir2 = createImport(c, bc, "e2", g2);
+
+        Capture<Object> proxy = EasyMock.newCapture();
+        Capture<Dictionary<String, ?>> props = EasyMock.newCapture();
+        ServiceRegistration reg = c.createMock(ServiceRegistration.class);
+        EasyMock.expect((ServiceRegistration) bc.registerService(EasyMock.eq(Greeter.class.getName()),
+                                                                 EasyMock.capture(proxy),
+                                                                 EasyMock.capture(props)))
+            .andReturn(reg).once();
+        reg.unregister();
+        EasyMock.expectLastCall().once();
+        c.replay();
+
+        AggregatedImport aggregate = new AggregatedImport(bc, AggregatedImport.Balancing.ROUND_ROBIN);
+        aggregate.update(Arrays.asList(ir1, ir2));
+        aggregate.update(Arrays.asList(ir1, ir2));
+        assertEquals(true, props.getValue().get(AggregatedImport.AGGREGATED_PROPERTY));
+        assertEquals(true, props.getValue().get(RemoteConstants.SERVICE_IMPORTED));
+        assertEquals(AggregatedImport.AGGREGATED_RANKING, props.getValue().get(Constants.SERVICE_RANKING));
+
+        Greeter greeter = (Greeter) proxy.getValue();
+        Map<String, Integer> calls = new HashMap<String, Integer>();
+        for (int i = 0; i < 10; i++) {
+            String id = greeter.greet("x").split(":")[0];
+            calls.put(id, calls.containsKey(id) ? calls.get(id) + 1 : 1);
+        }
+        assertEquals(Integer.valueOf(5), calls.get("g1"));
+        assertEquals(Integer.valueOf(5), calls.get("g2"));
+
+        // connect failures fail over to the other endpoint
+        g1.failure = new ServiceException("REMOTE", new ConnectException("connection refused"));
+        for (int i = 0; i < 4; i++) {
+            assertEquals("g2:x", greeter.greet("x"));
+        }
+
+        // application failures are not retried
+        g1.failure = null;
+        g2.failure = new IllegalStateException("rejected");
+        try {
+            for (int i = 0; i < 4; i++) {
+                greeter.greet("x");
+            }
+            fail("application exception must be rethrown");
+        } catch (IllegalStateException e) {
+            assertEquals("rejected", e.getMessage());
+        }
+
+        // timeouts are not retried, the invocation may have been executed
+        g2.failure = new ServiceException("REMOTE", new SocketTimeoutException("read timed out"));
+        try {
+            greeter.greet("x");
+            fail("timeout must be rethrown");
+        } catch (ServiceException e) {
+            assertSame(SocketTimeoutException.class, e.getCause().getClass());
+        }
+
+        aggregate.close();
+        c.verify();
+    }
+
+    @Test
+    @SuppressWarnings("rawtypes")
+    public void testUnregisteredWhenNoImportIsLeft() {
+        IMocksControl c = EasyMock.createNiceControl();
+        BundleContext bc = c.createMock(BundleContext.class);
+        ImportRegistration ir1 = createImport(c, bc, "e1", new TestGreeter("g1"));
+        ServiceRegistration reg = c.createMock(ServiceRegistration.class);
+        EasyMock.expect((ServiceRegistration) bc.registerService(EasyMock.eq(Greeter.class.getName()),
+                                                                 EasyMock.anyObject(),
+                                                                 EasyMock.<Dictionary<String, ?>>anyObject()))
+            .andReturn(reg).times(2);
+        reg.unregister();
+        EasyMock.expectLastCall().times(2);
+        c.replay();
+
+        AggregatedImport aggregate = new AggregatedImport(bc, AggregatedImport.Balancing.LEAST_OUTSTANDING);
+        aggregate.update(Arrays.asList(ir1));
+        aggregate.update(Arrays.<ImportRegistration>asList());
+        aggregate.update(Arrays.asList(ir1));
+        aggregate.close();
+        aggregate.update(Arrays.asList(ir1)); // ignored after close
+        c.verify();
+    }
+
+    @Test
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void testOnlyServicesWithTheSameInterfaceClassAreAggregated() throws Exception {
+        IMocksControl c = EasyMock.createNiceControl();
+        BundleContext bc = c.createMock(BundleContext.class);
+        ImportRegistration ir1 = createImport(c, bc, "e1", new TestGreeter("g1"));
+
+        // a Greeter loaded by another class loader
+        URL classes = Greeter.class.getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader otherLoader = new URLClassLoader(new URL[] {classes}, null);
+        Class<?> otherGreeter = otherLoader.loadClass(Greeter.class.getName());
+        Object other = Proxy.newProxyInstance(otherLoader, new Class<?>[] {otherGreeter}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "other:" + args[0];
+            }
+        });
+        ImportRegistration ir2 = createImport(c, bc, "e2", other);
+
+        Capture<Object> proxy = EasyMock.newCapture();
+        ServiceRegistration reg = c.createMock(ServiceRegistration.class);
+        EasyMock.expect((ServiceRegistration) bc.registerService(EasyMock.eq(Greeter.class.getName()),
+                                                                 EasyMock.capture(proxy),
+                                                                 EasyMock.<Dictionary<String, ?>>anyObject()))
+            .andReturn(reg).once();
+        c.replay();
+
+        AggregatedImport aggregate = new AggregatedImport(bc, AggregatedImport.Balancing.ROUND_ROBIN);
+        aggregate.update(Arrays.asList(ir1, ir2));
+        Greeter greeter = (Greeter) proxy.getValue();
+        for (int i = 0; i < 4; i++) {
+            assertEquals("g1:x", greeter.greet("x"));
+        }
+        aggregate.close();
+        c.verify();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ImportRegistration createImport(IMocksControl c, BundleContext bc, String id, Object service) {
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put(Constants.OBJECTCLASS, new String[] {Greeter.class.getName()});
+        props.put(RemoteConstants.ENDPOINT_ID, id);
+        props.put(RemoteConstants.SERVICE_IMPORTED_CONFIGS, "myConfig");
+        EndpointDescription endpoint = new EndpointDescription(props);
+        ServiceReference<Object> sref = c.createMock(ServiceReference.class);
+        EasyMock.expect(bc.getService(sref)).andReturn(service).anyTimes();
+        ImportReference iref = c.createMock(ImportReference.class);
+        EasyMock.expect(iref.getImportedEndpoint()).andReturn(endpoint).anyTimes();
+        EasyMock.expect((ServiceReference<Object>) iref.getImportedService()).andReturn(sref).anyTimes();
+        ImportRegistration ir = c.createMock(ImportRegistration.class);
+        EasyMock.expect(ir.getImportReference()).andReturn(iref).anyTimes();
+        return ir;
+    }
+}
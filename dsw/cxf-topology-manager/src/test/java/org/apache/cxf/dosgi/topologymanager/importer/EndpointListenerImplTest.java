@@ -18,8 +18,12 @@
  */
 package org.apache.cxf.dosgi.topologymanager.importer;
 
+import java.util.Arrays;
 import java.util.Dictionary;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.easymock.IAnswer;
 import org.easymock.classextension.EasyMock;
@@ -88,6 +92,7 @@ public class EndpointListenerImplTest extends Assert {
         EasyMock.replay(sr);
 
         EndpointListenerManager endpointListener = new EndpointListenerManager(bc, tm);
+        endpointListener.setQuietPeriod(0);
 
         endpointListener.start();
 
@@ -109,4 +114,50 @@ public class EndpointListenerImplTest extends Assert {
         EasyMock.verify(tm);
         EasyMock.verify(sr);
     }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void testScopeChangesAreCoalesced() throws InterruptedException {
+        BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
+        TopologyManagerImport tm = EasyMock.createNiceMock(TopologyManagerImport.class);
+        ServiceRegistration sr = EasyMock.createMock(ServiceRegistration.class);
+        EasyMock.expect(bc.registerService((String)EasyMock.anyObject(),
+                                           EasyMock.anyObject(),
+                                           (Dictionary)EasyMock.anyObject())).andReturn(sr).once();
+        final List<List<String>> scopes = new CopyOnWriteArrayList<List<String>>();
+        final CountDownLatch updated = new CountDownLatch(1);
+        sr.setProperties((Dictionary)EasyMock.anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            public Object answer() throws Throwable {
+                Dictionary props = (Dictionary)EasyMock.getCurrentArguments()[0];
+                @SuppressWarnings("unchecked")
+                List<String> scope = (List<String>)props.get(EndpointListener.ENDPOINT_LISTENER_SCOPE);
+                scopes.add(scope);
+                updated.countDown();
+                return null;
+            }
+        }).anyTimes();
+        sr.unregister();
+        EasyMock.replay(bc, tm, sr);
+
+        EndpointListenerManager endpointListener = new EndpointListenerManager(bc, tm);
+        endpointListener.setQuietPeriod(100);
+        endpointListener.start();
+        endpointListener.extendScope("(a=b)");
+        endpointListener.extendScope(Arrays.asList("(c=d)", "(e=f)"));
+        endpointListener.reduceScope("(a=b)");
+        assertTrue(updated.await(10, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        assertEquals(1, scopes.size());
+        assertEquals(Arrays.asList("(c=d)", "(e=f)"), scopes.get(0));
+
+        // changes that cancel each other out are not published
+        endpointListener.extendScope("(g=h)");
+        endpointListener.reduceScope("(g=h)");
+        Thread.sleep(300);
+        assertEquals(1, scopes.size());
+
+        endpointListener.stop();
+        EasyMock.verify(sr);
+    }
 }
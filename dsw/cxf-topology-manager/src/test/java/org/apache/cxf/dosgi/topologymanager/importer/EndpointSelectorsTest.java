@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.dosgi.topologymanager.importer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.osgi.framework.Constants;
+import org.osgi.service.remoteserviceadmin.EndpointDescription;
+import org.osgi.service.remoteserviceadmin.RemoteConstants;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EndpointSelectorsTest {
+
+    @Test
+    public void testCreate() {
+        assertEquals(Integer.MAX_VALUE, EndpointSelectors.create(null, "fw").getMaxImports());
+        Dictionary<String, Object> config = new Hashtable<String, Object>();
+        config.put(EndpointSelectors.SELECTION_POLICY, EndpointSelectors.ONE);
+        assertEquals(1, EndpointSelectors.create(config, "fw").getMaxImports());
+        config.put(EndpointSelectors.SELECTION_POLICY, "best");
+        try {
+            EndpointSelectors.create(config, "fw");
+            fail("unknown policy must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLeastLoaded() {
+        EndpointDescription e1 = createEndpoint("e1", EndpointSelectors.LOAD_PROPERTY, 0.7);
+        EndpointDescription e2 = createEndpoint("e2", null, null);
+        EndpointDescription e3 = createEndpoint("e3", EndpointSelectors.LOAD_PROPERTY, "0.2");
+        assertEquals(Arrays.asList(e3, e1, e2), EndpointSelectors.leastLoaded().select(Arrays.asList(e1, e2, e3)));
+    }
+
+    @Test
+    public void testSameZoneFirst() {
+        EndpointDescription e1 = createEndpoint("e1", EndpointSelectors.ZONE_PROPERTY, "east");
+        EndpointDescription e2 = createEndpoint("e2", null, null);
+        EndpointDescription e3 = createEndpoint("e3", EndpointSelectors.ZONE_PROPERTY, "west");
+        EndpointDescription e4 = createEndpoint("e4", EndpointSelectors.ZONE_PROPERTY, "west");
+        assertEquals(Arrays.asList(e3, e4, e1, e2),
+                     EndpointSelectors.sameZoneFirst("west").select(Arrays.asList(e1, e2, e3, e4)));
+    }
+
+    @Test
+    public void testConsistentHash() {
+        List<EndpointDescription> endpoints = new ArrayList<EndpointDescription>();
+        for (int i = 0; i < 4; i++) {
+            endpoints.add(createEndpoint("e" + i, null, null));
+        }
+        int[] chosen = new int[endpoints.size()];
+        for (int consumer = 0; consumer < 400; consumer++) {
+            EndpointSelector selector = EndpointSelectors.consistentHash("framework-" + consumer);
+            EndpointDescription first = selector.select(endpoints).get(0);
+            // the choice does not depend on the order of the endpoints
+            List<EndpointDescription> reversed = new ArrayList<EndpointDescription>(endpoints);
+            Collections.reverse(reversed);
+            assertEquals(first, selector.select(reversed).get(0));
+            chosen[endpoints.indexOf(first)]++;
+        }
+        for (int count : chosen) {
+            assertTrue("consumers must be spread across endpoints: " + Arrays.toString(chosen), count > 50);
+        }
+    }
+
+    private static EndpointDescription createEndpoint(String id, String key, Object value) {
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put(RemoteConstants.ENDPOINT_ID, id);
+        props.put(Constants.OBJECTCLASS, new String[] {"my.Interface"});
+        props.put(RemoteConstants.SERVICE_IMPORTED_CONFIGS, "my.config");
+        if (key != null) {
+            props.put(key, value);
+        }
+        return new EndpointDescription(props);
+    }
+}
@@ -19,23 +19,41 @@
 package org.apache.cxf.dosgi.topologymanager.importer;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.cxf.dosgi.dsw.service.EventProducer;
+import org.apache.cxf.dosgi.dsw.service.ImportRegistrationImpl;
+import org.apache.cxf.dosgi.dsw.service.RemoteServiceAdminCore;
 import org.apache.cxf.dosgi.topologymanager.util.SimpleServiceTracker;
 import org.apache.cxf.dosgi.topologymanager.util.SimpleServiceTrackerListener;
+import org.apache.cxf.dosgi.topologymanager.util.TopologyExecutor;
 import org.easymock.IAnswer;
 import org.easymock.IMocksControl;
 import org.easymock.classextension.EasyMock;
 import org.junit.Test;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.remoteserviceadmin.EndpointDescription;
+import org.osgi.service.remoteserviceadmin.ExportReference;
+import org.osgi.service.remoteserviceadmin.ExportRegistration;
 import org.osgi.service.remoteserviceadmin.ImportReference;
 import org.osgi.service.remoteserviceadmin.ImportRegistration;
+import org.osgi.service.remoteserviceadmin.RemoteConstants;
 import org.osgi.service.remoteserviceadmin.RemoteServiceAdmin;
+import org.osgi.service.remoteserviceadmin.RemoteServiceAdminListener;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class TopologyManagerImportTest {
@@ -88,4 +106,248 @@ public class TopologyManagerImportTest {
         tm.stop();
         c.verify();
     }
+
+    @Test
+    public void testImportTriggersForSameFilterAreCoalesced() throws Exception {
+        BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
+        EasyMock.replay(bc);
+        final RemoteServiceAdmin rsa = EasyMock.createMock(RemoteServiceAdmin.class);
+        @SuppressWarnings("unchecked")
+        SimpleServiceTracker<RemoteServiceAdmin> rsaTracker = EasyMock.createNiceMock(SimpleServiceTracker.class);
+        EasyMock.expect(rsaTracker.getAllServices()).andReturn(Arrays.asList(rsa)).anyTimes();
+        EasyMock.replay(rsaTracker);
+
+        final CountDownLatch firstImportStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirstImport = new CountDownLatch(1);
+        final AtomicInteger imports = new AtomicInteger();
+        EasyMock.expect(rsa.importService((EndpointDescription) EasyMock.anyObject()))
+            .andAnswer(new IAnswer<ImportRegistration>() {
+                public ImportRegistration answer() throws Throwable {
+                    if (imports.getAndIncrement() == 0) {
+                        firstImportStarted.countDown();
+                        releaseFirstImport.await();
+                    }
+                    return null; // import failed, so the endpoint is retried on each reconciliation
+                }
+            }).anyTimes();
+        EasyMock.replay(rsa);
+
+        TopologyExecutor executor = new TopologyExecutor("test");
+        TopologyManagerImport tm = new TopologyManagerImport(bc, rsaTracker, executor);
+        try {
+            tm.endpointAdded(createEndpoint(0), "myFilter");
+            assertTrue(firstImportStarted.await(10, TimeUnit.SECONDS));
+            for (int i = 1; i <= 20; i++) {
+                tm.endpointAdded(createEndpoint(i), "myFilter");
+            }
+            releaseFirstImport.countDown();
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while ((executor.getActiveCount() > 0 || executor.getQueueDepth() > 0)
+                && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals("all triggers must be handled by a single task", 1, executor.getCompletedTaskCount());
+            // the first run imports endpoint 0, the coalesced rerun imports all 21 endpoints
+            assertEquals(22, imports.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSlowImportDoesNotBlockOtherFilters() throws Exception {
+        BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
+        EasyMock.replay(bc);
+
+        final EndpointDescription slowEndpoint = createEndpoint(0);
+        final EndpointDescription fastEndpoint = createEndpoint(1);
+        final CountDownLatch slowImportStarted = new CountDownLatch(1);
+        final CountDownLatch releaseSlowImport = new CountDownLatch(1);
+        final CountDownLatch fastImportDone = new CountDownLatch(1);
+        // not a mock, as mocks serialize concurrent invocations
+        RemoteServiceAdmin rsa = new RemoteServiceAdmin() {
+            public ImportRegistration importService(EndpointDescription endpoint) {
+                if (endpoint.equals(slowEndpoint)) {
+                    slowImportStarted.countDown();
+                    try {
+                        releaseSlowImport.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                } else {
+                    fastImportDone.countDown();
+                }
+                return null;
+            }
+
+            @SuppressWarnings("rawtypes")
+            public Collection<ExportRegistration> exportService(ServiceReference reference, Map properties) {
+                return null;
+            }
+
+            public Collection<ExportReference> getExportedServices() {
+                return null;
+            }
+
+            public Collection<ImportReference> getImportedEndpoints() {
+                return null;
+            }
+        };
+        @SuppressWarnings("unchecked")
+        SimpleServiceTracker<RemoteServiceAdmin> rsaTracker = EasyMock.createNiceMock(SimpleServiceTracker.class);
+        EasyMock.expect(rsaTracker.getAllServices()).andReturn(Arrays.asList(rsa)).anyTimes();
+        EasyMock.replay(rsaTracker);
+
+        TopologyExecutor executor = new TopologyExecutor("test");
+        TopologyManagerImport tm = new TopologyManagerImport(bc, rsaTracker, executor);
+        try {
+            tm.endpointAdded(slowEndpoint, "slowFilter");
+            assertTrue(slowImportStarted.await(10, TimeUnit.SECONDS));
+            tm.endpointAdded(fastEndpoint, "fastFilter");
+            assertTrue("import for another filter must not wait for the slow import",
+                       fastImportDone.await(10, TimeUnit.SECONDS));
+        } finally {
+            releaseSlowImport.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPreferredEndpointReplacesImport() throws Exception {
+        BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
+        EasyMock.replay(bc);
+
+        Map<String, Object> props = new HashMap<String, Object>(createEndpoint(0).getProperties());
+        props.put(EndpointSelectors.LOAD_PROPERTY, 5);
+        final EndpointDescription loaded = new EndpointDescription(props);
+        props.put(RemoteConstants.ENDPOINT_ID, "http://localhost/idle");
+        props.put(EndpointSelectors.LOAD_PROPERTY, 1);
+        final EndpointDescription idle = new EndpointDescription(props);
+
+        final CountDownLatch loadedImported = new CountDownLatch(1);
+        final CountDownLatch loadedClosed = new CountDownLatch(1);
+        final ImportRegistration loadedReg = createImportRegistration(loaded, loadedClosed);
+        final ImportRegistration idleReg = createImportRegistration(idle, new CountDownLatch(1));
+        RemoteServiceAdmin rsa = EasyMock.createMock(RemoteServiceAdmin.class);
+        EasyMock.expect(rsa.importService(loaded)).andAnswer(new IAnswer<ImportRegistration>() {
+            public ImportRegistration answer() throws Throwable {
+                loadedImported.countDown();
+                return loadedReg;
+            }
+        }).once();
+        EasyMock.expect(rsa.importService(idle)).andReturn(idleReg).once();
+        EasyMock.replay(rsa);
+        @SuppressWarnings("unchecked")
+        SimpleServiceTracker<RemoteServiceAdmin> rsaTracker = EasyMock.createNiceMock(SimpleServiceTracker.class);
+        EasyMock.expect(rsaTracker.getAllServices()).andReturn(Arrays.asList(rsa)).anyTimes();
+        EasyMock.replay(rsaTracker);
+
+        TopologyExecutor executor = new TopologyExecutor("test");
+        TopologyManagerImport tm = new TopologyManagerImport(bc, rsaTracker, executor);
+        try {
+            tm.setEndpointSelector(EndpointSelectors.leastLoaded());
+            tm.endpointAdded(loaded, "myFilter");
+            assertTrue(loadedImported.await(10, TimeUnit.SECONDS));
+            tm.endpointAdded(idle, "myFilter");
+            assertTrue("import of the more loaded endpoint must be closed",
+                       loadedClosed.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testUnregistrationEventRemovesClosedImport() throws Exception {
+        BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
+        EasyMock.replay(bc);
+        final EndpointDescription endpoint = createEndpoint(0);
+        RemoteServiceAdminCore rsaCore = EasyMock.createNiceMock(RemoteServiceAdminCore.class);
+        EasyMock.replay(rsaCore);
+        final ImportRegistrationImpl ireg = new ImportRegistrationImpl(endpoint, rsaCore);
+        final CountDownLatch imported = new CountDownLatch(1);
+        RemoteServiceAdmin rsa = EasyMock.createMock(RemoteServiceAdmin.class);
+        EasyMock.expect(rsa.importService(endpoint)).andAnswer(new IAnswer<ImportRegistration>() {
+            public ImportRegistration answer() throws Throwable {
+                imported.countDown();
+                return ireg;
+            }
+        }).once();
+        EasyMock.replay(rsa);
+        @SuppressWarnings("unchecked")
+        SimpleServiceTracker<RemoteServiceAdmin> rsaTracker = EasyMock.createNiceMock(SimpleServiceTracker.class);
+        EasyMock.expect(rsaTracker.getAllServices()).andReturn(Arrays.asList(rsa)).anyTimes();
+        EasyMock.replay(rsaTracker);
+
+        TopologyExecutor executor = new TopologyExecutor("test");
+        TopologyManagerImport tm = new TopologyManagerImport(bc, rsaTracker, executor);
+        EventProducer eventProducer = new EventProducer(createListenerContext(tm), new Executor() {
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        try {
+            tm.endpointAdded(endpoint, "myFilter");
+            assertTrue(imported.await(10, TimeUnit.SECONDS));
+            long deadline = System.currentTimeMillis() + 10000;
+            while (tm.getImportedServicesCopy("myFilter").isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(Arrays.asList(ireg), tm.getImportedServicesCopy("myFilter"));
+
+            // the RemoteServiceAdmin publishes the removal after the registration is closed
+            ireg.close();
+            eventProducer.notifyRemoval(ireg);
+            assertTrue("closed import must be removed", tm.getImportedServicesCopy("myFilter").isEmpty());
+        } finally {
+            eventProducer.close();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Creates a context in which the given listener is the only registered RemoteServiceAdminListener.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static BundleContext createListenerContext(RemoteServiceAdminListener listener) throws Exception {
+        Bundle bundle = EasyMock.createNiceMock(Bundle.class);
+        EasyMock.replay(bundle);
+        ServiceReference sref = EasyMock.createNiceMock(ServiceReference.class);
+        EasyMock.expect(sref.getBundle()).andReturn(bundle).anyTimes();
+        EasyMock.replay(sref);
+        BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
+        EasyMock.expect(bc.getBundle()).andReturn(bundle).anyTimes();
+        EasyMock.expect(bc.getServiceReferences((String) EasyMock.isNull(),
+                                                EasyMock.contains(RemoteServiceAdminListener.class.getName())))
+            .andReturn(new ServiceReference[] {sref}).anyTimes();
+        EasyMock.expect(bc.getService(sref)).andReturn(listener).anyTimes();
+        EasyMock.replay(bc);
+        return bc;
+    }
+
+    private static ImportRegistration createImportRegistration(EndpointDescription endpoint,
+                                                               final CountDownLatch closed) {
+        ImportReference iref = EasyMock.createNiceMock(ImportReference.class);
+        EasyMock.expect(iref.getImportedEndpoint()).andReturn(endpoint).anyTimes();
+        EasyMock.replay(iref);
+        ImportRegistration ireg = EasyMock.createNiceMock(ImportRegistration.class);
+        EasyMock.expect(ireg.getImportReference()).andReturn(iref).anyTimes();
+        ireg.close();
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            public Object answer() throws Throwable {
+                closed.countDown();
+                return null;
+            }
+        }).anyTimes();
+        EasyMock.replay(ireg);
+        return ireg;
+    }
+
+    private static EndpointDescription createEndpoint(int i) {
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put(RemoteConstants.ENDPOINT_ID, "http://localhost/" + i);
+        props.put(Constants.OBJECTCLASS, new String[] {"my.Interface"});
+        props.put(RemoteConstants.SERVICE_IMPORTED_CONFIGS, "my.config");
+        return new EndpointDescription(props);
+    }
 }
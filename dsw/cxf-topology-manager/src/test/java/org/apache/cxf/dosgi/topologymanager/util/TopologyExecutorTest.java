@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.dosgi.topologymanager.util;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TopologyExecutorTest {
+
+    @Test
+    public void testConfigure() {
+        TopologyExecutor executor = new TopologyExecutor("test");
+        try {
+            Dictionary<String, Object> config = new Hashtable<String, Object>();
+            config.put(TopologyExecutor.CORE_POOL_SIZE, "30");
+            config.put(TopologyExecutor.MAX_POOL_SIZE, 40);
+            executor.configure(config);
+            assertEquals(30, executor.getCorePoolSize());
+            assertEquals(40, executor.getMaxPoolSize());
+            assertEquals(TopologyExecutor.DEFAULT_QUEUE_CAPACITY, executor.getQueueCapacity());
+
+            config.put(TopologyExecutor.QUEUE_CAPACITY, 5);
+            executor.configure(config);
+            assertEquals(5, executor.getQueueCapacity());
+            assertEquals(30, executor.getCorePoolSize());
+
+            executor.configure(null);
+            assertEquals(TopologyExecutor.DEFAULT_CORE_POOL_SIZE, executor.getCorePoolSize());
+            assertEquals(TopologyExecutor.DEFAULT_MAX_POOL_SIZE, executor.getMaxPoolSize());
+            assertEquals(TopologyExecutor.DEFAULT_QUEUE_CAPACITY, executor.getQueueCapacity());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testInvalidConfiguration() {
+        TopologyExecutor executor = new TopologyExecutor("test");
+        try {
+            Dictionary<String, Object> config = new Hashtable<String, Object>();
+            config.put(TopologyExecutor.CORE_POOL_SIZE, "many");
+            assertInvalid(executor, config);
+            config.put(TopologyExecutor.CORE_POOL_SIZE, 0);
+            assertInvalid(executor, config);
+            config.put(TopologyExecutor.CORE_POOL_SIZE, 5);
+            config.put(TopologyExecutor.MAX_POOL_SIZE, 4);
+            assertInvalid(executor, config);
+            assertEquals(TopologyExecutor.DEFAULT_CORE_POOL_SIZE, executor.getCorePoolSize());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void assertInvalid(TopologyExecutor executor, Dictionary<String, Object> config) {
+        try {
+            executor.configure(config);
+            fail("configuration must be rejected: " + config);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCallerRunsWhenSaturated() throws Exception {
+        TopologyExecutor executor = new TopologyExecutor("test", 1, 1, 1);
+        try {
+            final CountDownLatch release = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(3);
+            Runnable blocking = new Runnable() {
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                }
+            };
+            executor.execute(blocking); // runs in the pool
+            executor.execute(blocking); // queued
+            executor.execute(new Runnable() {
+                public void run() {
+                    done.countDown();
+                }
+            }); // runs in this thread
+            assertEquals(1, executor.getCallerRunsCount());
+            assertEquals(1, executor.getQueueDepth());
+
+            release.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            long deadline = System.currentTimeMillis() + 10000;
+            while (executor.getCompletedTaskCount() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(3, executor.getCompletedTaskCount());
+            assertTrue(executor.getAverageExecutionMillis() >= 0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}